@@ -0,0 +1,38 @@
+package com.redfin.hudson;
+
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.runtime.RecognitionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Schedule checks run on every save of a job configuration and of the Global Configuration,
+ * and on every keystroke in the schedule fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConfSpecBenchmark {
+
+	@Param({ "* * * * *", "*/5 * * * *", "0 2 * * 1-5" })
+	String confSpec;
+
+	@Param({ "*/15 * * * *" })
+	String minConfSpec;
+
+	@Benchmark
+	public boolean isMoreFrequentThanMinConfSpec() throws RecognitionException {
+		return UrlChangeTrigger.DescriptorImpl.isMoreFrequentThanMinConfSpec(confSpec, minConfSpec);
+	}
+
+	@Benchmark
+	public long getInterval() {
+		return UrlChangeTrigger.DescriptorImpl.getInterval(confSpec);
+	}
+}
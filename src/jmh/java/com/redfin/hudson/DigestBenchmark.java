@@ -0,0 +1,59 @@
+package com.redfin.hudson;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Digest throughput of each algorithm over content of various sizes,
+ * with and without a selector. Results are in operations per second,
+ * multiply by the size for bytes per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DigestBenchmark {
+
+	@Param({ "1024", "65536", "1048576", "16777216" })
+	int size;
+
+	@Param({ "md5", "sha256", "xxh64" })
+	String algorithm;
+
+	private byte[] content;
+	private DigestAlgorithm digestAlgorithm;
+	private ContentSelector selector;
+
+	@Setup
+	public void setUp() {
+		//Text, so the selector has something to match line after line
+		StringBuilder builder = new StringBuilder(size);
+		Random random = new Random(size);
+		while (builder.length() < size)
+			builder.append("build ").append(random.nextInt(100000)).append(" status=ok\n");
+		builder.setLength(size);
+		content = builder.toString().getBytes();
+		digestAlgorithm = DigestAlgorithm.fromId(algorithm);
+		selector = ContentSelector.create("REGEX", "build \\d+");
+	}
+
+	@Benchmark
+	public String digest() throws IOException {
+		return digestAlgorithm.digest(new ByteArrayInputStream(content));
+	}
+
+	@Benchmark
+	public String digestSelected() throws IOException {
+		return digestAlgorithm.digest(new ByteArrayInputStream(content), selector, "UTF-8");
+	}
+}
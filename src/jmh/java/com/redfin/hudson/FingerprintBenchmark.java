@@ -0,0 +1,113 @@
+package com.redfin.hudson;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Reading, comparing and recording the fingerprint of a job, the bookkeeping
+ * {@link UrlChangeTrigger#run()} does around every fetch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FingerprintBenchmark {
+
+	@Param({ "NEVER", "BATCH", "ALWAYS" })
+	String fsyncPolicy;
+
+	@Param({ "FILES", "JOURNAL" })
+	String fingerprintStore;
+
+	private File root;
+	private File dir;
+	private FingerprintStore store;
+	private FingerprintCache cache;
+	private UrlFingerprint stored;
+	private UrlFingerprint unchanged;
+	private UrlFingerprint changed;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		root = File.createTempFile("fingerprint", "bench");
+		root.delete();
+		dir = new File(root, "jobs/bench");
+		dir.mkdirs();
+		stored = new UrlFingerprint(DigestAlgorithm.SHA256.qualify("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08"),
+				"\"v1\"", "Tue, 15 Nov 1994 12:45:26 GMT", 4096);
+		unchanged = new UrlFingerprint(stored.getDigest(), stored.getEtag(), stored.getLastModified(), 4096);
+		changed = new UrlFingerprint(DigestAlgorithm.SHA256.qualify("60303ae22b998861bce3b28f33eec1be758a213c86c93c076dbe9f558c11c752"),
+				"\"v2\"", "Wed, 16 Nov 1994 12:45:26 GMT", 4096);
+		store = FingerprintStore.create(FingerprintStore.Type.fromName(fingerprintStore), root);
+		store.save(dir, stored, true);
+		store.commit(true);
+		cache = new FingerprintCache(FingerprintCache.FsyncPolicy.fromName(fsyncPolicy), store);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		cache.shutdown();
+		FileUtils.deleteDirectory(root);
+	}
+
+	/**
+	 * Loads the fingerprint from disk, as on the first poll after a restart.
+	 */
+	@Benchmark
+	public UrlFingerprint load() throws IOException {
+		return store.load(dir);
+	}
+
+	/**
+	 * Saves the fingerprint straight to disk with fsync, as the {@link FingerprintCache.FsyncPolicy#ALWAYS} policy does.
+	 */
+	@Benchmark
+	public void saveSynced() throws IOException {
+		store.save(dir, stored, true);
+		store.commit(true);
+	}
+
+	/**
+	 * Poll that finds the content unchanged: cached read and comparison only.
+	 */
+	@Benchmark
+	public boolean pollUnchanged() throws IOException {
+		UrlFingerprint old = cache.get(dir);
+		return compareAndRecord(old, unchanged);
+	}
+
+	/**
+	 * Poll that finds the content changed, alternating between two fingerprints
+	 * so every invocation records a new one.
+	 */
+	@Benchmark
+	public boolean pollChanged() throws IOException {
+		UrlFingerprint old = cache.get(dir);
+		return compareAndRecord(old, old.getDigest().equals(changed.getDigest()) ? stored : changed);
+	}
+
+	/**
+	 * Same decisions as {@link UrlChangeTrigger#poll(java.net.URL)}.
+	 */
+	private boolean compareAndRecord(UrlFingerprint old, UrlFingerprint current) throws IOException {
+		if (!current.getDigest().equalsIgnoreCase(old.getDigest())) {
+			cache.put(dir, current);
+			return true;
+		}
+		if (!current.sameValidators(old))
+			cache.put(dir, current);
+		return false;
+	}
+}
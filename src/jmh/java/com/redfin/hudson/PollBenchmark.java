@@ -0,0 +1,100 @@
+package com.redfin.hudson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Whole fetches against an in-process HTTP server, so the numbers cover the transport,
+ * the conditional requests, decoding and digesting, without the noise of a real network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PollBenchmark {
+
+	@Param({ "1024", "1048576" })
+	int size;
+
+	@Param({ "URLCONNECTION", "HTTP2" })
+	String transport;
+
+	private HttpServer server;
+	private URL url;
+	private UrlFingerprint known;
+
+	@Setup
+	public void setUp() throws IOException {
+		final byte[] content = new byte[size];
+		Arrays.fill(content, (byte)'x');
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newFixedThreadPool(4));
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().add("ETag", "\"v1\"");
+				if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				OutputStream out;
+				if (encoding != null && encoding.contains("gzip")) {
+					exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+					exchange.sendResponseHeaders(200, 0);
+					out = new GZIPOutputStream(exchange.getResponseBody());
+				} else {
+					exchange.sendResponseHeaders(200, content.length);
+					out = exchange.getResponseBody();
+				}
+				out.write(content);
+				out.close();
+			}
+		});
+		server.start();
+		url = new URL("http://localhost:" + server.getAddress().getPort() + "/content");
+		HttpTransport.Type type = HttpTransport.Type.fromName(transport);
+		HttpTransport.configure(type.isAvailable() ? type : HttpTransport.Type.URLCONNECTION);
+		known = new PollRequest(url, 5000).fetch(null);
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.stop(0);
+		HttpTransport.configure(HttpTransport.Type.URLCONNECTION);
+	}
+
+	@Benchmark
+	public UrlFingerprint fetch() throws IOException {
+		return new PollRequest(url, 5000).fetch(null);
+	}
+
+	@Benchmark
+	public UrlFingerprint fetchCompressed() throws IOException {
+		return new PollRequest(url, 5000).compression(true).fetch(null);
+	}
+
+	@Benchmark
+	public UrlFingerprint notModified() throws IOException {
+		return new PollRequest(url, 5000).fetch(known);
+	}
+}
@@ -0,0 +1,85 @@
+package com.redfin.hudson;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stretches the polling interval of the URLs whose content is stable.
+ *
+ * A URL is polled every <tt>1/STABILITY_DIVISOR</tt> of the time since its content last changed,
+ * never more often than the base interval and never less often than the maximum interval.
+ * A URL that just changed is polled at the base interval again, one that hasn't changed for
+ * a day is polled every three hours unless the maximum is lower.
+ *
+ * The history is kept in memory only, after a restart or a change of the job configuration
+ * every URL starts over at the base interval.
+ */
+public class AdaptiveInterval {
+
+	/**
+	 * Part of the time since the last change a URL waits between two polls.
+	 */
+	static final int STABILITY_DIVISOR = 8;
+
+	/**
+	 * Cron ticks don't fire at the exact same millisecond, a poll this close to being due is not skipped.
+	 */
+	static final long TOLERANCE = 5000;
+
+	private final ConcurrentMap<String, History> histories = new ConcurrentHashMap<String, History>();
+
+	private static final class History {
+		/** Start of the last poll. */
+		volatile long lastPoll;
+		/** Start of the last poll that found a change, or of the first poll. */
+		volatile long lastChange;
+	}
+
+	/**
+	 * @param now start of the current cron tick
+	 * @param baseInterval interval of the configured schedule, in milliseconds
+	 * @param maxInterval the interval is never stretched beyond this, in milliseconds
+	 * @return true if the URL should be polled on this tick
+	 */
+	public boolean isDue(URL url, long now, long baseInterval, long maxInterval) {
+		History history = histories.get(url.toExternalForm());
+		if (history == null)
+			return true;
+		return now - history.lastPoll + TOLERANCE >= getInterval(history, now, baseInterval, maxInterval);
+	}
+
+	/**
+	 * @return the interval currently applied to the URL, in milliseconds
+	 */
+	public long getInterval(URL url, long now, long baseInterval, long maxInterval) {
+		History history = histories.get(url.toExternalForm());
+		return history != null ? getInterval(history, now, baseInterval, maxInterval) : baseInterval;
+	}
+
+	private static long getInterval(History history, long now, long baseInterval, long maxInterval) {
+		long stretched = (now - history.lastChange) / STABILITY_DIVISOR;
+		return Math.max(baseInterval, Math.min(maxInterval, stretched));
+	}
+
+	/**
+	 * Records a poll of the URL.
+	 *
+	 * @param time start of the cron tick the poll belongs to
+	 * @param changed true if the content changed
+	 */
+	public void polled(URL url, long time, boolean changed) {
+		String key = url.toExternalForm();
+		History history = histories.get(key);
+		if (history == null) {
+			History created = new History();
+			created.lastChange = time;
+			history = histories.putIfAbsent(key, created);
+			if (history == null)
+				history = created;
+		}
+		history.lastPoll = time;
+		if (changed)
+			history.lastChange = time;
+	}
+}
@@ -0,0 +1,80 @@
+package com.redfin.hudson;
+
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.remoting.Callable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Fetches and digests the content of a URL on an agent, for URLs the agents reach better than
+ * the master: closer to the server, or on a network segment the master can't see.
+ *
+ * The request and the known fingerprint travel to the agent, only the new fingerprint comes
+ * back, so the content never crosses the master's network path and the master spends no
+ * thread time reading and digesting it. Every URL is always fetched by the same online agent
+ * of the label, so the agent's connections to the server get reused.
+ */
+final class AgentFetch implements Callable<UrlFingerprint, IOException> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final PollRequest request;
+	private final UrlFingerprint known;
+	private final HttpTransport.Type transport;
+
+	private AgentFetch(PollRequest request, UrlFingerprint known, HttpTransport.Type transport) {
+		this.request = request;
+		this.known = known;
+		this.transport = transport;
+	}
+
+	/**
+	 * Runs on the agent, where the request has no agent anymore and is fetched locally.
+	 */
+	public UrlFingerprint call() throws IOException {
+		HttpTransport.configure(transport);
+		return request.fetch(known);
+	}
+
+	/**
+	 * Fetches the request on one of the online agents with the label.
+	 *
+	 * @throws IOException if the fetch failed or no agent with the label is online
+	 */
+	static UrlFingerprint fetch(String label, PollRequest request, UrlFingerprint known) throws IOException {
+		VirtualChannel channel = getChannel(label, request);
+		try {
+			return channel.call(new AgentFetch(request, known, HttpTransport.getType()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while " + label + " fetched " + request);
+		}
+	}
+
+	private static VirtualChannel getChannel(String label, PollRequest request) throws IOException {
+		Label nodes = Hudson.getInstance().getLabel(label);
+		//Same order on every poll, so a URL sticks to its agent while the agents stay online
+		SortedMap<String, VirtualChannel> channels = new TreeMap<String, VirtualChannel>();
+		if (nodes != null) {
+			for (Node node : nodes.getNodes()) {
+				Computer computer = node.toComputer();
+				VirtualChannel channel = computer != null && computer.isOnline() ? computer.getChannel() : null;
+				if (channel != null)
+					channels.put(node.getNodeName(), channel);
+			}
+		}
+		if (channels.isEmpty())
+			throw new IOException("No online agent with label " + label + " to fetch " + request);
+		List<VirtualChannel> online = new ArrayList<VirtualChannel>(channels.values());
+		return online.get((request.getUrl().toExternalForm().hashCode() & 0x7FFFFFFF) % online.size());
+	}
+}
@@ -0,0 +1,137 @@
+package com.redfin.hudson;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parts of the content that are fetched instead of the whole content, in the syntax of the
+ * HTTP <tt>Range</tt> header without the unit: <tt>0-65535</tt> for the first 64 KB,
+ * <tt>-1024</tt> for the last KB, <tt>0-1023, 4096-8191</tt> for two blocks.
+ */
+public class ByteRanges implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * One range, both ends included.
+	 */
+	public static final class Range implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/** First byte, -1 for the last <tt>suffix</tt> bytes of the content. */
+		private final long first;
+		/** Last byte, -1 for the end of the content. */
+		private final long last;
+		private final long suffix;
+
+		Range(long first, long last, long suffix) {
+			this.first = first;
+			this.last = last;
+			this.suffix = suffix;
+		}
+
+		/**
+		 * @return the value of the <tt>Range</tt> header requesting this range
+		 */
+		public String toHeader() {
+			return "bytes=" + toString();
+		}
+
+		/**
+		 * @param total length of the whole content, -1 if unknown
+		 * @return the offset of the first byte, -1 if it can't be known
+		 */
+		public long getFirst(long total) {
+			if (first >= 0)
+				return first;
+			return total >= 0 ? Math.max(0, total - suffix) : -1;
+		}
+
+		/**
+		 * @return the number of bytes in the range, -1 if it runs to the end of the content
+		 */
+		public long getLength() {
+			if (first < 0)
+				return suffix;
+			return last >= 0 ? last - first + 1 : -1;
+		}
+
+		@Override
+		public String toString() {
+			if (first < 0)
+				return "-" + suffix;
+			return first + "-" + (last >= 0 ? Long.toString(last) : "");
+		}
+	}
+
+	private final List<Range> ranges;
+
+	private ByteRanges(List<Range> ranges) {
+		this.ranges = ranges;
+	}
+
+	/**
+	 * @return the ranges described by the expression, null if it is blank
+	 * @throws IllegalArgumentException if the expression is invalid
+	 */
+	public static ByteRanges parse(String expression) {
+		if (expression == null || expression.trim().length() == 0)
+			return null;
+		String value = expression.trim();
+		if (value.startsWith("bytes="))
+			value = value.substring(6);
+		List<Range> ranges = new ArrayList<Range>();
+		for (String part : value.split(",")) {
+			part = part.trim();
+			int dash = part.indexOf('-');
+			if (dash < 0)
+				throw new IllegalArgumentException("Missing - in byte range " + part);
+			try {
+				String start = part.substring(0, dash).trim();
+				String end = part.substring(dash + 1).trim();
+				if (start.length() == 0) {
+					long suffix = Long.parseLong(end);
+					if (suffix <= 0)
+						throw new IllegalArgumentException("Empty byte range " + part);
+					ranges.add(new Range(-1, -1, suffix));
+				} else {
+					long first = Long.parseLong(start);
+					long last = end.length() > 0 ? Long.parseLong(end) : -1;
+					if (first < 0 || (last >= 0 && last < first))
+						throw new IllegalArgumentException("Invalid byte range " + part);
+					ranges.add(new Range(first, last, 0));
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid byte range " + part);
+			}
+		}
+		return new ByteRanges(Collections.unmodifiableList(ranges));
+	}
+
+	public List<Range> getRanges() {
+		return ranges;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof ByteRanges && toString().equals(o.toString());
+	}
+
+	@Override
+	public int hashCode() {
+		return toString().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (Range range : ranges) {
+			if (builder.length() > 0)
+				builder.append(", ");
+			builder.append(range);
+		}
+		return builder.toString();
+	}
+}
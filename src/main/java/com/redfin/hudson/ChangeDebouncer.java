@@ -0,0 +1,97 @@
+package com.redfin.hudson;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds back the build of a trigger until the content of its URLs stops changing.
+ *
+ * Servers publishing in stages show several different contents over consecutive polls.
+ * Every change seen during such a burst is recorded here instead of starting a build, and
+ * the burst settles once no change has been seen for the quiet period. A single build then
+ * covers the whole burst, its cause holds the fingerprint every URL had before the burst and
+ * its final one. URLs whose content ended up where it was before the burst did not change at all
+ * and are dropped when the burst settles.
+ *
+ * Only one timer per trigger waits for the burst to settle, changes seen meanwhile just
+ * push the end of the quiet period back.
+ */
+public class ChangeDebouncer {
+
+	private final Map<String, UrlChangeCause.Change> burst = new LinkedHashMap<String, UrlChangeCause.Change>();
+	private long lastChange;
+	private boolean armed;
+
+	/**
+	 * Records a change of one of the URLs.
+	 *
+	 * @param from fingerprint of the content before the change, null if there was none;
+	 * only the one of the first change of a burst is kept
+	 * @param digest fingerprint of the new content
+	 * @param time when the change was seen
+	 */
+	public synchronized void changed(URL url, String from, String digest, long time) {
+		String key = url.toExternalForm();
+		UrlChangeCause.Change change = burst.get(key);
+		if (change == null)
+			burst.put(key, new UrlChangeCause.Change(url, from, digest));
+		else
+			change.changedTo(digest);
+		lastChange = Math.max(lastChange, time);
+	}
+
+	/**
+	 * @return true if changes are waiting and nobody waits for them to settle yet, the caller
+	 * must then call {@link #settle(long, long)} once the quiet period is over
+	 */
+	public synchronized boolean arm() {
+		if (armed || burst.isEmpty())
+			return false;
+		armed = true;
+		return true;
+	}
+
+	/**
+	 * @return how long the URLs must stay unchanged before the burst settles, in milliseconds
+	 */
+	public synchronized long getRemaining(long now, long quietPeriod) {
+		return Math.max(0, lastChange + quietPeriod - now);
+	}
+
+	/**
+	 * Ends the burst if the quiet period is over.
+	 *
+	 * @param quietPeriod in milliseconds
+	 * @return the changes of the burst, in the order the URLs first changed, or null if a change
+	 * was seen less than <tt>quietPeriod</tt> ago, the caller must then wait and try again;
+	 * empty if every URL went back to its content from before the burst
+	 */
+	public synchronized List<UrlChangeCause.Change> settle(long now, long quietPeriod) {
+		if (burst.isEmpty()) {
+			armed = false;
+			return new ArrayList<UrlChangeCause.Change>();
+		}
+		if (getRemaining(now, quietPeriod) > 0)
+			return null;
+		return drain();
+	}
+
+	/**
+	 * Ends the burst right away, e.g. when the trigger stops.
+	 *
+	 * @return the changes of the burst with a net change, empty if none is pending
+	 */
+	public synchronized List<UrlChangeCause.Change> drain() {
+		List<UrlChangeCause.Change> changes = new ArrayList<UrlChangeCause.Change>();
+		for (UrlChangeCause.Change change : burst.values()) {
+			if (!change.isReverted())
+				changes.add(change);
+		}
+		burst.clear();
+		armed = false;
+		return changes;
+	}
+}
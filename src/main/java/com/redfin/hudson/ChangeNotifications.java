@@ -0,0 +1,54 @@
+package com.redfin.hudson;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Folds repeated change announcements of a URL together.
+ *
+ * The first announcement starts a verification of the URL. Announcements arriving while it
+ * runs are remembered as one: a single new verification follows, so a change made during the
+ * verification is not missed, but a server announcing in a loop costs at most two fetches at a time.
+ */
+public class ChangeNotifications {
+
+	private static final Integer VERIFYING = 1;
+	/** Verifying, and announced again since the verification started. */
+	private static final Integer VERIFY_AGAIN = 2;
+
+	private final ConcurrentMap<String, Integer> urls = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Records an announcement.
+	 *
+	 * @return true if the caller must start a verification, false if one is running
+	 */
+	public boolean notified(URL url) {
+		String key = url.toExternalForm();
+		while (true) {
+			Integer state = urls.putIfAbsent(key, VERIFYING);
+			if (state == null)
+				return true;
+			if (VERIFY_AGAIN.equals(state) || urls.replace(key, VERIFYING, VERIFY_AGAIN))
+				return false;
+		}
+	}
+
+	/**
+	 * Records the end of a verification.
+	 *
+	 * @return true if the URL was announced again meanwhile, the caller must then verify it again
+	 */
+	public boolean verified(URL url) {
+		String key = url.toExternalForm();
+		while (true) {
+			if (urls.remove(key, VERIFYING))
+				return false;
+			if (urls.replace(key, VERIFY_AGAIN, VERIFYING))
+				return true;
+			if (!urls.containsKey(key))
+				return false;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package com.redfin.hudson;
+
+import java.net.URL;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stops polling URLs that keep failing.
+ *
+ * After <tt>threshold</tt> consecutive failures the circuit of a URL opens and the URL is not
+ * polled until its cool-down is over. The first poll after that is a probe: the circuit closes
+ * if it succeeds, otherwise it opens again for twice as long, up to the maximum cool-down.
+ * While the probe runs every other poll of the URL is skipped.
+ *
+ * Circuits are shared by all the triggers watching the same URL, so an unreachable host
+ * stops costing threads and log lines for every job at once. A failed fetch shared by several
+ * triggers, see {@link UrlPollRegistry}, counts as a single failure.
+ */
+public class CircuitBreaker {
+
+	/**
+	 * Cool-down after the circuit of a URL opens for the first time.
+	 */
+	static final long INITIAL_COOL_DOWN = 60000L;
+
+	public enum State {
+		/** URL is polled normally. */
+		CLOSED("OK"),
+		/** URL is not polled until the cool-down is over. */
+		OPEN("Suspended after failures"),
+		/** A probe poll is running to find out whether the URL is back. */
+		HALF_OPEN("Probing");
+
+		private final String displayName;
+
+		private State(String displayName) {
+			this.displayName = displayName;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+	}
+
+	private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+	private volatile int threshold;
+	private volatile long maxCoolDown;
+
+	/**
+	 * @param threshold consecutive failures that open the circuit
+	 * @param maxCoolDown longest cool-down, in milliseconds
+	 */
+	public CircuitBreaker(int threshold, long maxCoolDown) {
+		configure(threshold, maxCoolDown);
+	}
+
+	public void configure(int threshold, long maxCoolDown) {
+		this.threshold = Math.max(1, threshold);
+		this.maxCoolDown = Math.max(INITIAL_COOL_DOWN, maxCoolDown);
+	}
+
+	/**
+	 * Returns true if the URL may be polled now. When the cool-down of an open circuit
+	 * is over, returns true for exactly one caller, whose poll is the probe.
+	 */
+	public boolean allowRequest(URL url, long now) {
+		Circuit circuit = circuits.get(url.toExternalForm());
+		return circuit == null || circuit.allowRequest(now);
+	}
+
+	/**
+	 * Records a successful poll, closing the circuit of the URL.
+	 */
+	public void success(URL url) {
+		circuits.remove(url.toExternalForm());
+	}
+
+	/**
+	 * Records a failed poll.
+	 *
+	 * @return the state of the circuit after the failure
+	 */
+	public State failure(URL url, long now) {
+		return failure(url, now, new Object());
+	}
+
+	/**
+	 * Records a failed poll, unless the failure of the same fetch was already recorded
+	 * by another trigger that shared it.
+	 *
+	 * @param fetch identifies the failed fetch, e.g. the exception it failed with, which
+	 * {@link UrlPollRegistry} hands to every trigger waiting for the fetch
+	 * @return the state of the circuit after the failure
+	 */
+	public State failure(URL url, long now, Object fetch) {
+		String key = url.toExternalForm();
+		Circuit circuit = circuits.get(key);
+		if (circuit == null) {
+			Circuit created = new Circuit();
+			circuit = circuits.putIfAbsent(key, created);
+			if (circuit == null)
+				circuit = created;
+		}
+		return circuit.failure(now, threshold, maxCoolDown, fetch);
+	}
+
+	/**
+	 * @return a snapshot of the circuit of the URL
+	 */
+	public Status getStatus(URL url) {
+		Circuit circuit = circuits.get(url.toExternalForm());
+		return circuit != null ? circuit.getStatus(url) : new Status(url, State.CLOSED, 0, 0);
+	}
+
+	private static final class Circuit {
+		private State state = State.CLOSED;
+		private int failures;
+		private long coolDown;
+		private long retryAt;
+		/** Last failed fetch counted. */
+		private Object lastFetch;
+
+		synchronized boolean allowRequest(long now) {
+			switch (state) {
+			case OPEN:
+			case HALF_OPEN:
+				//A probe that never reported back doesn't hold the circuit forever
+				if (now < retryAt)
+					return false;
+				state = State.HALF_OPEN;
+				retryAt = now + coolDown;
+				return true;
+			default:
+				return true;
+			}
+		}
+
+		synchronized State failure(long now, int threshold, long maxCoolDown, Object fetch) {
+			if (fetch == lastFetch)
+				return state;
+			lastFetch = fetch;
+			failures++;
+			if (state == State.OPEN) {
+				//Poll started before the circuit opened
+				return state;
+			} else if (state == State.HALF_OPEN) {
+				coolDown = Math.min(maxCoolDown, coolDown * 2);
+			} else if (failures >= threshold) {
+				coolDown = INITIAL_COOL_DOWN;
+			} else {
+				return state;
+			}
+			state = State.OPEN;
+			retryAt = now + coolDown;
+			return state;
+		}
+
+		synchronized Status getStatus(URL url) {
+			return new Status(url, state, failures, state != State.CLOSED ? retryAt : 0);
+		}
+	}
+
+	/**
+	 * State of the circuit of a URL, as shown on the job page.
+	 */
+	public static final class Status {
+		private final URL url;
+		private final State state;
+		private final int failures;
+		private final long retryAt;
+
+		Status(URL url, State state, int failures, long retryAt) {
+			this.url = url;
+			this.state = state;
+			this.failures = failures;
+			this.retryAt = retryAt;
+		}
+
+		public URL getUrl() {
+			return url;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		/**
+		 * @return the number of consecutive failed polls
+		 */
+		public int getFailures() {
+			return failures;
+		}
+
+		/**
+		 * @return when the next probe is allowed, null if the circuit is closed
+		 */
+		public Date getRetryAt() {
+			return retryAt > 0 ? new Date(retryAt) : null;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.redfin.hudson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Picks the part of a response that matters for change detection,
+ * so volatile fields like timestamps or request ids don't launch builds.
+ *
+ * Selectors read the response as a stream and hand only the selected text to the digest,
+ * nothing but the current token or line is kept in memory.
+ */
+public abstract class ContentSelector implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Type {
+		REGEX("Regular expression"),
+		JSONPATH("JSONPath"),
+		XPATH("XPath");
+
+		private final String displayName;
+
+		private Type(String displayName) {
+			this.displayName = displayName;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		public static Type fromName(String name) {
+			for (Type type : values()) {
+				if (type.name().equalsIgnoreCase(name))
+					return type;
+			}
+			return null;
+		}
+	}
+
+	protected final String expression;
+
+	protected ContentSelector(String expression) {
+		this.expression = expression;
+	}
+
+	/**
+	 * Creates the selector for the given type and expression.
+	 *
+	 * @return null if no type or no expression is given
+	 * @throws IllegalArgumentException if the expression can't be parsed
+	 */
+	public static ContentSelector create(String type, String expression) {
+		Type t = Type.fromName(type);
+		if (t == null || StringUtils.isBlank(expression))
+			return null;
+		switch (t) {
+		case REGEX:
+			return new RegexSelector(expression.trim());
+		case JSONPATH:
+			return new JsonPathSelector(expression.trim());
+		case XPATH:
+			return new XPathSelector(expression.trim());
+		default:
+			return null;
+		}
+	}
+
+	public abstract Type getType();
+
+	public String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Reads the content and feeds the selected parts to the hasher.
+	 *
+	 * @param charset charset announced by the server, may be null
+	 */
+	abstract void select(InputStream in, String charset, DigestAlgorithm.Hasher hasher) throws IOException;
+
+	static Charset charset(String name) {
+		try {
+			if (name != null)
+				return Charset.forName(name);
+		} catch (IllegalArgumentException e) {
+			//Unknown charset, fall back to UTF-8
+		}
+		return Charset.forName("UTF-8");
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (o == null || o.getClass() != getClass())
+			return false;
+		return expression.equals(((ContentSelector)o).expression);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * getType().hashCode() + expression.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return getType().getDisplayName() + " " + expression;
+	}
+
+	/**
+	 * Encodes selected text to UTF-8 and feeds it to a hasher through a fixed size buffer.
+	 */
+	static final class Emitter {
+		private static final Charset UTF8 = Charset.forName("UTF-8");
+
+		private final DigestAlgorithm.Hasher hasher;
+		private final CharsetEncoder encoder = UTF8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharBuffer chars = CharBuffer.allocate(4096);
+		private final ByteBuffer bytes = ByteBuffer.allocate(4096 * 4);
+
+		Emitter(DigestAlgorithm.Hasher hasher) {
+			this.hasher = hasher;
+		}
+
+		void emit(char c) {
+			if (!chars.hasRemaining())
+				drain();
+			chars.put(c);
+		}
+
+		void emit(CharSequence s) {
+			for (int i = 0; i < s.length(); i++)
+				emit(s.charAt(i));
+		}
+
+		/**
+		 * Separates two selected values so that moving text from one to the other is a change.
+		 */
+		void separator() {
+			emit('\n');
+		}
+
+		private void drain() {
+			chars.flip();
+			//A trailing high surrogate stays in the buffer until its pair arrives
+			CoderResult result = encoder.encode(chars, bytes, false);
+			if (result.isError())
+				throw new IllegalStateException("Can't encode selected text: " + result);
+			hasher.update(bytes.array(), 0, bytes.position());
+			bytes.clear();
+			chars.compact();
+		}
+
+		void flush() {
+			drain();
+			chars.flip();
+			encoder.encode(chars, bytes, true);
+			encoder.flush(bytes);
+			hasher.update(bytes.array(), 0, bytes.position());
+			bytes.clear();
+			chars.clear();
+			encoder.reset();
+		}
+	}
+}
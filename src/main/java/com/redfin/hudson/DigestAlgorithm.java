@@ -0,0 +1,359 @@
+package com.redfin.hudson;
+
+import hudson.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Algorithms available to fingerprint the content of a URL.
+ *
+ * Fingerprints are stored as <tt>id:hex</tt>. Files written by older versions of the plugin
+ * only contain the hex MD5, {@link #of(String)} reads those as {@link #MD5}.
+ *
+ * Content is streamed through a buffer and a hasher borrowed from small pools shared by all
+ * the polls, so a poll does not allocate anything proportional to the size of the content,
+ * and nothing at all once the pools are warm, even when every poll runs on a new virtual thread.
+ */
+public enum DigestAlgorithm {
+
+	MD5("md5", "MD5 (compatible with older versions)") {
+		@Override
+		Hasher newHasher() {
+			return new MessageDigestHasher("MD5");
+		}
+	},
+	SHA256("sha256", "SHA-256") {
+		@Override
+		Hasher newHasher() {
+			return new MessageDigestHasher("SHA-256");
+		}
+	},
+	XXHASH64("xxh64", "xxHash64 (fastest, not cryptographic)") {
+		@Override
+		Hasher newHasher() {
+			return new XXHash64();
+		}
+	};
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Idle buffers and hashers kept per pool, more polls than that running at the same time allocate their own.
+	 */
+	static final int POOL_SIZE = Integer.getInteger(DigestAlgorithm.class.getName() + ".poolSize", 32);
+
+	private static final Pool<byte[]> BUFFERS = new Pool<byte[]>();
+
+	private final String id;
+	private final String displayName;
+	private final Pool<Hasher> hashers = new Pool<Hasher>();
+
+	private DigestAlgorithm(String id, String displayName) {
+		this.id = id;
+		this.displayName = displayName;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+
+	abstract Hasher newHasher();
+
+	/**
+	 * Borrows a hasher, reset and ready to use. It goes back with {@link #release(Hasher)}.
+	 */
+	Hasher borrowHasher() {
+		Hasher h = hashers.borrow();
+		if (h == null)
+			return newHasher();
+		h.reset();
+		return h;
+	}
+
+	void release(Hasher h) {
+		hashers.release(h);
+	}
+
+	/**
+	 * Digests the whole stream, without closing it.
+	 *
+	 * @return the fingerprint, prefixed with the id of this algorithm
+	 */
+	public String digest(InputStream in) throws IOException {
+		Hasher h = borrowHasher();
+		byte[] buffer = BUFFERS.borrow();
+		if (buffer == null)
+			buffer = new byte[BUFFER_SIZE];
+		try {
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				h.update(buffer, 0, read);
+			}
+			return qualify(h.finish());
+		} finally {
+			BUFFERS.release(buffer);
+			release(h);
+		}
+	}
+
+	/**
+	 * Digests the parts of the stream picked by the selector, without closing it.
+	 *
+	 * @param selector null to digest the whole stream
+	 * @param charset charset of the content, used by the selector
+	 * @return the fingerprint, prefixed with the id of this algorithm
+	 */
+	public String digest(InputStream in, ContentSelector selector, String charset) throws IOException {
+		if (selector == null)
+			return digest(in);
+		Hasher h = borrowHasher();
+		try {
+			selector.select(in, charset, h);
+			return qualify(h.finish());
+		} finally {
+			release(h);
+		}
+	}
+
+	/**
+	 * Objects idle between two polls, at most {@link #POOL_SIZE} of them.
+	 */
+	private static final class Pool<T> {
+		private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+		private final AtomicInteger size = new AtomicInteger();
+
+		/**
+		 * @return null if the pool is empty
+		 */
+		T borrow() {
+			T t = idle.poll();
+			if (t != null)
+				size.decrementAndGet();
+			return t;
+		}
+
+		void release(T t) {
+			if (size.incrementAndGet() <= POOL_SIZE)
+				idle.offer(t);
+			else
+				size.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Prefixes a hex digest computed with this algorithm with its id.
+	 */
+	public String qualify(String hex) {
+		return id + ':' + hex;
+	}
+
+	/**
+	 * Returns the algorithm a stored fingerprint was computed with.
+	 */
+	public static DigestAlgorithm of(String fingerprint) {
+		if (fingerprint != null) {
+			int colon = fingerprint.indexOf(':');
+			if (colon > 0) {
+				DigestAlgorithm algorithm = fromId(fingerprint.substring(0, colon));
+				if (algorithm != null)
+					return algorithm;
+			}
+		}
+		//Plain hex digests were written before the algorithm was stored
+		return MD5;
+	}
+
+	/**
+	 * Returns a fingerprint in its qualified form, upgrading plain MD5 digests of older versions.
+	 */
+	public static String normalize(String fingerprint) {
+		if (fingerprint == null || fingerprint.indexOf(':') > 0)
+			return fingerprint;
+		return MD5.qualify(fingerprint.toLowerCase());
+	}
+
+	public static DigestAlgorithm fromId(String id) {
+		for (DigestAlgorithm algorithm : values()) {
+			if (algorithm.id.equalsIgnoreCase(id) || algorithm.name().equalsIgnoreCase(id))
+				return algorithm;
+		}
+		return null;
+	}
+
+	/**
+	 * Incremental hash function, borrowed from the pool of its algorithm for one digest at a time.
+	 */
+	interface Hasher {
+		void reset();
+
+		void update(byte[] b, int off, int len);
+
+		/**
+		 * @return the hex encoded digest of everything passed to update since the last reset
+		 */
+		String finish();
+	}
+
+	private static final class MessageDigestHasher implements Hasher {
+		private final MessageDigest md;
+
+		MessageDigestHasher(String algorithm) {
+			try {
+				md = MessageDigest.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException("JVM is missing " + algorithm, e);
+			}
+		}
+
+		public void reset() {
+			md.reset();
+		}
+
+		public void update(byte[] b, int off, int len) {
+			md.update(b, off, len);
+		}
+
+		public String finish() {
+			return Util.toHexString(md.digest());
+		}
+	}
+
+	/**
+	 * Streaming implementation of the 64 bit xxHash function (seed 0).
+	 */
+	static final class XXHash64 implements Hasher {
+		private static final long PRIME1 = 0x9E3779B185EBCA87L;
+		private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+		private static final long PRIME3 = 0x165667B19E3779F9L;
+		private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+		private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+		private long v1, v2, v3, v4;
+		private long total;
+		private final byte[] pending = new byte[32];
+		private int pendingLength;
+
+		XXHash64() {
+			reset();
+		}
+
+		public void reset() {
+			v1 = PRIME1 + PRIME2;
+			v2 = PRIME2;
+			v3 = 0;
+			v4 = -PRIME1;
+			total = 0;
+			pendingLength = 0;
+		}
+
+		public void update(byte[] b, int off, int len) {
+			total += len;
+			if (pendingLength + len < 32) {
+				System.arraycopy(b, off, pending, pendingLength, len);
+				pendingLength += len;
+				return;
+			}
+			int end = off + len;
+			if (pendingLength > 0) {
+				int fill = 32 - pendingLength;
+				System.arraycopy(b, off, pending, pendingLength, fill);
+				stripe(pending, 0);
+				off += fill;
+				pendingLength = 0;
+			}
+			while (off + 32 <= end) {
+				stripe(b, off);
+				off += 32;
+			}
+			if (off < end) {
+				pendingLength = end - off;
+				System.arraycopy(b, off, pending, 0, pendingLength);
+			}
+		}
+
+		private void stripe(byte[] b, int off) {
+			v1 = round(v1, readLong(b, off));
+			v2 = round(v2, readLong(b, off + 8));
+			v3 = round(v3, readLong(b, off + 16));
+			v4 = round(v4, readLong(b, off + 24));
+		}
+
+		public String finish() {
+			long h;
+			if (total >= 32) {
+				h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+				h = merge(h, v1);
+				h = merge(h, v2);
+				h = merge(h, v3);
+				h = merge(h, v4);
+			} else {
+				h = v3 + PRIME5;
+			}
+			h += total;
+
+			int off = 0;
+			while (off + 8 <= pendingLength) {
+				h ^= round(0, readLong(pending, off));
+				h = Long.rotateLeft(h, 27) * PRIME1 + PRIME4;
+				off += 8;
+			}
+			if (off + 4 <= pendingLength) {
+				h ^= (readInt(pending, off) & 0xFFFFFFFFL) * PRIME1;
+				h = Long.rotateLeft(h, 23) * PRIME2 + PRIME3;
+				off += 4;
+			}
+			while (off < pendingLength) {
+				h ^= (pending[off] & 0xFF) * PRIME5;
+				h = Long.rotateLeft(h, 11) * PRIME1;
+				off++;
+			}
+
+			h ^= h >>> 33;
+			h *= PRIME2;
+			h ^= h >>> 29;
+			h *= PRIME3;
+			h ^= h >>> 32;
+			String hex = Long.toHexString(h);
+			return "0000000000000000".substring(hex.length()) + hex;
+		}
+
+		private static long round(long acc, long input) {
+			acc += input * PRIME2;
+			acc = Long.rotateLeft(acc, 31);
+			return acc * PRIME1;
+		}
+
+		private static long merge(long h, long v) {
+			h ^= round(0, v);
+			return h * PRIME1 + PRIME4;
+		}
+
+		private static long readLong(byte[] b, int off) {
+			return (b[off] & 0xFFL)
+					| (b[off + 1] & 0xFFL) << 8
+					| (b[off + 2] & 0xFFL) << 16
+					| (b[off + 3] & 0xFFL) << 24
+					| (b[off + 4] & 0xFFL) << 32
+					| (b[off + 5] & 0xFFL) << 40
+					| (b[off + 6] & 0xFFL) << 48
+					| (b[off + 7] & 0xFFL) << 56;
+		}
+
+		private static int readInt(byte[] b, int off) {
+			return (b[off] & 0xFF)
+					| (b[off + 1] & 0xFF) << 8
+					| (b[off + 2] & 0xFF) << 16
+					| (b[off + 3] & 0xFF) << 24;
+		}
+	}
+}
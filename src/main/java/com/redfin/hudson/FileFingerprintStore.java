@@ -0,0 +1,81 @@
+package com.redfin.hudson;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps every fingerprint in its own files, <tt>url-change-trigger-oldmd5</tt> and
+ * <tt>url-change-trigger-validators</tt>, and its history in <tt>url-change-trigger-history</tt>,
+ * in the directory of the URL.
+ *
+ * The files move and go away with the job directory, renames and deletions need nothing else.
+ *
+ * Fingerprints saved to be synced are written to temporary files. The next {@link #commit(boolean)}
+ * forces all of them to disk in one pass, then moves them into place: a batch costs one pass of
+ * fsyncs the file system can merge, instead of an fsync between every two writes.
+ */
+public class FileFingerprintStore extends FingerprintStore {
+
+	private final List<File> staged = new ArrayList<File>();
+
+	@Override
+	public Type getType() {
+		return Type.FILES;
+	}
+
+	@Override
+	public UrlFingerprint load(File dir) throws IOException {
+		return UrlFingerprint.load(dir);
+	}
+
+	@Override
+	public synchronized void save(File dir, UrlFingerprint fingerprint, boolean sync) throws IOException {
+		if (!dir.isDirectory())
+			dir.mkdirs();
+		if (sync)
+			staged.addAll(fingerprint.saveTemporary(dir, false));
+		else
+			fingerprint.save(dir, false);
+	}
+
+	@Override
+	public FingerprintHistory loadHistory(File dir) throws IOException {
+		return FingerprintHistory.load(dir);
+	}
+
+	/**
+	 * Histories only change with the content of their URL, they are written right away.
+	 */
+	@Override
+	public void saveHistory(File dir, FingerprintHistory history, boolean sync) throws IOException {
+		if (!dir.isDirectory())
+			dir.mkdirs();
+		history.save(dir, sync);
+	}
+
+	@Override
+	public synchronized void commit(boolean sync) throws IOException {
+		try {
+			if (sync) {
+				for (File tmp : staged)
+					UrlFingerprint.sync(tmp);
+			}
+			IOException failure = null;
+			for (File tmp : staged) {
+				try {
+					UrlFingerprint.replace(tmp);
+				} catch (IOException e) {
+					//Keep going, the other fingerprints of the batch are fine
+					if (failure == null)
+						failure = e;
+				}
+			}
+			if (failure != null)
+				throw failure;
+		} finally {
+			staged.clear();
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package com.redfin.hudson;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the fingerprints of the jobs in memory once they have been read,
+ * and writes updates behind in batches instead of on every change.
+ *
+ * Pending updates are flushed every {@link #FLUSH_INTERVAL} milliseconds, which is well below
+ * the one minute cron resolution, so a crash loses at most the state of one poll per job.
+ * Losing it means the next poll sees the change again and launches the build once more.
+ *
+ * Fingerprints are read from and written to a {@link FingerprintStore}. The content histories
+ * go through the cache to the same store, but are neither kept in memory nor written behind:
+ * they are only read and written when the content of a URL changes.
+ */
+public class FingerprintCache {
+
+	private static final Logger LOGGER = Logger.getLogger(FingerprintCache.class.getName());
+
+	/**
+	 * Milliseconds between two flushes of the pending updates.
+	 */
+	public static final int FLUSH_INTERVAL = Integer.getInteger(FingerprintCache.class.getName() + ".flushInterval", 5000);
+
+	/**
+	 * When fingerprints reach the disk.
+	 */
+	public enum FsyncPolicy {
+		/** Updates are written synchronously and forced to disk, nothing is cached for writing. */
+		ALWAYS("Write and sync every update immediately"),
+		/** Updates are written behind in batches, every batch is forced to disk. */
+		BATCH("Write behind in batches, sync every batch"),
+		/** Updates are written behind in batches, the OS decides when they reach the disk. */
+		NEVER("Write behind in batches, never sync");
+
+		private final String displayName;
+
+		private FsyncPolicy(String displayName) {
+			this.displayName = displayName;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		public static FsyncPolicy fromName(String name) {
+			for (FsyncPolicy policy : values()) {
+				if (policy.name().equalsIgnoreCase(name))
+					return policy;
+			}
+			return null;
+		}
+	}
+
+	private final ConcurrentMap<File, UrlFingerprint> fingerprints = new ConcurrentHashMap<File, UrlFingerprint>();
+	private final ConcurrentMap<File, UrlFingerprint> pending = new ConcurrentHashMap<File, UrlFingerprint>();
+	private volatile FsyncPolicy policy;
+	private volatile FingerprintStore store;
+	private final ScheduledExecutorService flusher;
+
+	public FingerprintCache(FsyncPolicy policy) {
+		this(policy, new FileFingerprintStore());
+	}
+
+	public FingerprintCache(FsyncPolicy policy, FingerprintStore store) {
+		this.policy = policy;
+		this.store = store;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "UrlChangeTrigger fingerprint writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	public FsyncPolicy getPolicy() {
+		return policy;
+	}
+
+	public void setPolicy(FsyncPolicy policy) {
+		this.policy = policy;
+		if (policy == FsyncPolicy.ALWAYS)
+			flush();
+	}
+
+	public FingerprintStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Switches to another store. The fingerprints of the current store are copied to it
+	 * as far as the store can list them, and so are the fingerprints read so far.
+	 */
+	public synchronized void setStore(FingerprintStore store) {
+		flush();
+		FingerprintStore previous = this.store;
+		try {
+			previous.copyTo(store);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to copy the fingerprints to the new store", e);
+		}
+		this.store = store;
+		previous.close();
+		pending.putAll(fingerprints);
+		flush();
+	}
+
+	/**
+	 * Returns the fingerprint stored for the given job directory, reading it from disk on first access.
+	 */
+	public UrlFingerprint get(File dir) throws IOException {
+		UrlFingerprint fingerprint = fingerprints.get(dir);
+		if (fingerprint == null) {
+			fingerprint = store.load(dir);
+			UrlFingerprint raced = fingerprints.putIfAbsent(dir, fingerprint);
+			if (raced != null)
+				fingerprint = raced;
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * Records a new fingerprint for the given job directory.
+	 * It is visible to {@link #get(File)} right away and reaches the disk according to the {@link FsyncPolicy}.
+	 */
+	public void put(File dir, UrlFingerprint fingerprint) throws IOException {
+		fingerprints.put(dir, fingerprint);
+		if (policy == FsyncPolicy.ALWAYS) {
+			synchronized (this) {
+				store.save(dir, fingerprint, true);
+				store.commit(true);
+			}
+		} else {
+			pending.put(dir, fingerprint);
+		}
+	}
+
+	/**
+	 * Returns the content history stored for the given directory.
+	 */
+	public synchronized FingerprintHistory getHistory(File dir) throws IOException {
+		return store.loadHistory(dir);
+	}
+
+	/**
+	 * Stores the content history of the given directory right away.
+	 */
+	public synchronized void putHistory(File dir, FingerprintHistory history) throws IOException {
+		if (!store.isLive(dir))
+			return;
+		boolean sync = policy != FsyncPolicy.NEVER;
+		store.saveHistory(dir, history, sync);
+		store.commit(sync);
+	}
+
+	/**
+	 * Forgets the fingerprints of a job directory and of the directories below it,
+	 * e.g. after the job was renamed or deleted.
+	 */
+	public void evict(File dir) {
+		String prefix = dir.getPath() + File.separator;
+		for (File key : fingerprints.keySet()) {
+			if (key.equals(dir) || key.getPath().startsWith(prefix))
+				fingerprints.remove(key);
+		}
+		for (File key : pending.keySet()) {
+			if (key.equals(dir) || key.getPath().startsWith(prefix))
+				pending.remove(key);
+		}
+	}
+
+	/**
+	 * Moves the fingerprints of a job directory, and of the directories below it, after the job was renamed.
+	 * Hudson has already renamed the directory, so the pending updates are moved along before they are
+	 * written, {@link #flush()} would drop them otherwise.
+	 */
+	public synchronized void move(File from, File to) {
+		rekey(pending, from, to);
+		rekey(fingerprints, from, to);
+		try {
+			store.move(from, to);
+			store.commit(policy != FsyncPolicy.NEVER);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to move the fingerprints of " + from + " to " + to, e);
+		}
+		flush();
+	}
+
+	/**
+	 * Moves the entries of a directory and of the directories below it, an entry already recorded
+	 * for the new directory is newer and is kept.
+	 */
+	private static void rekey(ConcurrentMap<File, UrlFingerprint> map, File from, File to) {
+		String prefix = from.getPath() + File.separator;
+		for (Map.Entry<File, UrlFingerprint> entry : map.entrySet()) {
+			File key = entry.getKey();
+			if (!key.equals(from) && !key.getPath().startsWith(prefix))
+				continue;
+			File moved = key.equals(from) ? to : new File(to, key.getPath().substring(prefix.length()));
+			if (map.remove(key, entry.getValue()))
+				map.putIfAbsent(moved, entry.getValue());
+		}
+	}
+
+	/**
+	 * Drops the fingerprints of a job directory, and of the directories below it, after the job was deleted.
+	 */
+	public synchronized void delete(File dir) {
+		evict(dir);
+		try {
+			store.delete(dir);
+			store.commit(policy != FsyncPolicy.NEVER);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to drop the fingerprints of " + dir, e);
+		}
+	}
+
+	/**
+	 * Writes all pending updates.
+	 */
+	public synchronized void flush() {
+		boolean sync = policy != FsyncPolicy.NEVER;
+		Map<File, UrlFingerprint> written = new HashMap<File, UrlFingerprint>();
+		for (Map.Entry<File, UrlFingerprint> entry : pending.entrySet()) {
+			File dir = entry.getKey();
+			UrlFingerprint fingerprint = entry.getValue();
+			//Only drop the entry if nobody updated it in the meantime
+			if (!pending.remove(dir, fingerprint))
+				continue;
+			if (!store.isLive(dir)) {
+				//Job was renamed or deleted, don't resurrect its directory
+				fingerprints.remove(dir, fingerprint);
+				continue;
+			}
+			try {
+				store.save(dir, fingerprint, sync);
+				written.put(dir, fingerprint);
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to write fingerprint to " + dir, e);
+				//Retry with the next batch unless a newer fingerprint is already queued
+				pending.putIfAbsent(dir, fingerprint);
+			}
+		}
+		if (!written.isEmpty()) {
+			try {
+				store.commit(sync);
+				LOGGER.log(Level.FINE, "Wrote {0} fingerprints", written.size());
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Failed to commit fingerprints", e);
+				for (Map.Entry<File, UrlFingerprint> entry : written.entrySet())
+					pending.putIfAbsent(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Flushes pending updates and stops the background writer.
+	 */
+	public void shutdown() {
+		flusher.shutdown();
+		flush();
+		store.close();
+	}
+}
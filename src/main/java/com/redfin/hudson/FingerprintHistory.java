@@ -0,0 +1,243 @@
+package com.redfin.hudson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The last {@link #SIZE} contents a URL had, with the time each of them was first seen.
+ *
+ * Only changes are recorded, a content is current from its own time until the time of the
+ * next entry, so the history costs one write per change and nothing on unchanged polls.
+ * It tells apart a URL that really moves forward from one flipping between contents it had
+ * shortly before, e.g. a load balancer alternating between two backend versions.
+ *
+ * The history is kept in <tt>url-change-trigger-history</tt> next to the fingerprint, in a
+ * compact binary form: a header, then per entry the time, the digest algorithm and the raw
+ * digest bytes, oldest first. An unreadable file is treated as an empty history, a truncated
+ * one keeps the entries before the cut. Both are logged, flip-flops of the lost contents go unnoticed.
+ */
+public class FingerprintHistory {
+
+	private static final Logger LOGGER = Logger.getLogger(FingerprintHistory.class.getName());
+
+	static final String HISTORY_FILE = "url-change-trigger-history";
+
+	/**
+	 * Number of contents remembered per URL.
+	 */
+	public static final int SIZE = Math.min(255, Math.max(2, Integer.getInteger(FingerprintHistory.class.getName() + ".size", 16)));
+
+	private static final int MAGIC = 0x55435448; //"UCTH"
+	/** Version 1 counted the entries with a byte, version 2 with a short. */
+	private static final int VERSION = 2;
+
+	/**
+	 * A content of the URL.
+	 */
+	public static final class Entry {
+		private final String digest;
+		private final long since;
+		private final long until;
+
+		Entry(String digest, long since, long until) {
+			this.digest = digest;
+			this.since = since;
+			this.until = until;
+		}
+
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * @return when the content was first seen, null if it was recorded before the history was kept
+		 */
+		public Date getSince() {
+			return since > 0 ? new Date(since) : null;
+		}
+
+		/**
+		 * @return when the content was replaced, null for the current content
+		 */
+		public Date getUntil() {
+			return until > 0 ? new Date(until) : null;
+		}
+	}
+
+	private final List<String> digests = new ArrayList<String>();
+	private final List<Long> times = new ArrayList<Long>();
+
+	/**
+	 * Records a new content at the end of the history, dropping the oldest one if the history is full.
+	 *
+	 * @param time when the content was first seen, 0 if unknown
+	 */
+	public void add(String digest, long time) {
+		if (digests.size() >= SIZE) {
+			digests.remove(0);
+			times.remove(0);
+		}
+		digests.add(digest);
+		times.add(time);
+	}
+
+	public boolean isEmpty() {
+		return digests.isEmpty();
+	}
+
+	/**
+	 * @return true if the URL had the content at some point within the last <tt>window</tt>
+	 * milliseconds, without counting the current content
+	 */
+	public boolean seenWithin(String digest, long now, long window) {
+		//The last entry is the current content, each other one was current until the next one appeared
+		for (int i = digests.size() - 2; i >= 0; i--) {
+			long until = times.get(i + 1);
+			if (until > 0 && until < now - window)
+				return false;
+			if (digests.get(i).equalsIgnoreCase(digest))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the contents, the current one first
+	 */
+	public List<Entry> getEntries() {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (int i = 0; i < digests.size(); i++)
+			entries.add(new Entry(digests.get(i), times.get(i), i + 1 < times.size() ? times.get(i + 1) : 0));
+		Collections.reverse(entries);
+		return entries;
+	}
+
+	/**
+	 * Loads the history stored in the given directory, empty if none was recorded yet.
+	 */
+	public static FingerprintHistory load(File dir) throws IOException {
+		File file = new File(dir, HISTORY_FILE);
+		if (!file.exists())
+			return new FingerprintHistory();
+		byte[] bytes = new byte[(int)file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		return fromBytes(bytes, file.getPath());
+	}
+
+	/**
+	 * Stores the history in the given directory, replacing the file atomically.
+	 */
+	public void save(File dir, boolean sync) throws IOException {
+		UrlFingerprint.writeAtomically(new File(dir, HISTORY_FILE), toBytes(), sync);
+	}
+
+	/**
+	 * Reads a history written by {@link #toBytes()}.
+	 *
+	 * @param source where the bytes come from, for the log
+	 */
+	static FingerprintHistory fromBytes(byte[] bytes, String source) throws IOException {
+		FingerprintHistory history = new FingerprintHistory();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int count = 0;
+		try {
+			int version = in.readInt() == MAGIC ? in.readUnsignedByte() : -1;
+			if (version != 1 && version != VERSION) {
+				LOGGER.log(Level.WARNING, "Content history in {0} is unreadable, starting a new one", source);
+				return history;
+			}
+			count = version == 1 ? in.readUnsignedByte() : in.readUnsignedShort();
+			for (int i = 0; i < count; i++) {
+				long time = in.readLong();
+				int algorithm = in.readUnsignedByte();
+				byte[] digest = new byte[in.readUnsignedByte()];
+				in.readFully(digest);
+				if (algorithm < DigestAlgorithm.values().length)
+					history.add(DigestAlgorithm.values()[algorithm].qualify(toHex(digest)), time);
+				else
+					LOGGER.log(Level.WARNING, "Skipping a content of unknown digest algorithm {0} in the history in {1}",
+							new Object[]{algorithm, source});
+			}
+		} catch (EOFException e) {
+			LOGGER.log(Level.WARNING, "Content history in {0} is truncated, keeping {1} of its {2} contents",
+					new Object[]{source, history.digests.size(), count});
+		}
+		return history;
+	}
+
+	/**
+	 * @return the history in its compact binary form
+	 */
+	byte[] toBytes() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		List<byte[]> raw = new ArrayList<byte[]>();
+		List<Integer> algorithms = new ArrayList<Integer>();
+		List<Long> rawTimes = new ArrayList<Long>();
+		for (int i = 0; i < digests.size(); i++) {
+			String digest = DigestAlgorithm.normalize(digests.get(i));
+			byte[] value = fromHex(digest.substring(digest.indexOf(':') + 1));
+			if (value == null || value.length > 255) {
+				LOGGER.log(Level.WARNING, "Not keeping {0} in the content history, it is not a hex digest of at most 255 bytes", digest);
+				continue;
+			}
+			raw.add(value);
+			algorithms.add(DigestAlgorithm.of(digest).ordinal());
+			rawTimes.add(times.get(i));
+		}
+		out.writeShort(raw.size());
+		for (int i = 0; i < raw.size(); i++) {
+			out.writeLong(rawTimes.get(i));
+			out.writeByte(algorithms.get(i));
+			out.writeByte(raw.get(i).length);
+			out.write(raw.get(i));
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * @return null if the value is not hex encoded
+	 */
+	private static byte[] fromHex(String hex) {
+		if (hex.length() % 2 != 0)
+			return null;
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = Character.digit(hex.charAt(2 * i), 16);
+			int low = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (high < 0 || low < 0)
+				return null;
+			bytes[i] = (byte)((high << 4) | low);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,124 @@
+package com.redfin.hudson;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Where the fingerprints of the watched URLs are kept between polls and across restarts.
+ *
+ * Fingerprints, and the {@link FingerprintHistory} of every URL, are addressed by the directory
+ * {@link UrlChangeTrigger#getFingerprintDir(java.net.URL)} returns for the URL, whether or not the
+ * store writes anything into it. Stores that write into it create it on their first save.
+ * {@link FingerprintCache} sits in front of the store, so a store is read once per URL after
+ * a restart and written in batches, and only needs to be safe to call from several threads.
+ *
+ * {@link FileFingerprintStore} writes small files per URL into the job directories, like
+ * older versions did. {@link JournalFingerprintStore} keeps the fingerprints and histories of
+ * all the jobs in a single append-only file.
+ */
+public abstract class FingerprintStore {
+
+	public enum Type {
+		FILES("One file per URL in the job directories"),
+		JOURNAL("Single journal file for all jobs");
+
+		private final String displayName;
+
+		private Type(String displayName) {
+			this.displayName = displayName;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		public static Type fromName(String name) {
+			for (Type type : values()) {
+				if (type.name().equalsIgnoreCase(name))
+					return type;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * @param root Hudson's root directory, the journal is kept there
+	 */
+	public static FingerprintStore create(Type type, File root) throws IOException {
+		if (type == Type.JOURNAL)
+			return new JournalFingerprintStore(new File(root, JournalFingerprintStore.JOURNAL_FILE), root);
+		return new FileFingerprintStore();
+	}
+
+	public abstract Type getType();
+
+	/**
+	 * @return the fingerprint stored for the directory, an empty fingerprint if there is none
+	 */
+	public abstract UrlFingerprint load(File dir) throws IOException;
+
+	/**
+	 * Stores the fingerprint of the directory. It may only reach the disk on the next {@link #commit(boolean)}.
+	 *
+	 * @param sync true if it will be forced to disk
+	 */
+	public abstract void save(File dir, UrlFingerprint fingerprint, boolean sync) throws IOException;
+
+	/**
+	 * @return the content history stored for the directory, an empty history if there is none
+	 */
+	public abstract FingerprintHistory loadHistory(File dir) throws IOException;
+
+	/**
+	 * Stores the content history of the directory. It may only reach the disk on the next {@link #commit(boolean)}.
+	 *
+	 * @param sync true if it will be forced to disk
+	 */
+	public abstract void saveHistory(File dir, FingerprintHistory history, boolean sync) throws IOException;
+
+	/**
+	 * Ends a batch of saves.
+	 *
+	 * @param sync whether to force the batch to disk before returning
+	 */
+	public void commit(boolean sync) throws IOException {
+	}
+
+	/**
+	 * @return true if fingerprints of the directory may be saved, false once its job is gone
+	 */
+	public boolean isLive(File dir) {
+		if (dir.isDirectory())
+			return true;
+		//Directory of an additional URL, only created by the stores that write into it
+		File parent = dir.getParentFile();
+		return parent != null && parent.getName().equals(UrlChangeTrigger.URL_FINGERPRINTS_DIR)
+				&& parent.getParentFile() != null && parent.getParentFile().isDirectory();
+	}
+
+	/**
+	 * Moves the fingerprints of a directory, and of the directories below it, after the job was renamed.
+	 */
+	public void move(File from, File to) throws IOException {
+	}
+
+	/**
+	 * Drops the fingerprints of a directory, and of the directories below it, after the job was deleted.
+	 */
+	public void delete(File dir) throws IOException {
+	}
+
+	/**
+	 * Saves every fingerprint of this store into another one, when switching stores.
+	 * Stores that can't list their fingerprints copy nothing, the cache then only carries over
+	 * the fingerprints it read.
+	 */
+	public void copyTo(FingerprintStore target) throws IOException {
+	}
+
+	/**
+	 * Releases the files of the store, nothing is saved afterwards.
+	 */
+	public void close() {
+	}
+}
@@ -0,0 +1,239 @@
+package com.redfin.hudson;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the requests sent to each host: how many can be open at the same time,
+ * and how many can start per second.
+ *
+ * Requests over the limits wait in line, in the order they arrived. Requests to a host are
+ * started at evenly spaced instants, so a burst of polls reaches the server as a steady flow.
+ * URLs without a host, like <tt>file:</tt> URLs, are not limited.
+ *
+ * {@link #execute(URL, Executor, Runnable)} waits without blocking any thread, the task is only
+ * handed to the executor once its host grants it a permit. A slow or rate limited host then
+ * never holds the threads of the {@link PollExecutor} the polls of the other hosts need.
+ */
+public class HostLimiter {
+
+	/**
+	 * Held while a request is open.
+	 */
+	private interface Permit {
+		void release();
+	}
+
+	/**
+	 * Called once the host grants the permit, never while a lock of the limiter is held.
+	 */
+	private interface Waiter {
+		void granted(Permit permit);
+	}
+
+	private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<String, Host>();
+	private volatile int maxConnections;
+	private volatile int requestsPerSecond;
+	private ScheduledExecutorService timer;
+
+	/**
+	 * @param maxConnections requests open at the same time per host, 0 for no limit
+	 * @param requestsPerSecond requests started per second per host, 0 for no limit
+	 */
+	public HostLimiter(int maxConnections, int requestsPerSecond) {
+		configure(maxConnections, requestsPerSecond);
+	}
+
+	/**
+	 * Changes the limits of every host. Requests already holding a permit still count
+	 * against the new limits until they release it.
+	 */
+	public synchronized void configure(int maxConnections, int requestsPerSecond) {
+		this.maxConnections = Math.max(0, maxConnections);
+		this.requestsPerSecond = Math.max(0, requestsPerSecond);
+		for (Host host : hosts.values())
+			host.configure(this.maxConnections, getSpacing(this.requestsPerSecond));
+	}
+
+	private static long getSpacing(int requestsPerSecond) {
+		return requestsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / requestsPerSecond : 0;
+	}
+
+	/**
+	 * Hands the task to the executor once a request to the host of the URL may start.
+	 * Returns right away, the task holds the permit until it returns.
+	 */
+	public void execute(URL url, final Executor executor, final Runnable task) {
+		Host host = getHost(url);
+		if (host == null) {
+			executor.execute(task);
+			return;
+		}
+		host.request(new Waiter() {
+			public void granted(final Permit permit) {
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								task.run();
+							} finally {
+								permit.release();
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					//Shutting down
+					permit.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return null if the requests to the host of the URL are not limited
+	 */
+	private Host getHost(URL url) {
+		if ((maxConnections == 0 && requestsPerSecond == 0) || url.getHost() == null || url.getHost().length() == 0)
+			return null;
+		String key = url.getHost().toLowerCase() + ':' + (url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+		Host host = hosts.get(key);
+		if (host == null) {
+			synchronized (this) {
+				//Not in configure(), or the new host would miss the new limits
+				Host created = new Host(key, maxConnections, getSpacing(requestsPerSecond));
+				host = hosts.putIfAbsent(key, created);
+				if (host == null)
+					host = created;
+			}
+		}
+		return host;
+	}
+
+	/**
+	 * Stops the timer that wakes up the requests waiting for their start instant.
+	 */
+	public synchronized void shutdown() {
+		if (timer != null)
+			timer.shutdownNow();
+	}
+
+	private synchronized void schedule(Runnable wakeUp, long delay) {
+		if (timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "UrlChangeTrigger host limiter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		if (!timer.isShutdown())
+			timer.schedule(wakeUp, delay, TimeUnit.NANOSECONDS);
+	}
+
+	private final class Host {
+		private final String key;
+		private final LinkedList<Waiter> waiting = new LinkedList<Waiter>();
+		private int maxConnections; //0 for no limit
+		private long spacing; //nanoseconds between two request starts, 0 for no limit
+		private int open;
+		private long nextStart = System.nanoTime();
+		private boolean wakeUpScheduled;
+
+		Host(String key, int maxConnections, long spacing) {
+			this.key = key;
+			this.maxConnections = maxConnections;
+			this.spacing = spacing;
+		}
+
+		void configure(int maxConnections, long spacing) {
+			synchronized (this) {
+				this.maxConnections = maxConnections;
+				if (spacing < this.spacing)
+					nextStart = Math.min(nextStart, System.nanoTime() + spacing);
+				this.spacing = spacing;
+			}
+			dispatch();
+		}
+
+		void request(Waiter waiter) {
+			synchronized (this) {
+				waiting.add(waiter);
+			}
+			dispatch();
+		}
+
+		/**
+		 * Grants permits to the waiters at the head of the line as long as the limits allow,
+		 * and wakes up once the next start instant is reached if the rate holds them back.
+		 */
+		private void dispatch() {
+			List<Waiter> granted = new ArrayList<Waiter>();
+			synchronized (this) {
+				while (!waiting.isEmpty() && (maxConnections == 0 || open < maxConnections)) {
+					if (spacing > 0) {
+						long now = System.nanoTime();
+						if (now - nextStart < 0) {
+							scheduleWakeUp(nextStart - now);
+							break;
+						}
+						nextStart = now + spacing;
+					}
+					open++;
+					granted.add(waiting.removeFirst());
+				}
+			}
+			for (Waiter waiter : granted)
+				waiter.granted(new HostPermit(this));
+		}
+
+		private void scheduleWakeUp(long delay) {
+			if (wakeUpScheduled)
+				return;
+			wakeUpScheduled = true;
+			schedule(new Runnable() {
+				public void run() {
+					synchronized (Host.this) {
+						wakeUpScheduled = false;
+					}
+					dispatch();
+				}
+			}, delay);
+		}
+
+		void released() {
+			synchronized (this) {
+				open--;
+			}
+			dispatch();
+		}
+	}
+
+	private static final class HostPermit implements Permit {
+		private final Host host;
+		private boolean released;
+
+		HostPermit(Host host) {
+			this.host = host;
+		}
+
+		public void release() {
+			synchronized (this) {
+				if (released)
+					return;
+				released = true;
+			}
+			host.released();
+		}
+	}
+}
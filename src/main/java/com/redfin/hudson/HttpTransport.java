@@ -0,0 +1,109 @@
+package com.redfin.hudson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends the requests of the polls.
+ *
+ * {@link UrlConnectionTransport} works for every scheme the JVM knows and reuses HTTP connections
+ * through the JDK keep-alive cache. {@link JdkHttpClientTransport} shares one pooled client with
+ * HTTP/2 multiplexing between all polls, but needs a JVM that ships <tt>java.net.http</tt>.
+ * Only <tt>http</tt> and <tt>https</tt> URLs ever go through it.
+ */
+public abstract class HttpTransport {
+
+	public enum Type {
+		URLCONNECTION("URLConnection with keep-alive"),
+		HTTP2("Shared HTTP/2 client (Java 11 or later)");
+
+		private final String displayName;
+
+		private Type(String displayName) {
+			this.displayName = displayName;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		public boolean isAvailable() {
+			return this != HTTP2 || JdkHttpClientTransport.isSupported();
+		}
+
+		public static Type fromName(String name) {
+			for (Type type : values()) {
+				if (type.name().equalsIgnoreCase(name))
+					return type;
+			}
+			return null;
+		}
+	}
+
+	private static final HttpTransport URLCONNECTION = new UrlConnectionTransport();
+
+	private static volatile HttpTransport http = URLCONNECTION;
+
+	/**
+	 * Returns the transport for the given URL.
+	 */
+	public static HttpTransport forUrl(URL url) {
+		String protocol = url.getProtocol();
+		if ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol))
+			return http;
+		return URLCONNECTION;
+	}
+
+	/**
+	 * Selects the transport used for <tt>http</tt> and <tt>https</tt> URLs.
+	 * Falls back to {@link Type#URLCONNECTION} if the requested one is not available on this JVM.
+	 */
+	public static synchronized void configure(Type type) {
+		if (type == Type.HTTP2 && JdkHttpClientTransport.isSupported()) {
+			if (!(http instanceof JdkHttpClientTransport))
+				http = new JdkHttpClientTransport();
+		} else {
+			http = URLCONNECTION;
+		}
+	}
+
+	/**
+	 * @return the transport used for <tt>http</tt> and <tt>https</tt> URLs
+	 */
+	public static Type getType() {
+		return http instanceof JdkHttpClientTransport ? Type.HTTP2 : Type.URLCONNECTION;
+	}
+
+	/**
+	 * Sends a request.
+	 *
+	 * @param method <tt>GET</tt> or <tt>HEAD</tt>, ignored for non HTTP URLs
+	 * @param headers request headers, ignored for non HTTP URLs
+	 * @param timeout connect and read timeout in milliseconds
+	 */
+	public abstract Response open(URL url, String method, Map<String, String> headers, int timeout) throws IOException;
+
+	/**
+	 * Response to a request. Must be closed so the connection can be reused.
+	 */
+	public interface Response {
+		/**
+		 * @return the HTTP status code, -1 for non HTTP URLs
+		 */
+		int getStatus() throws IOException;
+
+		String getHeader(String name);
+
+		/**
+		 * @throws IOException if the server answered with an error status
+		 */
+		InputStream getBody() throws IOException;
+
+		/**
+		 * Releases the connection, reading what is left of an error body so it can go back to the pool.
+		 */
+		void close();
+	}
+}
@@ -0,0 +1,291 @@
+package com.redfin.hudson;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends requests through one <tt>java.net.http.HttpClient</tt> shared by all polls.
+ *
+ * The client pools connections per host, resumes TLS sessions and multiplexes concurrent
+ * requests to the same host over a single HTTP/2 connection when the server supports it.
+ * The plugin is compiled for JVMs without <tt>java.net.http</tt>, so the API is used reflectively.
+ *
+ * The client's timeout only covers the wait for the response headers, the body is guarded by
+ * an idle timer that aborts the download when no byte arrived for the poll's timeout.
+ */
+class JdkHttpClientTransport extends HttpTransport {
+
+	private static final Logger LOGGER = Logger.getLogger(JdkHttpClientTransport.class.getName());
+
+	private static final Api API = Api.load();
+
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "UrlChangeTrigger HTTP read timeout");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Object client;
+
+	JdkHttpClientTransport() {
+		try {
+			Object builder = API.newBuilder.invoke(null);
+			API.builderVersion.invoke(builder, API.http2);
+			API.builderFollowRedirects.invoke(builder, API.redirectNormal);
+			client = API.builderBuild.invoke(builder);
+		} catch (Exception e) {
+			throw new IllegalStateException("Failed to create the HTTP client", e);
+		}
+	}
+
+	static boolean isSupported() {
+		return API != null;
+	}
+
+	@Override
+	public Response open(URL url, String method, Map<String, String> headers, int timeout) throws IOException {
+		try {
+			Object builder = API.newRequestBuilder.invoke(null, url.toURI());
+			API.requestTimeout.invoke(builder, API.ofMillis.invoke(null, Long.valueOf(timeout)));
+			for (Map.Entry<String, String> header : headers.entrySet())
+				API.requestHeader.invoke(builder, header.getKey(), header.getValue());
+			API.requestMethod.invoke(builder, method, API.noBody.invoke(null));
+			Object request = API.requestBuild.invoke(builder);
+			Object response = API.send.invoke(client, request, API.ofInputStream.invoke(null));
+			return new ClientResponse(response, timeout);
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid URI " + url + ": " + e.getMessage());
+		} catch (InvocationTargetException e) {
+			throw rethrow(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static IOException rethrow(Throwable cause) {
+		if (cause instanceof InterruptedException) {
+			Thread.currentThread().interrupt();
+			return new InterruptedIOException(cause.getMessage());
+		}
+		if (cause != null && "java.net.http.HttpTimeoutException".equals(cause.getClass().getName())) {
+			//Report it like URLConnection does so timeouts are logged the same way
+			SocketTimeoutException timeout = new SocketTimeoutException(cause.getMessage());
+			timeout.initCause(cause);
+			return timeout;
+		}
+		if (cause instanceof IOException)
+			return (IOException)cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException)cause;
+		IOException e = new IOException(String.valueOf(cause));
+		e.initCause(cause);
+		return e;
+	}
+
+	private static final class ClientResponse implements Response {
+		private final Object response;
+		private final int timeout;
+		private InputStream body;
+
+		ClientResponse(Object response, int timeout) {
+			this.response = response;
+			this.timeout = timeout;
+		}
+
+		public int getStatus() {
+			try {
+				return ((Integer)API.statusCode.invoke(response)).intValue();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public String getHeader(String name) {
+			try {
+				Object headers = API.headers.invoke(response);
+				Object value = API.firstValue.invoke(headers, name);
+				return (String)API.orElse.invoke(value, (Object)null);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private InputStream rawBody() {
+			try {
+				return (InputStream)API.body.invoke(response);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		public InputStream getBody() throws IOException {
+			if (body == null) {
+				int status = getStatus();
+				if (status >= 400) {
+					close();
+					throw new IOException("Server returned HTTP response code: " + status + " for URL: " + API.uri(response));
+				}
+				body = new IdleTimeoutInputStream(rawBody(), timeout);
+			}
+			return body;
+		}
+
+		public void close() {
+			try {
+				(body != null ? body : rawBody()).close();
+			} catch (IOException e) {
+				//Nothing left to release
+			}
+		}
+	}
+
+	/**
+	 * Closes the underlying stream when no byte arrived for the given time,
+	 * which makes the pending read fail like a socket read timeout would.
+	 */
+	private static final class IdleTimeoutInputStream extends FilterInputStream implements Runnable {
+		private final long timeout;
+		private volatile long lastActivity = System.currentTimeMillis();
+		private volatile boolean timedOut;
+		private final ScheduledFuture<?> check;
+
+		IdleTimeoutInputStream(InputStream in, int timeout) {
+			super(in);
+			this.timeout = timeout;
+			long period = Math.max(100, timeout / 4);
+			this.check = WATCHDOG.scheduleWithFixedDelay(this, period, period, TimeUnit.MILLISECONDS);
+		}
+
+		public void run() {
+			if (System.currentTimeMillis() - lastActivity > timeout) {
+				timedOut = true;
+				try {
+					close();
+				} catch (IOException e) {
+					//Already gone
+				}
+			}
+		}
+
+		private IOException translate(IOException e) {
+			if (timedOut) {
+				SocketTimeoutException timeout = new SocketTimeoutException("Read timed out");
+				timeout.initCause(e);
+				return timeout;
+			}
+			return e;
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				int b = super.read();
+				lastActivity = System.currentTimeMillis();
+				return b;
+			} catch (IOException e) {
+				throw translate(e);
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				int n = super.read(b, off, len);
+				lastActivity = System.currentTimeMillis();
+				return n;
+			} catch (IOException e) {
+				throw translate(e);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			check.cancel(false);
+			super.close();
+		}
+	}
+
+	/**
+	 * Handles on the parts of <tt>java.net.http</tt> we use, null if the JVM doesn't have it.
+	 */
+	private static final class Api {
+		Method newBuilder, builderVersion, builderFollowRedirects, builderBuild, send;
+		Method newRequestBuilder, requestTimeout, requestHeader, requestMethod, requestBuild, noBody;
+		Method ofInputStream, statusCode, headers, body, responseUri, firstValue, orElse, ofMillis;
+		Object http2, redirectNormal;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		static Api load() {
+			try {
+				Api api = new Api();
+				Class<?> client = Class.forName("java.net.http.HttpClient");
+				Class<?> clientBuilder = Class.forName("java.net.http.HttpClient$Builder");
+				Class version = Class.forName("java.net.http.HttpClient$Version");
+				Class redirect = Class.forName("java.net.http.HttpClient$Redirect");
+				Class<?> request = Class.forName("java.net.http.HttpRequest");
+				Class<?> requestBuilder = Class.forName("java.net.http.HttpRequest$Builder");
+				Class<?> publisher = Class.forName("java.net.http.HttpRequest$BodyPublisher");
+				Class<?> publishers = Class.forName("java.net.http.HttpRequest$BodyPublishers");
+				Class<?> response = Class.forName("java.net.http.HttpResponse");
+				Class<?> handler = Class.forName("java.net.http.HttpResponse$BodyHandler");
+				Class<?> handlers = Class.forName("java.net.http.HttpResponse$BodyHandlers");
+				Class<?> httpHeaders = Class.forName("java.net.http.HttpHeaders");
+				Class<?> duration = Class.forName("java.time.Duration");
+				Class<?> optional = Class.forName("java.util.Optional");
+
+				api.http2 = Enum.valueOf(version, "HTTP_2");
+				api.redirectNormal = Enum.valueOf(redirect, "NORMAL");
+				api.newBuilder = client.getMethod("newBuilder");
+				api.builderVersion = clientBuilder.getMethod("version", version);
+				api.builderFollowRedirects = clientBuilder.getMethod("followRedirects", redirect);
+				api.builderBuild = clientBuilder.getMethod("build");
+				api.send = client.getMethod("send", request, handler);
+				api.newRequestBuilder = request.getMethod("newBuilder", java.net.URI.class);
+				api.requestTimeout = requestBuilder.getMethod("timeout", duration);
+				api.requestHeader = requestBuilder.getMethod("header", String.class, String.class);
+				api.requestMethod = requestBuilder.getMethod("method", String.class, publisher);
+				api.requestBuild = requestBuilder.getMethod("build");
+				api.noBody = publishers.getMethod("noBody");
+				api.ofInputStream = handlers.getMethod("ofInputStream");
+				api.statusCode = response.getMethod("statusCode");
+				api.headers = response.getMethod("headers");
+				api.body = response.getMethod("body");
+				api.responseUri = response.getMethod("uri");
+				api.firstValue = httpHeaders.getMethod("firstValue", String.class);
+				api.orElse = optional.getMethod("orElse", Object.class);
+				api.ofMillis = duration.getMethod("ofMillis", long.class);
+				return api;
+			} catch (ClassNotFoundException e) {
+				return null;
+			} catch (Exception e) {
+				LOGGER.log(Level.FINE, "java.net.http not usable, HTTP/2 transport disabled", e);
+				return null;
+			}
+		}
+
+		Object uri(Object response) {
+			try {
+				return responseUri.invoke(response);
+			} catch (Exception e) {
+				return "?";
+			}
+		}
+	}
+}
@@ -0,0 +1,471 @@
+package com.redfin.hudson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the fingerprints and content histories of all the jobs in a single append-only file in
+ * Hudson's root directory, instead of small files per URL: no directory or inode per URL, no file
+ * opened per write, and one fsync per batch of writes whatever the number of jobs.
+ *
+ * Every save appends a record: its length, a CRC32 of its content, the key and the fingerprint,
+ * or the key and the {@link FingerprintHistory}.
+ * Keys are the fingerprint directories relative to Hudson's root, so the journal survives a move
+ * of the root directory. The latest record of a key wins. A crash can only leave an incomplete
+ * record at the end, which fails its length or CRC check and is cut off on the next start.
+ *
+ * Only the position of the latest record of every key is kept in memory, the records are read
+ * through a read-only memory mapping of the file. Once the superseded records outweigh the live
+ * ones the journal is compacted: the live records are copied to a new file, which is forced to
+ * disk and then renamed over the journal.
+ *
+ * Fingerprints and histories still stored in the files of older versions are moved into the
+ * journal the first time they are read, and their files are deleted once the journal holds them on disk.
+ */
+public class JournalFingerprintStore extends FingerprintStore {
+
+	private static final Logger LOGGER = Logger.getLogger(JournalFingerprintStore.class.getName());
+
+	static final String JOURNAL_FILE = "url-change-trigger-fingerprints.journal";
+
+	/**
+	 * Journals smaller than this are never compacted.
+	 */
+	static final long MIN_COMPACT_SIZE = 64 * 1024;
+
+	private static final int MAGIC = 0x5543544A; //"UCTJ"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	/** Length and CRC in front of every record. */
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int MAX_RECORD_SIZE = 1 << 20;
+
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	private static final byte PUT_HISTORY = 3;
+
+	private static final int HAS_DIGEST = 1;
+	private static final int HAS_ETAG = 2;
+	private static final int HAS_LAST_MODIFIED = 4;
+
+	private final File file;
+	private final String root;
+	/** Offset and size of the latest fingerprint record of every key. */
+	private Map<String, long[]> index = new HashMap<String, long[]>();
+	/** Offset and size of the latest history record of every key. */
+	private Map<String, long[]> histories = new HashMap<String, long[]>();
+	private RandomAccessFile journal;
+	private FileChannel channel;
+	private MappedByteBuffer mapped;
+	private long end;
+	private long liveBytes;
+	private boolean unsynced;
+	/** The journal is not compacted before it outgrows this, even if mostly superseded. */
+	private long compactAbove = MIN_COMPACT_SIZE;
+
+	/**
+	 * @param root keys are relative to this directory
+	 */
+	public JournalFingerprintStore(File file, File root) throws IOException {
+		this.file = file;
+		this.root = root.getAbsolutePath() + File.separator;
+		open();
+	}
+
+	@Override
+	public Type getType() {
+		return Type.JOURNAL;
+	}
+
+	private void open() throws IOException {
+		journal = new RandomAccessFile(file, "rw");
+		channel = journal.getChannel();
+		index = new HashMap<String, long[]>();
+		histories = new HashMap<String, long[]>();
+		liveBytes = 0;
+		if (channel.size() < HEADER_SIZE) {
+			//New journal, or a crash before its header was written
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			channel.truncate(0);
+			write(header, 0);
+			channel.force(true);
+			end = HEADER_SIZE;
+			mapped = null;
+			return;
+		}
+		map();
+		if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+			close();
+			File aside = new File(file.getPath() + ".unreadable");
+			LOGGER.log(Level.WARNING, "{0} is not a fingerprint journal, moved to {1}, jobs will see their URLs change once",
+					new Object[]{file, aside});
+			aside.delete();
+			if (!file.renameTo(aside))
+				throw new IOException("Failed to move unreadable journal " + file + " aside");
+			open();
+			return;
+		}
+		end = HEADER_SIZE;
+		long size = channel.size();
+		while (end + RECORD_HEADER_SIZE <= size) {
+			int length = mapped.getInt((int)end);
+			int crc = mapped.getInt((int)end + 4);
+			if (length <= 0 || length > MAX_RECORD_SIZE || end + RECORD_HEADER_SIZE + length > size)
+				break;
+			byte[] payload = read(end, length);
+			if (crc(payload) != crc)
+				break;
+			apply(payload, end, RECORD_HEADER_SIZE + length);
+			end += RECORD_HEADER_SIZE + length;
+		}
+		if (end < size) {
+			LOGGER.log(Level.WARNING, "Dropping {0} bytes of incomplete records at the end of {1}", new Object[]{size - end, file});
+			channel.truncate(end);
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Maps the whole journal, again whenever records were appended past the mapping.
+	 */
+	private void map() throws IOException {
+		mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	}
+
+	private byte[] read(long offset, int length) throws IOException {
+		if (mapped == null || offset + RECORD_HEADER_SIZE + length > mapped.capacity())
+			map();
+		ByteBuffer record = mapped.duplicate();
+		record.position((int)offset + RECORD_HEADER_SIZE);
+		byte[] payload = new byte[length];
+		record.get(payload);
+		return payload;
+	}
+
+	private void apply(byte[] payload, long offset, long size) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = in.readByte();
+		String key = in.readUTF();
+		if (type == DELETE) {
+			//Removes the fingerprint and the history of the key
+			forget(index.remove(key));
+			forget(histories.remove(key));
+			return;
+		}
+		forget((type == PUT_HISTORY ? histories : index).put(key, new long[] { offset, size }));
+		liveBytes += size;
+	}
+
+	private void forget(long[] superseded) {
+		if (superseded != null)
+			liveBytes -= superseded[1];
+	}
+
+	/**
+	 * Appends a record and returns its offset.
+	 */
+	private long append(byte[] payload) throws IOException {
+		if (channel == null)
+			throw new IOException(file + " is closed");
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+		record.putInt(payload.length).putInt(crc(payload)).put(payload).flip();
+		long offset = end;
+		write(record, offset);
+		end += record.capacity();
+		unsynced = true;
+		apply(payload, offset, record.capacity());
+		return offset;
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private static int crc(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * @return the path of the directory relative to Hudson's root, with forward slashes
+	 */
+	String getKey(File dir) {
+		String path = dir.getAbsolutePath();
+		if (path.startsWith(root))
+			path = path.substring(root.length());
+		return path.replace(File.separatorChar, '/');
+	}
+
+	@Override
+	public synchronized UrlFingerprint load(File dir) throws IOException {
+		if (new File(dir, UrlFingerprint.DIGEST_FILE).exists()) {
+			//Written by an older version, or while the fingerprints were kept in files
+			UrlFingerprint legacy = UrlFingerprint.load(dir);
+			save(dir, legacy, true);
+			commit(true);
+			new File(dir, UrlFingerprint.DIGEST_FILE).delete();
+			new File(dir, UrlFingerprint.VALIDATORS_FILE).delete();
+			LOGGER.log(Level.FINE, "Moved the fingerprint of {0} into {1}", new Object[]{dir, file});
+			return legacy;
+		}
+		long[] record = index.get(getKey(dir));
+		if (record == null)
+			return new UrlFingerprint(null, null, null);
+		return decode(read(record[0], (int)record[1] - RECORD_HEADER_SIZE));
+	}
+
+	private static UrlFingerprint decode(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		in.readByte();
+		in.readUTF();
+		int fields = in.readByte();
+		String digest = (fields & HAS_DIGEST) != 0 ? in.readUTF() : null;
+		String etag = (fields & HAS_ETAG) != 0 ? in.readUTF() : null;
+		String lastModified = (fields & HAS_LAST_MODIFIED) != 0 ? in.readUTF() : null;
+		return new UrlFingerprint(digest, etag, lastModified, in.readLong());
+	}
+
+	@Override
+	public synchronized void save(File dir, UrlFingerprint fingerprint, boolean sync) throws IOException {
+		put(getKey(dir), fingerprint);
+	}
+
+	private void put(String key, UrlFingerprint fingerprint) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(PUT);
+		out.writeUTF(key);
+		out.writeByte((fingerprint.getDigest() != null ? HAS_DIGEST : 0) | (fingerprint.getEtag() != null ? HAS_ETAG : 0)
+				| (fingerprint.getLastModified() != null ? HAS_LAST_MODIFIED : 0));
+		if (fingerprint.getDigest() != null)
+			out.writeUTF(fingerprint.getDigest());
+		if (fingerprint.getEtag() != null)
+			out.writeUTF(fingerprint.getEtag());
+		if (fingerprint.getLastModified() != null)
+			out.writeUTF(fingerprint.getLastModified());
+		out.writeLong(fingerprint.getContentLength());
+		out.close();
+		append(bytes.toByteArray());
+	}
+
+	private void remove(String key) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(DELETE);
+		out.writeUTF(key);
+		out.close();
+		append(bytes.toByteArray());
+	}
+
+	@Override
+	public synchronized FingerprintHistory loadHistory(File dir) throws IOException {
+		File legacy = new File(dir, FingerprintHistory.HISTORY_FILE);
+		if (legacy.exists()) {
+			FingerprintHistory history = FingerprintHistory.load(dir);
+			saveHistory(dir, history, true);
+			commit(true);
+			legacy.delete();
+			LOGGER.log(Level.FINE, "Moved the history of {0} into {1}", new Object[]{dir, file});
+			return history;
+		}
+		String key = getKey(dir);
+		long[] record = histories.get(key);
+		if (record == null)
+			return new FingerprintHistory();
+		return decodeHistory(key, read(record[0], (int)record[1] - RECORD_HEADER_SIZE));
+	}
+
+	private FingerprintHistory decodeHistory(String key, byte[] payload) throws IOException {
+		return FingerprintHistory.fromBytes(historyBytes(payload), file + " (" + key + ")");
+	}
+
+	@Override
+	public synchronized void saveHistory(File dir, FingerprintHistory history, boolean sync) throws IOException {
+		putHistory(getKey(dir), history.toBytes());
+	}
+
+	private void putHistory(String key, byte[] history) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(PUT_HISTORY);
+		out.writeUTF(key);
+		out.write(history);
+		out.close();
+		append(bytes.toByteArray());
+	}
+
+	@Override
+	public synchronized void commit(boolean sync) throws IOException {
+		if (sync && unsynced && channel != null) {
+			channel.force(false);
+			unsynced = false;
+		}
+		if (end > compactAbove && end > 2 * (HEADER_SIZE + liveBytes))
+			compact();
+	}
+
+	/**
+	 * Rewrites the journal with the live records only.
+	 */
+	synchronized void compact() throws IOException {
+		File compacted = new File(file.getPath() + ".compact");
+		RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+		long written;
+		try {
+			FileChannel target = out.getChannel();
+			target.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			while (header.hasRemaining())
+				target.write(header);
+			List<long[]> records = new ArrayList<long[]>(index.values());
+			records.addAll(histories.values());
+			for (long[] record : records) {
+				if (mapped == null || record[0] + record[1] > mapped.capacity())
+					map();
+				ByteBuffer bytes = mapped.duplicate();
+				bytes.position((int)record[0]);
+				bytes.limit((int)(record[0] + record[1]));
+				while (bytes.hasRemaining())
+					target.write(bytes);
+			}
+			target.force(true);
+			written = target.size();
+		} finally {
+			out.close();
+		}
+		long before = end;
+		close();
+		if (!compacted.renameTo(file)) {
+			//Windows won't rename over a file, nor delete one that is still mapped
+			compacted.delete();
+			compactAbove = 2 * before;
+			LOGGER.log(Level.FINE, "Could not replace {0} with its compacted copy, keeping it as is", file);
+		} else {
+			compactAbove = MIN_COMPACT_SIZE;
+			LOGGER.log(Level.FINE, "Compacted {0} from {1} to {2} bytes", new Object[]{file, before, written});
+		}
+		open();
+	}
+
+	@Override
+	public synchronized void move(File from, File to) throws IOException {
+		String prefix = getKey(from);
+		String target = getKey(to);
+		for (String key : getKeys(prefix)) {
+			String moved = target + key.substring(prefix.length());
+			long[] record = index.get(key);
+			if (record != null)
+				put(moved, decode(read(record[0], (int)record[1] - RECORD_HEADER_SIZE)));
+			record = histories.get(key);
+			if (record != null)
+				putHistory(moved, historyBytes(read(record[0], (int)record[1] - RECORD_HEADER_SIZE)));
+			remove(key);
+		}
+	}
+
+	@Override
+	public synchronized void delete(File dir) throws IOException {
+		for (String key : getKeys(getKey(dir)))
+			remove(key);
+	}
+
+	/**
+	 * @return the history part of a history record
+	 */
+	private static byte[] historyBytes(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		in.readByte();
+		in.readUTF();
+		byte[] history = new byte[in.available()];
+		in.readFully(history);
+		return history;
+	}
+
+	@Override
+	public synchronized void copyTo(FingerprintStore target) throws IOException {
+		for (Map.Entry<String, long[]> entry : index.entrySet()) {
+			File dir = getDir(entry.getKey());
+			long[] record = entry.getValue();
+			if (target.isLive(dir))
+				target.save(dir, decode(read(record[0], (int)record[1] - RECORD_HEADER_SIZE)), true);
+		}
+		for (Map.Entry<String, long[]> entry : histories.entrySet()) {
+			File dir = getDir(entry.getKey());
+			long[] record = entry.getValue();
+			if (target.isLive(dir))
+				target.saveHistory(dir, decodeHistory(entry.getKey(), read(record[0], (int)record[1] - RECORD_HEADER_SIZE)), true);
+		}
+		target.commit(true);
+	}
+
+	private File getDir(String key) {
+		File dir = new File(key.replace('/', File.separatorChar));
+		return dir.isAbsolute() ? dir : new File(root + dir.getPath());
+	}
+
+	/**
+	 * @return the key and the keys of the directories below it, with a fingerprint or a history
+	 */
+	private List<String> getKeys(String prefix) {
+		Set<String> keys = new LinkedHashSet<String>(index.keySet());
+		keys.addAll(histories.keySet());
+		List<String> matching = new ArrayList<String>();
+		for (String key : keys) {
+			if (key.equals(prefix) || key.startsWith(prefix + "/"))
+				matching.add(key);
+		}
+		return matching;
+	}
+
+	/**
+	 * @return the number of URLs with a fingerprint
+	 */
+	synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return the size of the journal, in bytes
+	 */
+	synchronized long length() {
+		return end;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (channel == null)
+			return;
+		try {
+			if (unsynced)
+				channel.force(false);
+			journal.close();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to close " + file, e);
+		}
+		unsynced = false;
+		channel = null;
+		journal = null;
+		mapped = null;
+	}
+}
@@ -0,0 +1,340 @@
+package com.redfin.hudson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects the values matching a JSONPath expression.
+ *
+ * Supports the usual navigation subset: <tt>$.a.b</tt>, <tt>$['a']</tt>, <tt>$.a[0]</tt>,
+ * the wildcards <tt>.*</tt> and <tt>[*]</tt> and deep scan with <tt>..</tt>. Filters and slices are not supported.
+ *
+ * The document is parsed as a stream, only the path from the root to the current value is kept in memory.
+ * Selected values are fed to the digest without the whitespace between their tokens.
+ */
+public class JsonPathSelector extends ContentSelector {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int MAX_DEPTH = 512;
+
+	private final List<Step> steps;
+
+	public JsonPathSelector(String expression) {
+		super(expression);
+		this.steps = parse(expression);
+	}
+
+	@Override
+	public Type getType() {
+		return Type.JSONPATH;
+	}
+
+	@Override
+	void select(InputStream in, String charset, DigestAlgorithm.Hasher hasher) throws IOException {
+		Emitter emitter = new Emitter(hasher);
+		new Parser(new InputStreamReader(in, charset(charset)), emitter).document();
+		emitter.flush();
+	}
+
+	private static final class Step implements java.io.Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/** Member name or array index, null for a wildcard. */
+		final Object key;
+		final boolean descendant;
+
+		Step(Object key, boolean descendant) {
+			this.key = key;
+			this.descendant = descendant;
+		}
+
+		boolean matches(Object segment) {
+			return key == null || key.equals(segment);
+		}
+	}
+
+	private static List<Step> parse(String expression) {
+		List<Step> steps = new ArrayList<Step>();
+		int i = 0;
+		int n = expression.length();
+		if (i < n && expression.charAt(i) == '$')
+			i++;
+		while (i < n) {
+			char c = expression.charAt(i);
+			boolean descendant = false;
+			if (c == '.') {
+				i++;
+				if (i < n && expression.charAt(i) == '.') {
+					descendant = true;
+					i++;
+				}
+				if (i < n && expression.charAt(i) == '[') {
+					continue;
+				}
+				int start = i;
+				while (i < n && expression.charAt(i) != '.' && expression.charAt(i) != '[')
+					i++;
+				String name = expression.substring(start, i);
+				if (name.length() == 0)
+					throw new IllegalArgumentException("Missing member name at position " + start + " of " + expression);
+				steps.add(new Step("*".equals(name) ? null : name, descendant));
+			} else if (c == '[') {
+				//A deep scan directly followed by a bracket, e.g. $..[0]
+				descendant = i >= 2 && expression.charAt(i - 1) == '.' && expression.charAt(i - 2) == '.';
+				int end = expression.indexOf(']', i);
+				if (end < 0)
+					throw new IllegalArgumentException("Missing ] in " + expression);
+				String inner = expression.substring(i + 1, end).trim();
+				i = end + 1;
+				if ("*".equals(inner)) {
+					steps.add(new Step(null, descendant));
+				} else if (inner.length() >= 2 && (inner.charAt(0) == '\'' || inner.charAt(0) == '"')
+						&& inner.charAt(inner.length() - 1) == inner.charAt(0)) {
+					steps.add(new Step(inner.substring(1, inner.length() - 1), descendant));
+				} else {
+					try {
+						steps.add(new Step(Integer.valueOf(inner), descendant));
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Unsupported JSONPath subscript [" + inner + "] in " + expression);
+					}
+				}
+			} else {
+				throw new IllegalArgumentException("Unexpected '" + c + "' at position " + i + " of " + expression);
+			}
+		}
+		return steps;
+	}
+
+	/**
+	 * Recursive descent parser that keeps the path of the current value and
+	 * emits the tokens of every value the path expression matches.
+	 */
+	private final class Parser {
+		private final Reader reader;
+		private final Emitter emitter;
+		private final char[] buffer = new char[8192];
+		private int position;
+		private int limit;
+		private long offset;
+		private final List<Object> path = new ArrayList<Object>();
+		private boolean capturing;
+
+		Parser(Reader reader, Emitter emitter) {
+			this.reader = reader;
+			this.emitter = emitter;
+		}
+
+		void document() throws IOException {
+			value();
+			if (skipWhitespace() != -1)
+				throw error("Unexpected content after the JSON document");
+		}
+
+		private int peek() throws IOException {
+			if (position == limit) {
+				limit = reader.read(buffer);
+				position = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buffer[position];
+		}
+
+		private int next() throws IOException {
+			int c = peek();
+			if (c != -1) {
+				position++;
+				offset++;
+			}
+			return c;
+		}
+
+		private int skipWhitespace() throws IOException {
+			int c = peek();
+			while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+				next();
+				c = peek();
+			}
+			return c;
+		}
+
+		private void expect(char expected) throws IOException {
+			int c = next();
+			if (c != expected)
+				throw error("Expected '" + expected + "'");
+			if (capturing)
+				emitter.emit(expected);
+		}
+
+		private IOException error(String message) {
+			return new IOException(message + " at offset " + offset + " of the JSON document");
+		}
+
+		private boolean matches(int si, int pi) {
+			if (si == steps.size())
+				return pi == path.size();
+			Step step = steps.get(si);
+			if (step.descendant) {
+				for (int k = pi; k < path.size(); k++) {
+					if (step.matches(path.get(k)) && matches(si + 1, k + 1))
+						return true;
+				}
+				return false;
+			}
+			return pi < path.size() && step.matches(path.get(pi)) && matches(si + 1, pi + 1);
+		}
+
+		private void value() throws IOException {
+			if (path.size() > MAX_DEPTH)
+				throw error("JSON document nested too deeply");
+			int c = skipWhitespace();
+			boolean selected = !capturing && matches(0, 0);
+			if (selected)
+				capturing = true;
+			if (c == '{') {
+				object();
+			} else if (c == '[') {
+				array();
+			} else if (c == '"') {
+				string(null);
+			} else if (c == -1) {
+				throw error("Unexpected end of the JSON document");
+			} else {
+				literal();
+			}
+			if (selected) {
+				capturing = false;
+				emitter.separator();
+			}
+		}
+
+		private void object() throws IOException {
+			expect('{');
+			if (skipWhitespace() == '}') {
+				expect('}');
+				return;
+			}
+			while (true) {
+				if (skipWhitespace() != '"')
+					throw error("Expected a member name");
+				StringBuilder name = new StringBuilder();
+				string(name);
+				skipWhitespace();
+				expect(':');
+				path.add(name.toString());
+				value();
+				path.remove(path.size() - 1);
+				int c = skipWhitespace();
+				if (c == ',') {
+					expect(',');
+				} else {
+					expect('}');
+					return;
+				}
+			}
+		}
+
+		private void array() throws IOException {
+			expect('[');
+			if (skipWhitespace() == ']') {
+				expect(']');
+				return;
+			}
+			int index = 0;
+			while (true) {
+				path.add(Integer.valueOf(index++));
+				value();
+				path.remove(path.size() - 1);
+				int c = skipWhitespace();
+				if (c == ',') {
+					expect(',');
+				} else {
+					expect(']');
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Reads a string token, emitting it as written when capturing.
+		 *
+		 * @param decoded receives the unescaped value if not null
+		 */
+		private void string(StringBuilder decoded) throws IOException {
+			expect('"');
+			while (true) {
+				int c = next();
+				if (c == -1)
+					throw error("Unterminated string");
+				if (capturing)
+					emitter.emit((char)c);
+				if (c == '"')
+					return;
+				if (c == '\\') {
+					int escaped = next();
+					if (escaped == -1)
+						throw error("Unterminated string");
+					if (capturing)
+						emitter.emit((char)escaped);
+					if (decoded != null)
+						decoded.append(unescape(escaped));
+				} else if (decoded != null) {
+					decoded.append((char)c);
+				}
+			}
+		}
+
+		private char unescape(int escaped) throws IOException {
+			switch (escaped) {
+			case 'n':
+				return '\n';
+			case 't':
+				return '\t';
+			case 'r':
+				return '\r';
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'u':
+				char[] hex = new char[4];
+				for (int i = 0; i < 4; i++) {
+					int h = next();
+					if (h == -1)
+						throw error("Unterminated string");
+					hex[i] = (char)h;
+					if (capturing)
+						emitter.emit(hex[i]);
+				}
+				try {
+					return (char)Integer.parseInt(new String(hex), 16);
+				} catch (NumberFormatException e) {
+					throw error("Invalid unicode escape");
+				}
+			default:
+				return (char)escaped;
+			}
+		}
+
+		private void literal() throws IOException {
+			int c = peek();
+			int length = 0;
+			while (c != -1 && c != ',' && c != '}' && c != ']' && c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+				next();
+				if (capturing)
+					emitter.emit((char)c);
+				length++;
+				c = peek();
+			}
+			if (length == 0)
+				throw error("Unexpected character '" + (char)c + "'");
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package com.redfin.hudson;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the fetch and digest work of the triggers away from Hudson's cron thread,
+ * so a slow URL only ties up one of our own threads instead of delaying every other trigger.
+ *
+ * At most <tt>concurrency</tt> polls run at the same time, the others wait in line.
+ * On a JVM with virtual threads every poll gets its own virtual thread and only the
+ * concurrency limit applies, otherwise a fixed pool of daemon threads is used.
+ *
+ * Polls can be delayed, a single timer thread queues them once their delay is over.
+ * Fetches of a URL wait for their host in the {@link HostLimiter} before they are queued,
+ * so they don't take one of the concurrent polls while their host holds them back.
+ */
+public class PollExecutor {
+
+	private static final Logger LOGGER = Logger.getLogger(PollExecutor.class.getName());
+
+	/**
+	 * Milliseconds Hudson's shutdown waits for the running polls.
+	 */
+	public static final int SHUTDOWN_TIMEOUT = Integer.getInteger(PollExecutor.class.getName() + ".shutdownTimeout", 10000);
+
+	private final ExecutorService executor;
+	private final ResizableSemaphore permits;
+	private final ThreadPoolExecutor pool;
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "UrlChangeTrigger poll timer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final HostLimiter limiter;
+	private int concurrency;
+
+	public PollExecutor(int concurrency) {
+		this(concurrency, null);
+	}
+
+	/**
+	 * @param limiter limits the polls submitted with their URL, null for no limits
+	 */
+	public PollExecutor(int concurrency, HostLimiter limiter) {
+		this.limiter = limiter;
+		this.concurrency = Math.max(1, concurrency);
+		ExecutorService virtual = newVirtualThreadExecutor();
+		if (virtual != null) {
+			this.executor = virtual;
+			this.permits = new ResizableSemaphore(this.concurrency);
+			this.pool = null;
+		} else {
+			this.pool = new ThreadPoolExecutor(this.concurrency, this.concurrency, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new PollThreadFactory());
+			this.pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+			this.permits = null;
+		}
+	}
+
+	/**
+	 * Queues a poll. Failures are logged, there is nobody left to report them to.
+	 * Polls submitted after {@link #shutdown()} are dropped.
+	 */
+	public void submit(final Runnable poll) {
+		if (executor.isShutdown()) {
+			LOGGER.log(Level.FINE, "Shutting down, dropping poll {0}", poll);
+			return;
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				if (permits != null)
+					permits.acquireUninterruptibly();
+				try {
+					poll.run();
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Poll failed", e);
+				} finally {
+					if (permits != null)
+						permits.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queues a poll once the delay is over.
+	 *
+	 * @param delay in milliseconds, the poll is queued right away if it is not positive
+	 */
+	public void submit(final Runnable poll, long delay) {
+		if (delay <= 0 || timer.isShutdown()) {
+			submit(poll);
+			return;
+		}
+		timer.schedule(new Runnable() {
+			public void run() {
+				submit(poll);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Queues a fetch of the URL once its host accepts one more request.
+	 * The fetch holds the permit of its host while it runs.
+	 */
+	public void submit(URL url, Runnable poll) {
+		if (limiter == null) {
+			submit(poll);
+			return;
+		}
+		limiter.execute(url, new Executor() {
+			public void execute(Runnable command) {
+				submit(command);
+			}
+		}, poll);
+	}
+
+	public synchronized int getConcurrency() {
+		return concurrency;
+	}
+
+	public synchronized void setConcurrency(int concurrency) {
+		concurrency = Math.max(1, concurrency);
+		if (concurrency == this.concurrency)
+			return;
+		if (pool != null) {
+			//core size must never exceed maximum size, grow and shrink in the right order
+			if (concurrency > this.concurrency) {
+				pool.setMaximumPoolSize(concurrency);
+				pool.setCorePoolSize(concurrency);
+			} else {
+				pool.setCorePoolSize(concurrency);
+				pool.setMaximumPoolSize(concurrency);
+			}
+		} else {
+			permits.resize(concurrency - this.concurrency);
+		}
+		this.concurrency = concurrency;
+	}
+
+	public boolean isVirtual() {
+		return pool == null;
+	}
+
+	/**
+	 * Stops accepting polls. Delayed polls are dropped, queued and running ones still complete.
+	 */
+	public void shutdown() {
+		timer.shutdownNow();
+		executor.shutdown();
+	}
+
+	/**
+	 * Waits for the polls still queued or running after {@link #shutdown()}.
+	 *
+	 * @return false if some were still running when the timeout expired
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Looks up <tt>Executors.newVirtualThreadPerTaskExecutor()</tt> reflectively
+	 * since the plugin is compiled for JVMs that don't have it.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			LOGGER.log(Level.FINE, "Virtual threads not available, using a thread pool", e);
+			return null;
+		}
+	}
+
+	private static final class ResizableSemaphore extends Semaphore {
+		ResizableSemaphore(int permits) {
+			super(permits, true);
+		}
+
+		void resize(int delta) {
+			if (delta > 0)
+				release(delta);
+			else
+				reducePermits(-delta);
+		}
+	}
+
+	private static final class PollThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "UrlChangeTrigger poller #" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
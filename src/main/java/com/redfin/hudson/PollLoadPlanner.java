@@ -0,0 +1,198 @@
+package com.redfin.hudson;
+
+import hudson.scheduler.CronTabList;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.runtime.RecognitionException;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Projects the polls the schedules of the URL triggers produce over the next hour,
+ * so the effect of the Minimum and Default Schedules can be seen before they are saved.
+ *
+ * Every URL of every job is counted each time its schedule fires, at the second its splay
+ * delays it to. Adaptive triggers and suspended URLs poll less, the projection is the most
+ * the schedules can produce.
+ */
+public class PollLoadPlanner {
+
+	static final int MINUTES = 60;
+
+	/**
+	 * What the planner needs to know about a job.
+	 */
+	static final class Job {
+		final String name;
+		/** Schedule of the job, empty if it follows the Default Schedule. */
+		final String spec;
+		final List<URL> urls;
+		final int timeout; //in seconds
+
+		Job(String name, String spec, List<URL> urls, int timeout) {
+			this.name = name;
+			this.spec = spec;
+			this.urls = urls;
+			this.timeout = timeout;
+		}
+	}
+
+	private final String minConfSpec;
+	private final String defaultConfSpec;
+	private final long splay; //in milliseconds
+
+	/**
+	 * @param splay splay set in the Global Configuration, in seconds
+	 */
+	public PollLoadPlanner(String minConfSpec, String defaultConfSpec, int splay) {
+		this.minConfSpec = minConfSpec;
+		this.defaultConfSpec = defaultConfSpec;
+		this.splay = splay * 1000L;
+	}
+
+	/**
+	 * @param start the hour projected starts at the first minute after this instant
+	 * @param pollSeconds how long a poll takes, for the concurrency estimate
+	 * @throws RecognitionException if one of the schedules is invalid
+	 */
+	Projection plan(List<Job> jobs, long start, double pollSeconds) throws RecognitionException {
+		Calendar minute = Calendar.getInstance();
+		minute.setTimeInMillis(start);
+		minute.set(Calendar.SECOND, 0);
+		minute.set(Calendar.MILLISECOND, 0);
+		minute.add(Calendar.MINUTE, 1);
+		long first = minute.getTimeInMillis();
+
+		//Jobs sharing a schedule are checked against the calendar once per minute
+		Map<String, List<Job>> bySpec = new HashMap<String, List<Job>>();
+		Projection projection = new Projection();
+		for (Job job : jobs) {
+			String spec = job.spec;
+			if (StringUtils.isEmpty(spec)) {
+				spec = StringUtils.isEmpty(defaultConfSpec) ? "* * * * *" : defaultConfSpec;
+				projection.defaultJobs++;
+			} else if (UrlChangeTrigger.DescriptorImpl.isMoreFrequentThanMinConfSpec(spec, minConfSpec)) {
+				projection.fasterThanMinimum++;
+			}
+			List<Job> sharing = bySpec.get(spec);
+			if (sharing == null) {
+				sharing = new ArrayList<Job>();
+				bySpec.put(spec, sharing);
+			}
+			sharing.add(job);
+			projection.jobs++;
+			projection.urls += job.urls.size();
+		}
+
+		int[] perMinute = new int[MINUTES];
+		int[] perSecond = new int[MINUTES * 60 + (int)(splay / 1000) + 1];
+		for (Map.Entry<String, List<Job>> entry : bySpec.entrySet()) {
+			CronTabList tabs = ScheduleCache.getCronTabList(entry.getKey());
+			long period = UrlChangeTrigger.DescriptorImpl.getInterval(entry.getKey());
+			for (int m = 0; m < MINUTES; m++) {
+				minute.setTimeInMillis(first + m * 60000L);
+				if (!tabs.check(minute))
+					continue;
+				for (Job job : entry.getValue()) {
+					long window = UrlChangeTrigger.getSplayWindow(splay, period, job.timeout * 1000L);
+					for (URL url : job.urls) {
+						perMinute[m]++;
+						perSecond[m * 60 + (int)(UrlChangeTrigger.getSplay(job.name, url, window) / 1000)]++;
+					}
+				}
+			}
+		}
+
+		for (int m = 0; m < MINUTES; m++) {
+			projection.polls += perMinute[m];
+			if (perMinute[m] > projection.peakMinutePolls) {
+				projection.peakMinutePolls = perMinute[m];
+				projection.peakMinute = first + m * 60000L;
+			}
+		}
+		//Polls started within the last pollSeconds are still running
+		int span = Math.max(1, (int)Math.ceil(pollSeconds));
+		int running = 0;
+		for (int s = 0; s < perSecond.length; s++) {
+			projection.peakSecondPolls = Math.max(projection.peakSecondPolls, perSecond[s]);
+			running += perSecond[s];
+			if (s >= span)
+				running -= perSecond[s - span];
+			projection.peakConcurrency = Math.max(projection.peakConcurrency, running);
+		}
+		return projection;
+	}
+
+	/**
+	 * Polls over the projected hour.
+	 */
+	public static final class Projection {
+		private int jobs;
+		private int urls;
+		private int defaultJobs;
+		private int fasterThanMinimum;
+		private long polls;
+		private int peakMinutePolls;
+		private long peakMinute;
+		private int peakSecondPolls;
+		private int peakConcurrency;
+
+		public int getJobs() {
+			return jobs;
+		}
+
+		public int getUrls() {
+			return urls;
+		}
+
+		/**
+		 * @return the number of jobs following the Default Schedule
+		 */
+		public int getDefaultJobs() {
+			return defaultJobs;
+		}
+
+		/**
+		 * @return the number of jobs scheduled more often than the Minimum Schedule, they keep
+		 * their schedule until their configuration is saved again
+		 */
+		public int getFasterThanMinimum() {
+			return fasterThanMinimum;
+		}
+
+		public double getPollsPerMinute() {
+			return (double)polls / MINUTES;
+		}
+
+		public int getPeakMinutePolls() {
+			return peakMinutePolls;
+		}
+
+		/**
+		 * @return the busiest minute, null if nothing polls
+		 */
+		public Date getPeakMinute() {
+			return peakMinute > 0 ? new Date(peakMinute) : null;
+		}
+
+		/**
+		 * @return the most polls started within the same second
+		 */
+		public int getPeakSecondPolls() {
+			return peakSecondPolls;
+		}
+
+		/**
+		 * @return the most polls running at the same time
+		 */
+		public int getPeakConcurrency() {
+			return peakConcurrency;
+		}
+	}
+}
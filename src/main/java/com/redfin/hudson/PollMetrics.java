@@ -0,0 +1,258 @@
+package com.redfin.hudson;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Counters and latency histograms of the polls.
+ *
+ * Every trigger keeps its own metrics, which forward everything they record to the global
+ * metrics of the plugin. A fetch shared between triggers is recorded by the trigger that ran
+ * it, the others only record the outcome and their total latency.
+ *
+ * Recording is lock free, reading while polls run gives a slightly inconsistent but never
+ * corrupted snapshot.
+ */
+public class PollMetrics {
+
+	/**
+	 * Phases of a poll that are timed.
+	 */
+	public enum Phase {
+		/** Whole poll, as seen by the trigger. */
+		TOTAL("Total"),
+		/** Opening the request. With the HTTP/2 client this includes waiting for the response headers. */
+		CONNECT("Connect"),
+		/** From opening the request to receiving the response headers. */
+		FIRST_BYTE("Time to first byte"),
+		/** Waiting for the content. */
+		READ("Read"),
+		/** Decoding, selecting and digesting the content. */
+		DIGEST("Digest"),
+		/** Reading and recording the fingerprint of the trigger. */
+		FINGERPRINT_IO("Fingerprint I/O");
+
+		private final String displayName;
+
+		private Phase(String displayName) {
+			this.displayName = displayName;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+	}
+
+	private final PollMetrics parent;
+	private final AtomicLong polls = new AtomicLong();
+	private final AtomicLong changes = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final ConcurrentMap<String, AtomicLong> failuresByType = new ConcurrentHashMap<String, AtomicLong>();
+	private final Histogram[] histograms = new Histogram[Phase.values().length];
+
+	public PollMetrics() {
+		this(null);
+	}
+
+	/**
+	 * @param parent metrics that receive everything recorded here too, null for none
+	 */
+	public PollMetrics(PollMetrics parent) {
+		this.parent = parent;
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = new Histogram();
+	}
+
+	public void polled() {
+		polls.incrementAndGet();
+		if (parent != null)
+			parent.polled();
+	}
+
+	public void changed() {
+		changes.incrementAndGet();
+		if (parent != null)
+			parent.changed();
+	}
+
+	/**
+	 * Records a poll answered without downloading the content (304 or unchanged <tt>HEAD</tt>).
+	 */
+	public void notModified() {
+		notModified.incrementAndGet();
+		if (parent != null)
+			parent.notModified();
+	}
+
+	public void failed(IOException e) {
+		failures.incrementAndGet();
+		String type = e.getClass().getSimpleName();
+		AtomicLong count = failuresByType.get(type);
+		if (count == null) {
+			AtomicLong created = new AtomicLong();
+			count = failuresByType.putIfAbsent(type, created);
+			if (count == null)
+				count = created;
+		}
+		count.incrementAndGet();
+		if (parent != null)
+			parent.failed(e);
+	}
+
+	/**
+	 * Records bytes received from the server, before decoding.
+	 */
+	public void read(long bytes) {
+		bytesRead.addAndGet(bytes);
+		if (parent != null)
+			parent.read(bytes);
+	}
+
+	public void time(Phase phase, long nanos) {
+		histograms[phase.ordinal()].record(nanos);
+		if (parent != null)
+			parent.time(phase, nanos);
+	}
+
+	public long getPolls() {
+		return polls.get();
+	}
+
+	public long getChanges() {
+		return changes.get();
+	}
+
+	public long getNotModified() {
+		return notModified.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public Map<String, Long> getFailuresByType() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : failuresByType.entrySet())
+			counts.put(entry.getKey(), entry.getValue().get());
+		return counts;
+	}
+
+	public Histogram getHistogram(Phase phase) {
+		return histograms[phase.ordinal()];
+	}
+
+	public Phase[] getPhases() {
+		return Phase.values();
+	}
+
+	public JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+		json.element("polls", getPolls());
+		json.element("changes", getChanges());
+		json.element("notModified", getNotModified());
+		json.element("failures", getFailures());
+		json.element("failuresByType", getFailuresByType());
+		json.element("bytesRead", getBytesRead());
+		JSONObject latencies = new JSONObject();
+		for (Phase phase : Phase.values())
+			latencies.element(phase.name().toLowerCase(), getHistogram(phase).toJSON());
+		json.element("latencyMillis", latencies);
+		return json;
+	}
+
+	/**
+	 * Latency histogram with fixed, roughly logarithmic buckets from one millisecond to one minute.
+	 * Percentiles are reported as the upper bound of the bucket they fall in.
+	 */
+	public static final class Histogram {
+		static final long[] BOUNDS_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 30000, 60000 };
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sumNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		public void record(long nanos) {
+			long millis = nanos / 1000000;
+			int bucket = 0;
+			while (bucket < BOUNDS_MILLIS.length && millis >= BOUNDS_MILLIS[bucket])
+				bucket++;
+			buckets.incrementAndGet(bucket);
+			count.incrementAndGet();
+			sumNanos.addAndGet(nanos);
+			long max;
+			while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+				//Retry
+			}
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public double getMeanMillis() {
+			long n = count.get();
+			return n > 0 ? sumNanos.get() / 1e6 / n : 0;
+		}
+
+		public double getMaxMillis() {
+			return maxNanos.get() / 1e6;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 * @return the upper bound of the bucket holding the percentile, in milliseconds,
+		 * the maximum if it falls in the last bucket
+		 */
+		public double getPercentileMillis(double percentile) {
+			long n = 0;
+			long[] snapshot = new long[buckets.length()];
+			for (int i = 0; i < snapshot.length; i++) {
+				snapshot[i] = buckets.get(i);
+				n += snapshot[i];
+			}
+			if (n == 0)
+				return 0;
+			long rank = (long)Math.ceil(percentile / 100 * n);
+			long seen = 0;
+			for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+				seen += snapshot[i];
+				if (seen >= rank)
+					return Math.min(BOUNDS_MILLIS[i], getMaxMillis());
+			}
+			return getMaxMillis();
+		}
+
+		public double getP50() {
+			return getPercentileMillis(50);
+		}
+
+		public double getP99() {
+			return getPercentileMillis(99);
+		}
+
+		public JSONObject toJSON() {
+			JSONObject json = new JSONObject();
+			json.element("count", getCount());
+			json.element("mean", getMeanMillis());
+			json.element("p50", getP50());
+			json.element("p90", getPercentileMillis(90));
+			json.element("p99", getP99());
+			json.element("max", getMaxMillis());
+			return json;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.redfin.hudson;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.ManagementLink;
+
+import java.util.SortedMap;
+
+/**
+ * Page of <em>Manage Hudson</em> showing the metrics of the polls, for the whole plugin and per job.
+ * The same metrics are served as JSON by {@link UrlChangeTrigger.DescriptorImpl#doMetrics}.
+ */
+@Extension
+public class PollMetricsLink extends ManagementLink {
+
+	@Override
+	public String getIconFileName() {
+		return "graph.gif";
+	}
+
+	@Override
+	public String getDisplayName() {
+		return "URL Change Trigger Metrics";
+	}
+
+	@Override
+	public String getDescription() {
+		return "Latencies, traffic and failures of the polls of the URL change triggers.";
+	}
+
+	@Override
+	public String getUrlName() {
+		return "url-change-trigger-metrics";
+	}
+
+	public UrlChangeTrigger.DescriptorImpl getDescriptor() {
+		return Hudson.getInstance().getDescriptorByType(UrlChangeTrigger.DescriptorImpl.class);
+	}
+
+	public PollMetrics getMetrics() {
+		return getDescriptor().getMetrics();
+	}
+
+	public SortedMap<String, PollMetrics> getJobMetrics() {
+		return getDescriptor().getJobMetrics();
+	}
+}
@@ -0,0 +1,617 @@
+package com.redfin.hudson;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.Serializable;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Describes how the content of a URL is fetched and digested.
+ *
+ * Two requests are equal when they would produce the same fingerprint,
+ * which lets {@link UrlPollRegistry} share one fetch between several triggers.
+ * The timeout, size cap, compression and metrics are not part of the identity: whoever starts the fetch decides them.
+ *
+ * Requests are sent to the agents that fetch on behalf of the master, see {@link #agent(String)}.
+ * The metrics stay on the master, the fetch waits for its host there before it is sent, see {@link HostLimiter}.
+ */
+public class PollRequest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger LOGGER = Logger.getLogger(PollRequest.class.getName());
+
+	private final URL url;
+	private final int timeout; //in milliseconds
+	private final DigestAlgorithm algorithm;
+	private ContentSelector selector;
+	private boolean headProbe;
+	private ByteRanges ranges;
+	private long maxBytes; //0 for no limit
+	private boolean compression;
+	private transient PollMetrics metrics;
+	private transient String agent; //label, null to fetch from this JVM
+
+	public PollRequest(URL url, int timeout) {
+		this(url, timeout, DigestAlgorithm.MD5);
+	}
+
+	public PollRequest(URL url, int timeout, DigestAlgorithm algorithm) {
+		this.url = url;
+		this.timeout = timeout;
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * Only fingerprints the part of the content picked by the selector.
+	 * Like the other options, must be set before the request is polled.
+	 */
+	public PollRequest selector(ContentSelector selector) {
+		this.selector = selector;
+		return this;
+	}
+
+	/**
+	 * Asks the server for the headers with a <tt>HEAD</tt> request first,
+	 * and only downloads the content if they differ from the last poll.
+	 */
+	public PollRequest headProbe(boolean headProbe) {
+		this.headProbe = headProbe;
+		return this;
+	}
+
+	/**
+	 * Only fetches and fingerprints the given parts of the content, one request per range.
+	 */
+	public PollRequest ranges(ByteRanges ranges) {
+		this.ranges = ranges;
+		return this;
+	}
+
+	/**
+	 * Fails the poll when the content, or the selected ranges, exceed this many bytes.
+	 *
+	 * @param maxBytes 0 for no limit
+	 */
+	public PollRequest maxBytes(long maxBytes) {
+		this.maxBytes = Math.max(0, maxBytes);
+		return this;
+	}
+
+	/**
+	 * Lets the server compress the content with gzip or deflate. The fingerprint is computed
+	 * over the decoded content, so it doesn't depend on whether the server compressed it.
+	 * Not used with byte ranges, which address the encoded content.
+	 */
+	public PollRequest compression(boolean compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	/**
+	 * Records the network phases of the fetch, and the bytes read, in the metrics.
+	 */
+	public PollRequest metrics(PollMetrics metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	/**
+	 * Fetches and digests the content on an agent with the given label instead of on the master,
+	 * only the fingerprint comes back. Requests fetched from different agents are not shared,
+	 * the content may depend on where it is fetched from.
+	 *
+	 * @param agent label expression, null or blank to fetch on the master
+	 */
+	public PollRequest agent(String agent) {
+		this.agent = StringUtils.isBlank(agent) ? null : agent.trim();
+		return this;
+	}
+
+	public URL getUrl() {
+		return url;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public DigestAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	public ContentSelector getSelector() {
+		return selector;
+	}
+
+	public boolean isHeadProbe() {
+		return headProbe;
+	}
+
+	/**
+	 * @return the label of the agents fetching the content, null if it is fetched on the master
+	 */
+	public String getAgent() {
+		return agent;
+	}
+
+	/**
+	 * Sends a request to the URL, with conditional request headers
+	 * when the given fingerprint carries validators from a previous poll.
+	 * A fingerprint computed with another algorithm is of no use on a 304,
+	 * its validators are not sent so the content gets digested again.
+	 */
+	HttpTransport.Response open(String method, UrlFingerprint fingerprint) throws IOException {
+		return open(method, fingerprint, null);
+	}
+
+	private HttpTransport.Response open(String method, UrlFingerprint fingerprint, ByteRanges.Range range) throws IOException {
+		Map<String, String> headers = new HashMap<String, String>();
+		if (range != null)
+			headers.put("Range", range.toHeader());
+		else if (compression && ranges == null)
+			headers.put("Accept-Encoding", ACCEPT_ENCODING);
+		if (fingerprint != null && fingerprint.hasValidators() && fingerprint.getAlgorithm() == algorithm) {
+			if (!StringUtils.isEmpty(fingerprint.getEtag()))
+				headers.put("If-None-Match", fingerprint.getEtag());
+			if (!StringUtils.isEmpty(fingerprint.getLastModified()))
+				headers.put("If-Modified-Since", fingerprint.getLastModified());
+		}
+		long start = System.nanoTime();
+		HttpTransport.Response response = HttpTransport.forUrl(url).open(url, method, headers, timeout);
+		time(PollMetrics.Phase.CONNECT, start);
+		return response;
+	}
+
+	/**
+	 * Waits for the status of the response, which comes with the first bytes sent by the server.
+	 *
+	 * @param start when the request was opened
+	 */
+	private int getStatus(HttpTransport.Response response, long start) throws IOException {
+		int status = response.getStatus();
+		time(PollMetrics.Phase.FIRST_BYTE, start);
+		return status;
+	}
+
+	private void time(PollMetrics.Phase phase, long start) {
+		if (metrics != null)
+			metrics.time(phase, System.nanoTime() - start);
+	}
+
+	/**
+	 * Fetches and digests the content of the URL.
+	 *
+	 * @param known fingerprint from a previous poll, its validators are sent to the server
+	 * @return the fingerprint of the current content, <tt>known</tt> itself if the server answered 304
+	 */
+	public UrlFingerprint fetch(UrlFingerprint known) throws IOException {
+		if (agent != null) {
+			//The phases are not measured on the agents
+			return AgentFetch.fetch(agent, this, known);
+		}
+		if (headProbe && known != null && known.getDigest() != null && known.getAlgorithm() == algorithm
+				&& unchangedHeaders(known)) {
+			LOGGER.log(Level.FINEST, "Headers of {0} unchanged", url);
+			if (metrics != null)
+				metrics.notModified();
+			return known;
+		}
+		return get(known);
+	}
+
+	private UrlFingerprint get(UrlFingerprint known) throws IOException {
+		long start = System.nanoTime();
+		HttpTransport.Response response = open("GET", known, ranges != null ? ranges.getRanges().get(0) : null);
+		RangesInputStream rangesBody = null;
+		InputStream decoded = null;
+		MeteredInputStream metered = null;
+		long headers = 0;
+		try {
+			if (getStatus(response, start) == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				//Server confirmed our validators, no need to download and digest the content
+				LOGGER.log(Level.FINEST, "Content of {0} not modified", url);
+				if (metrics != null)
+					metrics.notModified();
+				return known;
+			}
+			headers = System.nanoTime();
+			long length = getTotalLength(response);
+			InputStream body;
+			if (ranges == null) {
+				//Don't even start reading content known to be too large
+				if (maxBytes > 0 && length > maxBytes)
+					throw new IOException("Content of " + url + " is " + length + " bytes, more than the maximum of " + maxBytes);
+				//The decoder is closed on its own to release the inflater, the response body stays open
+				//until the response is closed so the connection can be reused
+				metered = new MeteredInputStream(response.getBody());
+				decoded = decode(metered, response.getHeader("Content-Encoding"));
+				body = decoded;
+			} else {
+				rangesBody = new RangesInputStream(response);
+				metered = new MeteredInputStream(rangesBody);
+				body = metered;
+			}
+			if (maxBytes > 0)
+				body = new CappedInputStream(body, maxBytes);
+			return new UrlFingerprint(algorithm.digest(body, selector, getCharset(response)),
+					response.getHeader("ETag"), response.getHeader("Last-Modified"), length);
+		} finally {
+			if (metered != null && metrics != null) {
+				//Whatever was not spent waiting for the content was spent decoding and digesting it
+				metrics.read(metered.bytes);
+				metrics.time(PollMetrics.Phase.READ, metered.nanos);
+				metrics.time(PollMetrics.Phase.DIGEST, Math.max(0, System.nanoTime() - headers - metered.nanos));
+			}
+			if (decoded != null)
+				decoded.close();
+			if (rangesBody != null)
+				rangesBody.close();
+			response.close();
+		}
+	}
+
+	/**
+	 * Content codings we can decode, brotli is not part of the JDK.
+	 */
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	/**
+	 * Decodes the content according to its <tt>Content-Encoding</tt>.
+	 */
+	private InputStream decode(InputStream in, String encoding) throws IOException {
+		if (encoding == null)
+			return in;
+		encoding = encoding.trim().toLowerCase();
+		if (encoding.length() == 0 || encoding.equals("identity"))
+			return in;
+		if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+			return new GZIPInputStream(in, 8192);
+		if (encoding.equals("deflate"))
+			return inflate(in);
+		throw new IOException("Unsupported Content-Encoding " + encoding + " for " + url);
+	}
+
+	/**
+	 * <tt>deflate</tt> is meant to be zlib wrapped, but some servers send raw deflate data.
+	 * Tells them apart from the zlib header.
+	 */
+	private static InputStream inflate(InputStream in) throws IOException {
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		int b0 = pushback.read();
+		int b1 = b0 >= 0 ? pushback.read() : -1;
+		if (b1 >= 0)
+			pushback.unread(b1);
+		if (b0 >= 0)
+			pushback.unread(b0);
+		boolean zlib = b1 >= 0 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+		final Inflater inflater = new Inflater(!zlib);
+		return new InflaterInputStream(pushback, inflater, 8192) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				inflater.end();
+			}
+		};
+	}
+
+	/**
+	 * Returns the length of the whole content, which the <tt>Content-Range</tt> header
+	 * carries when only part of it was sent.
+	 */
+	static long getTotalLength(HttpTransport.Response response) throws IOException {
+		String contentRange = response.getHeader("Content-Range");
+		if (response.getStatus() == 206 && contentRange != null) {
+			int slash = contentRange.lastIndexOf('/');
+			if (slash >= 0) {
+				try {
+					return Long.parseLong(contentRange.substring(slash + 1).trim());
+				} catch (NumberFormatException e) {
+					//Length is *, unknown
+				}
+			}
+			return -1;
+		}
+		return getContentLength(response);
+	}
+
+	/**
+	 * Counts the bytes received and the time spent waiting for them.
+	 * Closing it leaves the underlying stream open, the response owns it.
+	 */
+	private static final class MeteredInputStream extends FilterInputStream {
+		long bytes;
+		long nanos;
+
+		MeteredInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			int b = super.read();
+			nanos += System.nanoTime() - start;
+			if (b >= 0)
+				bytes++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			int n = super.read(b, off, len);
+			nanos += System.nanoTime() - start;
+			if (n > 0)
+				bytes += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long start = System.nanoTime();
+			long skipped = super.skip(n);
+			nanos += System.nanoTime() - start;
+			return skipped;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Fails the poll as soon as more than the maximum number of bytes was read.
+	 */
+	private final class CappedInputStream extends FilterInputStream {
+		private final long max;
+		private long count;
+
+		CappedInputStream(InputStream in, long max) {
+			super(in);
+			this.max = max;
+		}
+
+		private void count(long n) throws IOException {
+			if (n > 0) {
+				count += n;
+				if (count > max)
+					throw new IOException("Content of " + url + " exceeds the maximum of " + max + " bytes");
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			count(n);
+			return n;
+		}
+	}
+
+	/**
+	 * Reads the requested ranges one after the other, sending one request per range.
+	 * A server that ignores the <tt>Range</tt> header answers with the whole content,
+	 * the range is then cut out of it and the rest is not read.
+	 */
+	private final class RangesInputStream extends InputStream {
+		private final List<ByteRanges.Range> parts = ranges.getRanges();
+		private int index;
+		private HttpTransport.Response response;
+		private InputStream current;
+
+		RangesInputStream(HttpTransport.Response first) throws IOException {
+			current = select(first, parts.get(0));
+		}
+
+		/**
+		 * @return false once all the ranges have been read
+		 */
+		private boolean next() throws IOException {
+			closeCurrent();
+			if (++index >= parts.size())
+				return false;
+			response = open("GET", null, parts.get(index));
+			current = select(response, parts.get(index));
+			return true;
+		}
+
+		private InputStream select(HttpTransport.Response response, ByteRanges.Range range) throws IOException {
+			InputStream in = response.getBody();
+			if (response.getStatus() == 206)
+				return in;
+			//Whole content, skip to the range
+			long first = range.getFirst(getContentLength(response));
+			if (first < 0)
+				throw new IOException("Server of " + url + " ignored the Range header and sent no length, can't find range " + range);
+			long skipped = 0;
+			while (skipped < first) {
+				long n = in.skip(first - skipped);
+				if (n <= 0) {
+					if (in.read() < 0)
+						return new LimitedInputStream(in, 0);
+					n = 1;
+				}
+				skipped += n;
+			}
+			return new LimitedInputStream(in, range.getLength());
+		}
+
+		private void closeCurrent() {
+			if (response != null) {
+				response.close();
+				response = null;
+			}
+			current = null;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while (current != null) {
+				int n = current.read(b, off, len);
+				if (n >= 0)
+					return n;
+				if (!next())
+					break;
+			}
+			return -1;
+		}
+
+		@Override
+		public void close() {
+			closeCurrent();
+		}
+	}
+
+	/**
+	 * Stops after the given number of bytes.
+	 */
+	private static final class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+
+		/**
+		 * @param limit -1 for no limit
+		 */
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining == 0)
+				return -1;
+			int b = super.read();
+			if (b >= 0 && remaining > 0)
+				remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining == 0)
+				return -1;
+			if (remaining > 0)
+				len = (int)Math.min(len, remaining);
+			int n = super.read(b, off, len);
+			if (n > 0 && remaining > 0)
+				remaining -= n;
+			return n;
+		}
+	}
+
+	/**
+	 * Sends a <tt>HEAD</tt> request and compares the <tt>ETag</tt>, <tt>Last-Modified</tt>
+	 * and <tt>Content-Length</tt> headers with the ones recorded by the last poll.
+	 * The content is considered unchanged only if all three match and at least one of
+	 * <tt>ETag</tt> or <tt>Last-Modified</tt> is present, the length alone proves nothing.
+	 */
+	private boolean unchangedHeaders(UrlFingerprint known) throws IOException {
+		long start = System.nanoTime();
+		return unchangedHeaders(known, open("HEAD", null), start);
+	}
+
+	private boolean unchangedHeaders(UrlFingerprint known, HttpTransport.Response response, long start) throws IOException {
+		try {
+			if (getStatus(response, start) != HttpURLConnection.HTTP_OK)
+				return false;
+			String etag = response.getHeader("ETag");
+			String lastModified = response.getHeader("Last-Modified");
+			if (etag == null && lastModified == null)
+				return false;
+			return StringUtils.equals(etag, known.getEtag())
+					&& StringUtils.equals(lastModified, known.getLastModified())
+					&& getContentLength(response) == known.getContentLength();
+		} finally {
+			response.close();
+		}
+	}
+
+	static long getContentLength(HttpTransport.Response response) {
+		String length = response.getHeader("Content-Length");
+		if (length != null) {
+			try {
+				return Long.parseLong(length.trim());
+			} catch (NumberFormatException e) {
+				//Treat as unknown
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the charset announced in the <tt>Content-Type</tt> header, null if there is none.
+	 */
+	static String getCharset(HttpTransport.Response response) {
+		String contentType = response.getHeader("Content-Type");
+		if (contentType == null)
+			return null;
+		for (String parameter : contentType.split(";")) {
+			parameter = parameter.trim();
+			if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+				String charset = parameter.substring(8).trim();
+				if (charset.startsWith("\"") && charset.endsWith("\"") && charset.length() > 1)
+					charset = charset.substring(1, charset.length() - 1);
+				return charset;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof PollRequest))
+			return false;
+		PollRequest other = (PollRequest)o;
+		//URL.equals() resolves host names, compare the external form instead
+		return url.toExternalForm().equals(other.url.toExternalForm())
+				&& algorithm == other.algorithm
+				&& (selector == null ? other.selector == null : selector.equals(other.selector))
+				&& headProbe == other.headProbe
+				&& (ranges == null ? other.ranges == null : ranges.equals(other.ranges))
+				&& StringUtils.equals(agent, other.agent);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 31 * url.toExternalForm().hashCode() + algorithm.hashCode();
+		hash = 31 * hash + (selector == null ? 0 : selector.hashCode());
+		hash = 31 * hash + (headProbe ? 1 : 0);
+		hash = 31 * hash + (agent == null ? 0 : agent.hashCode());
+		return 31 * hash + (ranges == null ? 0 : ranges.hashCode());
+	}
+
+	@Override
+	public String toString() {
+		return url.toExternalForm();
+	}
+}
@@ -0,0 +1,160 @@
+package com.redfin.hudson;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers when every URL of every job was last polled successfully, across restarts,
+ * so the triggers don't all fetch their URLs on their first tick after Hudson starts.
+ *
+ * The times are kept in memory and written to a single file in Hudson's root directory
+ * every {@link #SAVE_INTERVAL} milliseconds and when Hudson shuts down. After a crash the
+ * times are up to one interval old, which only makes some URLs look due a little early.
+ * The validators of the last poll are kept with the fingerprint, see {@link UrlFingerprint}.
+ */
+public class PollTimes {
+
+	private static final Logger LOGGER = Logger.getLogger(PollTimes.class.getName());
+
+	static final String POLL_TIMES_FILE = "url-change-trigger-poll-times";
+
+	/**
+	 * Milliseconds between two saves of the times.
+	 */
+	public static final int SAVE_INTERVAL = Integer.getInteger(PollTimes.class.getName() + ".saveInterval", 60000);
+
+	private static final int MAGIC = 0x55435450; //"UCTP"
+	private static final int VERSION = 1;
+
+	private final File file;
+	private final ConcurrentMap<String, Long> times = new ConcurrentHashMap<String, Long>();
+	private volatile boolean dirty;
+	private final ScheduledExecutorService saver;
+
+	/**
+	 * Loads the times saved by the previous run, an unreadable file is treated as empty.
+	 */
+	public PollTimes(File file) {
+		this.file = file;
+		try {
+			load();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Failed to read " + file + ", every URL will be polled within the warm-up period", e);
+		}
+		this.saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "UrlChangeTrigger poll times writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		saver.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				save();
+			}
+		}, SAVE_INTERVAL, SAVE_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private static String getKey(String job, URL url) {
+		return job + '\n' + url.toExternalForm();
+	}
+
+	/**
+	 * @return when the URL of the job was last polled successfully, null if it never was since the times are kept
+	 */
+	public Long get(String job, URL url) {
+		return times.get(getKey(job, url));
+	}
+
+	/**
+	 * Records a successful poll.
+	 *
+	 * @param time start of the cron tick the poll belongs to
+	 */
+	public void polled(String job, URL url, long time) {
+		times.put(getKey(job, url), time);
+		dirty = true;
+	}
+
+	/**
+	 * Forgets the times of a job, e.g. after it was renamed or deleted.
+	 */
+	public void forget(String job) {
+		String prefix = job + '\n';
+		for (String key : times.keySet()) {
+			if (key.startsWith(prefix))
+				times.remove(key);
+		}
+		dirty = true;
+	}
+
+	private void load() throws IOException {
+		if (!file.exists())
+			return;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION)
+				return;
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				times.put(key, in.readLong());
+			}
+		} catch (EOFException e) {
+			//Truncated, keep the times read so far
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the times if any changed since the last save.
+	 */
+	public synchronized void save() {
+		if (!dirty)
+			return;
+		dirty = false;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			Map<String, Long> snapshot = new HashMap<String, Long>(times);
+			out.writeInt(snapshot.size());
+			for (Map.Entry<String, Long> time : snapshot.entrySet()) {
+				out.writeUTF(time.getKey());
+				out.writeLong(time.getValue());
+			}
+			out.close();
+			UrlFingerprint.writeAtomically(file, bytes.toByteArray(), false);
+		} catch (IOException e) {
+			dirty = true;
+			LOGGER.log(Level.WARNING, "Failed to write " + file, e);
+		}
+	}
+
+	/**
+	 * Saves the times and stops the background writer.
+	 */
+	public void shutdown() {
+		saver.shutdown();
+		save();
+	}
+}
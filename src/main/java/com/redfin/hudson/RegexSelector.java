@@ -0,0 +1,68 @@
+package com.redfin.hudson;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Selects the matches of a regular expression.
+ *
+ * The content is matched line by line, so only one line is held in memory at a time
+ * and a match cannot span several lines. If the expression has capturing groups
+ * only the groups are selected, otherwise the whole match.
+ */
+public class RegexSelector extends ContentSelector {
+
+	private static final long serialVersionUID = 1L;
+
+	private transient Pattern pattern;
+
+	public RegexSelector(String expression) {
+		super(expression);
+		try {
+			pattern = Pattern.compile(expression);
+		} catch (PatternSyntaxException e) {
+			throw new IllegalArgumentException("Invalid regular expression: " + e.getDescription(), e);
+		}
+	}
+
+	@Override
+	public Type getType() {
+		return Type.REGEX;
+	}
+
+	private Pattern pattern() {
+		if (pattern == null)
+			pattern = Pattern.compile(expression);
+		return pattern;
+	}
+
+	@Override
+	void select(InputStream in, String charset, DigestAlgorithm.Hasher hasher) throws IOException {
+		Emitter emitter = new Emitter(hasher);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset(charset)));
+		Matcher matcher = pattern().matcher("");
+		String line;
+		while ((line = reader.readLine()) != null) {
+			matcher.reset(line);
+			while (matcher.find()) {
+				if (matcher.groupCount() == 0) {
+					emitter.emit(matcher.group());
+					emitter.separator();
+				} else {
+					for (int i = 1; i <= matcher.groupCount(); i++) {
+						String group = matcher.group(i);
+						if (group != null)
+							emitter.emit(group);
+						emitter.separator();
+					}
+				}
+			}
+		}
+		emitter.flush();
+	}
+}
@@ -0,0 +1,103 @@
+package com.redfin.hudson;
+
+import hudson.scheduler.CronTab;
+import hudson.scheduler.CronTabList;
+
+import java.util.Calendar;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.antlr.runtime.RecognitionException;
+
+/**
+ * Compiled schedules, by spec.
+ *
+ * Parsing a schedule runs the ANTLR grammar, and measuring its interval walks the calendar
+ * forward and backward from now. Both happen on every form validation, every job save and,
+ * through the adaptive and splay settings, every poll. A fleet uses a handful of schedules,
+ * so they are compiled once, and the interval is only measured again once the current
+ * interval is over.
+ *
+ * Only valid schedules are cached; invalid ones are parsed again so they report their error.
+ */
+final class ScheduleCache {
+
+	/**
+	 * More distinct specs than this are typed in form fields rather than used by jobs,
+	 * the cache starts over instead of growing.
+	 */
+	static final int MAX_SPECS = 256;
+
+	private static final ConcurrentMap<String, Compiled> SPECS = new ConcurrentHashMap<String, Compiled>();
+	private static final ConcurrentMap<String, CronTabList> LISTS = new ConcurrentHashMap<String, CronTabList>();
+
+	private ScheduleCache() {
+	}
+
+	/**
+	 * @return the schedule compiled from a single line spec
+	 */
+	static CronTab getCronTab(String spec) throws RecognitionException {
+		return getCompiled(spec).tab;
+	}
+
+	/**
+	 * @return the schedule compiled from a spec of any number of lines, as used by triggers
+	 */
+	static CronTabList getCronTabList(String spec) throws RecognitionException {
+		CronTabList tabs = LISTS.get(spec);
+		if (tabs == null) {
+			tabs = CronTabList.create(spec);
+			if (LISTS.size() >= MAX_SPECS)
+				LISTS.clear();
+			LISTS.put(spec, tabs);
+		}
+		return tabs;
+	}
+
+	/**
+	 * @return the time between the runs of the schedule before and after <tt>now</tt>, in milliseconds
+	 */
+	static long getInterval(String spec, long now) throws RecognitionException {
+		return getCompiled(spec).getInterval(now);
+	}
+
+	static void clear() {
+		SPECS.clear();
+		LISTS.clear();
+	}
+
+	private static Compiled getCompiled(String spec) throws RecognitionException {
+		Compiled compiled = SPECS.get(spec);
+		if (compiled == null) {
+			compiled = new Compiled(new CronTab(spec));
+			if (SPECS.size() >= MAX_SPECS)
+				SPECS.clear();
+			SPECS.put(spec, compiled);
+		}
+		return compiled;
+	}
+
+	private static final class Compiled {
+		private final CronTab tab;
+		/** Runs before and after the last instant the interval was measured at, the interval is the same strictly between them. */
+		private volatile long[] window;
+
+		Compiled(CronTab tab) {
+			this.tab = tab;
+		}
+
+		long getInterval(long now) {
+			long[] current = window;
+			if (current == null || now <= current[0] || now >= current[1]) {
+				Calendar floor = tab.floor(now);
+				Calendar ceil = tab.ceil(now);
+				current = new long[] { floor.getTimeInMillis(), ceil.getTimeInMillis() };
+				//At the very instant of a run both ends are now, don't keep that window
+				if (current[1] > current[0])
+					window = current;
+			}
+			return current[1] - current[0];
+		}
+	}
+}
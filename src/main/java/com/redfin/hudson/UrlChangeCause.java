@@ -3,6 +3,11 @@ package com.redfin.hudson;
 import hudson.model.Cause;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
 
 /**
  * {@link Cause} for builds triggered by this plugin.
@@ -10,19 +15,134 @@ import java.net.URL;
  */
 public class UrlChangeCause extends Cause {
     private final URL url;
+    private final List<URL> urls; //null for causes recorded before triggers could watch several URLs
     private final int timeout;
+    private final List<Change> changes; //null unless the build waited for the content to settle
+    private final int quietPeriod; //in seconds
 
     /*public UrlChangeCause(URL url) {
         this.url = url;
     }*/
     
     public UrlChangeCause(URL url, int timeout) {
-        this.url = url;
+        this(Collections.singletonList(url), timeout);
+    }
+    
+    /**
+     * @param urls the URLs whose content changed
+     */
+    public UrlChangeCause(List<URL> urls, int timeout) {
+        this.url = urls.isEmpty()?null:urls.get(0);
+        this.urls = new ArrayList<URL>(urls);
         this.timeout = timeout;
+        this.changes = null;
+        this.quietPeriod = 0;
+    }
+    
+    /**
+     * @param changes the changes seen until the content of the URLs settled, one per URL
+     * @param quietPeriod how long the content stayed unchanged before the build, in seconds
+     */
+    public UrlChangeCause(List<Change> changes, int timeout, int quietPeriod) {
+    	this.urls = new ArrayList<URL>();
+    	for (Change change : changes)
+    		this.urls.add(change.getUrl());
+    	this.url = urls.isEmpty()?null:urls.get(0);
+    	this.timeout = timeout;
+    	this.changes = new ArrayList<Change>(changes);
+    	this.quietPeriod = quietPeriod;
+    }
+    
+    /**
+     * @return the URLs whose content changed
+     */
+    public List<URL> getUrls() {
+    	if (urls!=null)
+    		return Collections.unmodifiableList(urls);
+    	return url!=null?Collections.singletonList(url):Collections.<URL>emptyList();
+    }
+
+    /**
+     * @return the fingerprint before the first change and the final fingerprint of every URL
+     * that changed until the content settled, empty if the build started on the first change
+     */
+    public List<Change> getChanges() {
+    	return changes!=null?Collections.unmodifiableList(changes):Collections.<Change>emptyList();
     }
 
     @Override
     public String getShortDescription() {
-        return Messages.UrlChangeCause_Description(url!=null?url:"remote URL", timeout);
+    	List<URL> changed = getUrls();
+    	String urlList = !changed.isEmpty()?StringUtils.join(changed, ", "):"remote URL";
+    	if (changes!=null) {
+    		int count = 0;
+    		for (Change change : changes)
+    			count += change.getCount();
+    		return Messages.UrlChangeCause_SettledDescription(urlList, count, quietPeriod, timeout);
+    	}
+        return Messages.UrlChangeCause_Description(urlList, timeout);
+    }
+    
+    /**
+     * Changes of one URL while its content settled.
+     */
+    public static final class Change {
+    	private final URL url;
+    	private final String firstDigest; //null if the URL had no fingerprint before
+    	private String finalDigest;
+    	private int count;
+    	
+    	/**
+    	 * @param from fingerprint of the content before the first change, null if there was none
+    	 * @param digest fingerprint of the content after the first change
+    	 */
+    	Change(URL url, String from, String digest) {
+    		this.url = url;
+    		this.firstDigest = from;
+    		this.finalDigest = digest;
+    		this.count = 1;
+    	}
+    	
+    	void changedTo(String digest) {
+    		finalDigest = digest;
+    		count++;
+    	}
+    	
+    	public URL getUrl() {
+    		return url;
+    	}
+    	
+    	/**
+    	 * @return the fingerprint of the content before the first change, null if the URL had none
+    	 */
+    	public String getFirstDigest() {
+    		return firstDigest;
+    	}
+    	
+    	/**
+    	 * @return the fingerprint of the content the URL settled at, the one that was built
+    	 */
+    	public String getFinalDigest() {
+    		return finalDigest;
+    	}
+    	
+    	/**
+    	 * @return true if the content ended up where it was before the first change
+    	 */
+    	boolean isReverted() {
+    		return firstDigest!=null && firstDigest.equalsIgnoreCase(finalDigest);
+    	}
+    	
+    	/**
+    	 * @return the number of changes seen
+    	 */
+    	public int getCount() {
+    		return count;
+    	}
+    	
+    	@Override
+    	public String toString() {
+    		return url+": "+firstDigest+" -> "+finalDigest+" ("+count+" changes)";
+    	}
     }
 }
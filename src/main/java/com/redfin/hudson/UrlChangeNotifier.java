@@ -0,0 +1,61 @@
+package com.redfin.hudson;
+
+import hudson.Extension;
+import hudson.model.Hudson;
+import hudson.model.UnprotectedRootAction;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Lets servers announce that the content of a URL changed:
+ * <tt>/url-change-trigger/notify?url=...</tt>, with <tt>GET</tt> or <tt>POST</tt>.
+ *
+ * An announcement only starts a poll of the URL for the jobs watching it, a build is started
+ * if the content really changed. The URL must be written exactly as in the job configuration.
+ * No authentication is needed, like for the other build hooks servers call, so the answer is
+ * the same <tt>202 Accepted</tt> whether or not a job watches the URL: anonymous callers can't
+ * find out which URLs are watched. The outcome is logged at FINE.
+ */
+@Extension
+public class UrlChangeNotifier implements UnprotectedRootAction {
+
+	private static final Logger LOGGER = Logger.getLogger(UrlChangeNotifier.class.getName());
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return null;
+	}
+
+	public String getUrlName() {
+		return "url-change-trigger";
+	}
+
+	public HttpResponse doNotify(@QueryParameter String url) {
+		if (StringUtils.isBlank(url))
+			return HttpResponses.error(400, "Missing url parameter");
+		URL changed;
+		try {
+			changed = new URL(url.trim());
+		} catch (MalformedURLException e) {
+			return HttpResponses.error(400, "Invalid URL: " + url);
+		}
+		UrlChangeTrigger.DescriptorImpl descriptor = Hudson.getInstance().getDescriptorByType(UrlChangeTrigger.DescriptorImpl.class);
+		int jobs = descriptor.notifyChange(changed);
+		if (jobs == 0)
+			LOGGER.log(Level.FINE, "Change of {0} announced, no job watches it", changed);
+		else
+			LOGGER.log(Level.FINE, "Change of {0} announced, verifying it for {1} jobs", new Object[]{changed, jobs});
+		return HttpResponses.status(202);
+	}
+}
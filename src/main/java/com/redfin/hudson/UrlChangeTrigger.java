@@ -2,12 +2,14 @@ package com.redfin.hudson;
 
 import static hudson.Util.fixNull;
 import hudson.Extension;
-import hudson.FilePath;
 import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
 import hudson.model.BuildableItem;
+import hudson.model.Hudson;
 import hudson.model.Item;
-import hudson.scheduler.CronTab;
-import hudson.scheduler.CronTabList;
+import hudson.model.Label;
+import hudson.model.listeners.ItemListener;
 import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
 import hudson.util.FormValidation;
@@ -15,28 +17,71 @@ import hudson.util.FormValidation;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectStreamException;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import net.sf.json.JSONObject;
 
 import org.antlr.runtime.RecognitionException;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
-/** Triggers a build when the data at a particular URL has changed. */
+/** Triggers a build when the data at one of a list of URLs has changed. */
 public class UrlChangeTrigger extends Trigger<BuildableItem> {
 	
+	/**
+	 * Directory of the job holding the fingerprints of the URLs after the first one,
+	 * one sub directory per URL. The first URL keeps its fingerprint in the job directory.
+	 */
+	static final String URL_FINGERPRINTS_DIR = "url-change-trigger-urls";
+	
     URL url;
+    List<URL> additionalUrls; //null for triggers watching a single URL
     int timeout; //in seconds
+    String selectorType;
+    String selector;
+    boolean headProbe;
+    boolean adaptive;
+    boolean pushNotifications;
+    int quietPeriod; //in seconds, 0 to build on the first change
+    int flipFlopWindow; //in minutes, 0 to build on every change
+    String agentLabel; //null to poll from the master
+    String byteRanges;
+    
+    private transient ContentSelector contentSelector;
+    private transient ByteRanges parsedByteRanges;
+    private transient AtomicBoolean polling = new AtomicBoolean();
+    private transient AdaptiveInterval adaptiveInterval = new AdaptiveInterval();
+    private transient ChangeDebouncer debouncer = new ChangeDebouncer();
+    private transient Queue<Verification> verifications = new ConcurrentLinkedQueue<Verification>();
+    private transient PollMetrics metrics;
+    private transient boolean warmingUp;
    
     public UrlChangeTrigger(String url) throws MalformedURLException {
         this(new URL(url));
@@ -57,17 +102,29 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
         this.timeout = timeout;
     }
     
+    /**
+     * @param urls URLs to watch, at least one
+     */
+    public UrlChangeTrigger(List<URL> urls, int timeout, String schedule) throws RecognitionException {
+    	this(urls.get(0), timeout, schedule);
+    	if(urls.size()>1)
+    		this.additionalUrls = new ArrayList<URL>(urls.subList(1, urls.size()));
+    }
+    
     @Override
     public void start(BuildableItem project, boolean newInstance) {
     	super.start(project, newInstance);
+    	//Hudson starting or reloading the job, the URLs may have been polled just before
+    	warmingUp = !newInstance;
+    	getDescriptor().watch(this);
     	if(StringUtils.isEmpty(spec)) {
     		try {
 	    		//Get the default confSpec from descriptor if any
 	    		if(!StringUtils.isEmpty(getDescriptor().defaultConfSpec)) 
-	    			this.tabs = CronTabList.create(getDescriptor().defaultConfSpec); 	
+	    			this.tabs = ScheduleCache.getCronTabList(getDescriptor().defaultConfSpec); 	
 	    		else //This use case will be applied to existing jobs that didn't have a schedule and no default value is available
 	    			//New jobs are enforced to have a schedule  
-	    			this.tabs = CronTabList.create("* * * * *");
+	    			this.tabs = ScheduleCache.getCronTabList("* * * * *");
 	    	} catch (RecognitionException e) {
 		        	throw new RuntimeException("Bug! couldn't schedule poll");
 			}
@@ -85,60 +142,501 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
 		}
     }
 
-    public static final Logger LOGGER = Logger.getLogger(UrlChangeTrigger.class.getName());
-
-    private File getFingerprintFile() {
-    	return new File(job.getRootDir(), "url-change-trigger-oldmd5");
+    /**
+     * Field initializers don't run when the trigger is read from the job configuration.
+     */
+    @Override
+    protected Object readResolve() throws ObjectStreamException {
+    	polling = new AtomicBoolean();
+    	adaptiveInterval = new AdaptiveInterval();
+    	debouncer = new ChangeDebouncer();
+    	verifications = new ConcurrentLinkedQueue<Verification>();
+    	return super.readResolve();
     }
+    
+    /**
+     * Builds the changes still waiting for their content to settle, they would be lost otherwise:
+     * their fingerprints are already stored.
+     */
+    @Override
+    public void stop() {
+    	//Nobody will verify them, their announcements must not stay pending
+    	Verification verification;
+    	while ((verification = verifications.poll())!=null)
+    		verification.done.run();
+    	getDescriptor().unwatch(this);
+    	List<UrlChangeCause.Change> changes = debouncer.drain();
+    	if (!changes.isEmpty())
+    		job.scheduleBuild(new UrlChangeCause(sortChanges(changes), timeout, quietPeriod));
+    	super.stop();
+    }
+
+    public static final Logger LOGGER = Logger.getLogger(UrlChangeTrigger.class.getName());
 
+    /**
+     * Called by Hudson's cron thread, hands the actual polls over to the {@link PollExecutor}.
+     * Every URL is fetched by its own task so the poll takes as long as the slowest URL,
+     * the last task to finish schedules one build for all the URLs that changed.
+     * Each task is delayed by the splay of its URL, see {@link #getSplay(String, URL, long)}.
+     * On the first tick after Hudson started, the URLs polled shortly before the restart are
+     * skipped and the overdue ones are spread over the warm-up period, see {@link #warmUp(List, long)}.
+     * A trigger whose previous poll, or a verification, is still running skips this tick.
+     */
     @Override
     public void run() {
-    	InputStream is=null;
+    	if (!polling.compareAndSet(false, true)) {
+    		LOGGER.log(Level.FINE, "Previous poll of {0} for job {1} still running, skipping", new Object[]{url, job.getDisplayName()});
+    		return;
+    	}
+    	final long tick = System.currentTimeMillis();
+    	boolean warmUp = warmingUp;
+    	warmingUp = false;
+    	List<URL> urls = warmUp?warmUp(getDueUrls(tick), tick):getDueUrls(tick);
+    	long splayWindow = warmUp?Math.max(getSplayWindow(), getDescriptor().getWarmUpPeriod()*60000L):getSplayWindow();
+    	pollUrls(urls, tick, 0, splayWindow, Collections.<Runnable>emptyList());
+    }
+    
+    /**
+     * Hands the polls of the URLs over to the {@link PollExecutor}. The caller holds the polling
+     * guard, the last task to finish schedules the build and releases the guard.
+     * 
+     * @param notBefore the fetches must start after this, 0 to share any fresh fetch
+     * @param done run once all the polls are over
+     */
+    private void pollUrls(final List<URL> urls, final long tick, final long notBefore, long splayWindow, final List<Runnable> done) {
+    	if (urls.isEmpty()) {
+    		donePolling(done);
+    		return;
+    	}
+    	final Set<URL> changed = Collections.synchronizedSet(new LinkedHashSet<URL>());
+    	final AtomicInteger remaining = new AtomicInteger(urls.size());
+    	final Runnable polled = new Runnable() {
+    		public void run() {
+    			if (remaining.decrementAndGet()==0) {
+    				try {
+    					scheduleBuild(urls, changed);
+    				} finally {
+    					donePolling(done);
+    				}
+    			}
+    		}
+    	};
+    	for (final URL u : urls) {
+	    	getDescriptor().getPollExecutor().submit(new Runnable() {
+	    		public void run() {
+	    			pollAndRecord(u, tick, notBefore, changed, polled);
+	    		}
+	    	}, getSplay(job.getFullName(), u, splayWindow));
+    	}
+    }
+    
+    private void donePolling(List<Runnable> done) {
+    	polling.set(false);
+    	for (Runnable r : done)
+    		r.run();
+    	startVerifications();
+    }
+    
+    /**
+     * Polls one of the URLs after a server announced it changed, and starts a build if it did.
+     * The fetch is not shared with fetches started before the announcement. The verification
+     * takes the same guard as {@link #run()}, so it waits for a poll in progress instead of
+     * racing it to schedule a build for the same change.
+     * 
+     * @param notifiedAt when the change was announced
+     * @param done run once the URL was polled
+     */
+    void verify(URL u, long notifiedAt, Runnable done) {
+    	verifications.add(new Verification(u, notifiedAt, done));
+    	startVerifications();
+    }
+    
+    /**
+     * Starts the pending verifications unless a poll is running, the poll starts them when it is over.
+     * All the verifications pending are polled together. URLs whose circuit is open are not polled,
+     * announcements don't get past the backoff of a failing URL.
+     */
+    private void startVerifications() {
+    	if (verifications.isEmpty() || !polling.compareAndSet(false, true))
+    		return;
+    	CircuitBreaker breaker = getDescriptor().getCircuitBreaker();
+    	long now = System.currentTimeMillis();
+    	List<URL> urls = new ArrayList<URL>();
+    	List<URL> suspended = new ArrayList<URL>();
+    	List<Runnable> done = new ArrayList<Runnable>();
+    	long notBefore = 0;
+    	Verification verification;
+    	while ((verification = verifications.poll())!=null) {
+    		//The callbacks of the skipped URLs still run once the polls are over
+    		done.add(verification.done);
+    		notBefore = Math.max(notBefore, verification.notifiedAt);
+    		if (urls.contains(verification.url) || suspended.contains(verification.url))
+    			continue;
+    		if (breaker.allowRequest(verification.url, now)) {
+    			urls.add(verification.url);
+    		} else {
+    			LOGGER.log(Level.FINEST, "Polls of {0} suspended, ignoring the announced change", verification.url);
+    			suspended.add(verification.url);
+    		}
+    	}
+    	pollUrls(urls, notBefore, notBefore, 0, done);
+    }
+    
+    private static final class Verification {
+    	final URL url;
+    	final long notifiedAt;
+    	final Runnable done;
+    	
+    	Verification(URL url, long notifiedAt, Runnable done) {
+    		this.url = url;
+    		this.notifiedAt = notifiedAt;
+    		this.done = done;
+    	}
+    }
+    
+    /**
+     * Polls one of the URLs and records the outcome with the circuit breaker and the adaptive interval.
+     * Returns once the fetch is started or shared, the outcome is recorded by the {@link PollExecutor}
+     * once the fetch is over.
+     * 
+     * @param notBefore fetches started before this time are not shared, 0 to share any fresh fetch
+     * @param changed the URL is added to it if its content changed
+     * @param done run once the outcome is recorded, whatever it is
+     */
+    private void pollAndRecord(final URL u, final long tick, long notBefore, final Set<URL> changed, final Runnable done) {
+    	final PollMetrics metrics = getMetrics();
+    	final long start = System.nanoTime();
+    	boolean started = false;
     	try {
-        	is = getInputStream(timeout*1000);
-	        String currentMd5 = Util.getDigestOf(is);
-            if(currentMd5!=null) {
-	            String oldMd5;
-	            File file = getFingerprintFile();
-	            if (!file.exists()) {
-	                oldMd5 = "null";
-	            } else {
-	                oldMd5 = new FilePath(file).readToString().trim();
-	            }
-	            if (!currentMd5.equalsIgnoreCase(oldMd5)) {
-	                LOGGER.log(Level.FINE,
-	                        "Differences found in the file {0}. >{1}< != >{2}<",
-	                        new Object[]{
-	                                url, oldMd5, currentMd5,
-	                        });
+    		final File dir = getFingerprintDir(u);
+    		long io = System.nanoTime();
+    		final UrlFingerprint oldFingerprint = getDescriptor().getFingerprintCache().get(dir);
+    		metrics.time(PollMetrics.Phase.FINGERPRINT_IO, System.nanoTime() - io);
+    		getDescriptor().poll(createPollRequest(u, metrics), oldFingerprint, notBefore, new UrlPollRegistry.Callback() {
+    			public void completed(UrlFingerprint newFingerprint) {
+    				try {
+    					boolean urlChanged = record(u, dir, oldFingerprint, newFingerprint, metrics);
+    					if (urlChanged) {
+    						metrics.changed();
+    						changed.add(u);
+    					}
+    					getDescriptor().getCircuitBreaker().success(u);
+    					adaptiveInterval.polled(u, tick, urlChanged);
+    					getDescriptor().getPollTimes().polled(job.getFullName(), u, tick);
+    				} catch (IOException e) {
+    					pollFailed(u, e);
+    				} finally {
+    					polled(metrics, start);
+    					done.run();
+    				}
+    			}
+    			
+    			public void failed(IOException e) {
+    				try {
+    					pollFailed(u, e);
+    				} finally {
+    					polled(metrics, start);
+    					done.run();
+    				}
+    			}
+    		});
+    		started = true;
+    	} catch (IOException e) {
+    		pollFailed(u, e);
+    	} finally {
+    		if (!started) {
+    			polled(metrics, start);
+    			done.run();
+    		}
+    	}
+    }
+    
+    private static void polled(PollMetrics metrics, long start) {
+    	metrics.polled();
+    	metrics.time(PollMetrics.Phase.TOTAL, System.nanoTime() - start);
+    }
+    
+    /**
+     * Returns the URLs to poll on this tick. In adaptive mode the URLs whose content
+     * has been stable for a while are skipped until their stretched interval is over.
+     * URLs that keep failing are skipped while their circuit is open.
+     * When the servers announce their changes the schedule is only a safety net,
+     * the URLs are polled once per safety net interval.
+     */
+    List<URL> getDueUrls(long now) {
+    	long baseInterval = adaptive||pushNotifications?getBaseInterval():0;
+    	long maxInterval = pushNotifications?baseInterval:getDescriptor().getMaxAdaptiveInterval()*60000L;
+    	CircuitBreaker breaker = getDescriptor().getCircuitBreaker();
+    	List<URL> due = new ArrayList<URL>();
+    	for (URL u : getUrls()) {
+    		if ((adaptive || pushNotifications) && !adaptiveInterval.isDue(u, now, baseInterval, maxInterval)) {
+    			LOGGER.log(Level.FINEST, "Content of {0} stable, next poll in {1} ms", 
+    					new Object[]{u, adaptiveInterval.getInterval(u, now, baseInterval, maxInterval)});
+    		} else if (!breaker.allowRequest(u, now)) {
+    			//Checked last, a URL allowed through a half open circuit must be polled
+    			LOGGER.log(Level.FINEST, "Polls of {0} suspended", u);
+    		} else {
+    			due.add(u);
+    		}
+    	}
+    	return due;
+    }
+    
+    /**
+     * @return the shortest time between two polls of a URL: the safety net interval when the servers
+     * announce their changes, the interval of the schedule otherwise
+     */
+    long getBaseInterval() {
+    	if (pushNotifications)
+    		return Math.max(getDescriptor().getSafetyNetInterval()*60000L, getDescriptor().getInterval(getEffectiveConfSpec()));
+    	if (adaptive)
+    		return getDescriptor().getAdaptiveBaseInterval(getEffectiveConfSpec());
+    	return getDescriptor().getInterval(getEffectiveConfSpec());
+    }
+    
+    /**
+     * Filters the URLs due on the first tick after Hudson started. A URL last polled less than
+     * its interval before the restart is skipped and polled on a later tick, as if Hudson had
+     * kept running. The adaptive interval starts over from the time of that last poll.
+     * 
+     * @param due the URLs due on this tick
+     * @return the URLs that are overdue or were never polled, {@link #run()} spreads them over the warm-up period
+     */
+    List<URL> warmUp(List<URL> due, long now) {
+    	PollTimes times = getDescriptor().getPollTimes();
+    	long interval = getBaseInterval();
+    	List<URL> overdue = new ArrayList<URL>();
+    	for (URL u : due) {
+    		Long lastPoll = times.get(job.getFullName(), u);
+    		if (lastPoll!=null && lastPoll<=now)
+    			adaptiveInterval.polled(u, lastPoll, false);
+    		if (lastPoll!=null && lastPoll<=now && now - lastPoll + AdaptiveInterval.TOLERANCE < interval) {
+    			LOGGER.log(Level.FINE, "{0} was polled at {1} before Hudson started, skipping",
+    					new Object[]{u, new Date(lastPoll)});
+    		} else {
+    			overdue.add(u);
+    		}
+    	}
+    	return overdue;
+    }
+    
+    /**
+     * Records a failed poll. Only the failures until the circuit of the URL opens
+     * are logged as warnings, the probes that follow are logged at FINE.
+     */
+    private void pollFailed(URL u, IOException e) {
+    	getMetrics().failed(e);
+    	CircuitBreaker breaker = getDescriptor().getCircuitBreaker();
+    	//Triggers sharing the fetch all get the same exception, it is counted once
+    	breaker.failure(u, System.currentTimeMillis(), e);
+    	CircuitBreaker.Status status = breaker.getStatus(u);
+    	int threshold = getDescriptor().getFailureThreshold();
+    	Level level = status.getFailures()<=threshold?Level.WARNING:Level.FINE;
+    	if (e instanceof SocketTimeoutException)
+    		LOGGER.log(level, "*** READ TIMEOUT: Job {0} processing URL {1} with {2} seconds timeout.\n {3}", new Object[]{job.getDisplayName(), u, timeout, e});
+    	else
+    		LOGGER.log(level, "*** I/O Exception: Job {0} processing URL {1} with {2} seconds timeout.\n {3}  ", new Object[]{job.getDisplayName(), u, timeout, e});
+    	if (status.getFailures()==threshold && status.getState()==CircuitBreaker.State.OPEN)
+    		LOGGER.log(Level.WARNING, "Suspending polls of {0} after {1} consecutive failures, next attempt at {2}",
+    				new Object[]{u, status.getFailures(), status.getRetryAt()});
+    }
+    
+    /**
+     * Returns the window the polls of this trigger are spread over, see {@link #getSplayWindow(long, long, long)}.
+     */
+    long getSplayWindow() {
+    	return getSplayWindow(getDescriptor().getSplay()*1000L, getDescriptor().getInterval(getEffectiveConfSpec()), timeout*1000L);
+    }
+    
+    /**
+     * Returns the window the polls of a schedule are spread over: the splay set in the
+     * Global Configuration, but short enough for a delayed poll to complete before the next tick.
+     * The timeout never shrinks the window below half the period, with the default schedule and
+     * timeout a poll delayed by more than the period minus its timeout may still run into the
+     * next tick, which the trigger then skips.
+     * 
+     * @param splay splay set in the Global Configuration, in milliseconds
+     * @param period interval of the schedule, in milliseconds
+     * @param timeout timeout of the job, in milliseconds
+     */
+    static long getSplayWindow(long splay, long period, long timeout) {
+    	if (splay<=0)
+    		return 0;
+    	return Math.min(splay, Math.max(period - timeout, period/2));
+    }
+    
+    /**
+     * Returns how long the poll of a URL is delayed after the cron tick.
+     * The delay is derived from the job name and the URL, so it stays the same from one
+     * tick to the next and across restarts, while different triggers get different delays.
+     * 
+     * @param window the delay is below this, in milliseconds
+     */
+    static long getSplay(String jobName, URL url, long window) {
+    	if (window<=0)
+    		return 0;
+    	String hash = Util.getDigestOf(jobName + '\n' + url.toExternalForm());
+    	return Long.parseLong(hash.substring(0, 12), 16) % window;
+    }
+    
+    /**
+     * @return the schedule the trigger runs on, {@link #start(BuildableItem, boolean)} falls back
+     * to the default schedule when the job has none
+     */
+    String getEffectiveConfSpec() {
+    	if (!StringUtils.isEmpty(spec))
+    		return spec;
+    	if (!StringUtils.isEmpty(getDescriptor().defaultConfSpec))
+    		return getDescriptor().defaultConfSpec;
+    	return "* * * * *";
+    }
+    
+    private void scheduleBuild(List<URL> urls, Set<URL> changed) {
+    	if (changed.isEmpty())
+    		return;
+    	if (quietPeriod>0) {
+    		if (debouncer.arm())
+    			awaitQuietPeriod(quietPeriod*1000L);
+    		return;
+    	}
+    	//Report the URLs in the order they were configured, not in the order the fetches completed
+    	List<URL> changedUrls = new ArrayList<URL>();
+    	for (URL u : urls) {
+    		if (changed.contains(u))
+    			changedUrls.add(u);
+    	}
+    	job.scheduleBuild(new UrlChangeCause(changedUrls, timeout));
+    }
+    
+    /**
+     * Starts one build for all the changes seen so far once no change has been seen for the
+     * quiet period. Every change seen meanwhile pushes the build back.
+     */
+    private void awaitQuietPeriod(long delay) {
+    	getDescriptor().getPollExecutor().submit(new Runnable() {
+    		public void run() {
+    			long quiet = quietPeriod*1000L;
+    			long now = System.currentTimeMillis();
+    			List<UrlChangeCause.Change> changes = debouncer.settle(now, quiet);
+    			if (changes==null) {
+    				awaitQuietPeriod(debouncer.getRemaining(now, quiet));
+    			} else if (!changes.isEmpty()) {
+    				LOGGER.log(Level.FINE, "Content of job {0} settled: {1}", new Object[]{job.getDisplayName(), changes});
+    				job.scheduleBuild(new UrlChangeCause(sortChanges(changes), timeout, quietPeriod));
+    			} else {
+    				LOGGER.log(Level.FINE, "Content of job {0} settled where it was before the changes, not building", job.getDisplayName());
+    			}
+    		}
+    	}, delay);
+    }
+    
+    /**
+     * @return the changes in the order the URLs are configured, not in the order they were seen
+     */
+    private List<UrlChangeCause.Change> sortChanges(List<UrlChangeCause.Change> changes) {
+    	List<UrlChangeCause.Change> sorted = new ArrayList<UrlChangeCause.Change>();
+    	for (URL u : getUrls()) {
+    		for (UrlChangeCause.Change change : changes) {
+    			if (change.getUrl().toExternalForm().equals(u.toExternalForm()))
+    				sorted.add(change);
+    		}
+    	}
+    	//URLs removed from the configuration meanwhile still caused the build
+    	for (UrlChangeCause.Change change : changes) {
+    		if (!sorted.contains(change))
+    			sorted.add(change);
+    	}
+    	return sorted;
+    }
+    
+    private PollRequest createPollRequest(URL url, PollMetrics metrics) {
+    	return new PollRequest(url, timeout*1000, getDescriptor().getDigestAlgorithm())
+    			.selector(getContentSelector())
+    			.headProbe(headProbe)
+    			.ranges(getParsedByteRanges())
+    			.maxBytes(getDescriptor().getMaxContentSize()*1024L*1024L)
+    			.compression(getDescriptor().isCompression())
+    			.agent(agentLabel)
+    			.metrics(metrics);
+    }
+    
+    /**
+     * Records the new fingerprint of one of the URLs.
+     * 
+     * @return true if the content of the URL changed
+     */
+    private boolean record(URL url, File dir, UrlFingerprint oldFingerprint, UrlFingerprint newFingerprint, PollMetrics metrics) throws IOException {
+    	String currentMd5 = newFingerprint.getDigest();
+    	if(currentMd5!=null) {
+    		String oldMd5 = oldFingerprint.getDigest()!=null?oldFingerprint.getDigest():"null";
+    		if (oldFingerprint.getDigest()!=null && oldFingerprint.getAlgorithm()!=newFingerprint.getAlgorithm()) {
+    			//Digest algorithm was changed in the global configuration, the fingerprints can't be compared
+    			LOGGER.log(Level.INFO, "Fingerprint of {0} for job {1} migrated from {2} to {3}",
+    					new Object[]{url, job.getDisplayName(), oldFingerprint.getAlgorithm(), newFingerprint.getAlgorithm()});
+    			putFingerprint(dir, newFingerprint, metrics);
+    		} else if (!currentMd5.equalsIgnoreCase(oldMd5)) {
+    		    LOGGER.log(Level.FINE,
+    		            "Differences found in the file {0}. >{1}< != >{2}<",
+    		            new Object[]{
+    		                    url, oldMd5, currentMd5,
+    		            });
 	
-	                FileUtils.writeStringToFile(file, currentMd5);
-	                job.scheduleBuild(new UrlChangeCause(url, timeout));
-	            }
-            }
-       } catch (SocketTimeoutException e) {
-    	  LOGGER.log(Level.WARNING, "*** READ TIMEOUT: Job {0} processing URL {1} with {2} seconds timeout.\n {3}", new Object[]{job.getDisplayName(), url, timeout, e});
-    	  throw new RuntimeException(e);
-       } catch (IOException e) {
-     	   LOGGER.log(Level.WARNING, "*** I/O Exception: Job {0} processing URL {1} with {2} seconds timeout.\n {3}  ", new Object[]{job.getDisplayName(), url, timeout, e});
-           throw new RuntimeException(e);
- 	   } finally {
- 		   if(is!=null) {
- 			   try {
- 				   is.close();
- 			  } catch (IOException e) {
- 	 			  throw new RuntimeException(e);
- 	 		   }
- 		   }
-	   }
-        
+    		    putFingerprint(dir, newFingerprint, metrics);
+    		    if (recordChange(dir, oldFingerprint, newFingerprint, metrics)) {
+    		    	LOGGER.log(Level.FINE, "Content of {0} for job {1} returned to {2} seen within the last {3} minutes, ignoring",
+    		    			new Object[]{url, job.getDisplayName(), currentMd5, flipFlopWindow});
+    		    	return false;
+    		    }
+    		    if (quietPeriod>0)
+    		    	debouncer.changed(url, oldFingerprint.getDigest(), currentMd5, System.currentTimeMillis());
+    		    return true;
+    		} else if (!newFingerprint.sameValidators(oldFingerprint)) {
+    			//Same content but the server handed out new validators, keep them for the next poll
+    			putFingerprint(dir, newFingerprint, metrics);
+    		}
+    	}
+    	return false;
+    }
+    
+    /**
+     * Adds the new content to the history of the URL.
+     * 
+     * @return true if the change must be ignored: the URL had the same content within the flip-flop window
+     */
+    private synchronized boolean recordChange(File dir, UrlFingerprint oldFingerprint, UrlFingerprint newFingerprint, PollMetrics metrics) throws IOException {
+    	long now = System.currentTimeMillis();
+    	long io = System.nanoTime();
+    	FingerprintCache fingerprints = getDescriptor().getFingerprintCache();
+    	FingerprintHistory history = fingerprints.getHistory(dir);
+    	if (history.isEmpty() && oldFingerprint.getDigest()!=null) {
+    		//Recorded before the history was kept, its time is unknown
+    		history.add(oldFingerprint.getDigest(), 0);
+    	}
+    	boolean flipFlop = flipFlopWindow>0 && history.seenWithin(newFingerprint.getDigest(), now, flipFlopWindow*60000L);
+    	history.add(newFingerprint.getDigest(), now);
+    	fingerprints.putHistory(dir, history);
+    	metrics.time(PollMetrics.Phase.FINGERPRINT_IO, System.nanoTime() - io);
+    	return flipFlop;
+    }
+    
+    private void putFingerprint(File dir, UrlFingerprint fingerprint, PollMetrics metrics) throws IOException {
+    	long io = System.nanoTime();
+    	getDescriptor().getFingerprintCache().put(dir, fingerprint);
+    	metrics.time(PollMetrics.Phase.FINGERPRINT_IO, System.nanoTime() - io);
+    }
+    
+    /**
+     * Returns the directory holding the fingerprint of one of the URLs.
+     * The first URL uses the job directory, like triggers watching a single URL always did.
+     */
+    File getFingerprintDir(URL u) {
+    	if (u.toExternalForm().equals(url.toExternalForm()))
+    		return job.getRootDir();
+    	return new File(new File(job.getRootDir(), URL_FINGERPRINTS_DIR), Util.getDigestOf(u.toExternalForm()));
     }
     
     public InputStream getInputStream(int timeout) throws SocketTimeoutException, IOException {
-    	URLConnection con = url.openConnection();
-    	con.setConnectTimeout(timeout);
-        con.setReadTimeout(timeout);
-        return con.getInputStream();
+    	return new PollRequest(url, timeout).open("GET", null).getBody();
     }
     
     @Override
@@ -146,10 +644,43 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
         return (DescriptorImpl)super.getDescriptor();
     }
     
+    @Override
+    public Collection<? extends Action> getProjectActions() {
+    	return Collections.singleton(new UrlChangeTriggerAction(this));
+    }
+    
+    /**
+     * @return the metrics of the polls of this trigger since Hudson started,
+     * they are added to the metrics of the plugin too
+     */
+    public synchronized PollMetrics getMetrics() {
+    	if (metrics==null)
+    		metrics = new PollMetrics(getDescriptor().getMetrics());
+    	return metrics;
+    }
+    
     public URL getUrl() {
         return url;
     }
     
+    /**
+     * @return all the URLs watched by this trigger, the first one is {@link #getUrl()}
+     */
+    public List<URL> getUrls() {
+    	List<URL> urls = new ArrayList<URL>();
+    	urls.add(url);
+    	if (additionalUrls!=null)
+    		urls.addAll(additionalUrls);
+    	return urls;
+    }
+    
+    /**
+     * @return the URLs one per line, as entered in the job configuration
+     */
+    public String getUrlList() {
+    	return StringUtils.join(getUrls(), "\n");
+    }
+    
     public int getTimeout() {
     	return timeout;
     }
@@ -157,6 +688,120 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
     public String getConfSpec() {
     	return spec;
     }
+    
+    public String getSelectorType() {
+    	return selectorType;
+    }
+    
+    public String getSelector() {
+    	return selector;
+    }
+    
+    /**
+     * Sets the part of the content that is fingerprinted.
+     * 
+     * @throws IllegalArgumentException if the expression is invalid for the type
+     */
+    void setSelector(String selectorType, String selector) {
+    	this.contentSelector = ContentSelector.create(selectorType, selector);
+    	this.selectorType = contentSelector!=null?contentSelector.getType().name():null;
+    	this.selector = contentSelector!=null?contentSelector.getExpression():null;
+    }
+    
+    public boolean isHeadProbe() {
+    	return headProbe;
+    }
+    
+    void setHeadProbe(boolean headProbe) {
+    	this.headProbe = headProbe;
+    }
+    
+    public String getByteRanges() {
+    	return byteRanges;
+    }
+    
+    /**
+     * Only fetches the given ranges of the content, null or blank for the whole content.
+     * 
+     * @throws IllegalArgumentException if the ranges are invalid
+     */
+    void setByteRanges(String byteRanges) {
+    	this.parsedByteRanges = ByteRanges.parse(byteRanges);
+    	this.byteRanges = parsedByteRanges!=null?parsedByteRanges.toString():null;
+    }
+    
+    ByteRanges getParsedByteRanges() {
+    	if (parsedByteRanges==null && byteRanges!=null) {
+    		try {
+    			parsedByteRanges = ByteRanges.parse(byteRanges);
+    		} catch (IllegalArgumentException e) {
+    			LOGGER.log(Level.WARNING, "Ignoring invalid byte ranges {0} of job {1}: {2}", new Object[]{byteRanges, job.getDisplayName(), e.getMessage()});
+    		}
+    	}
+    	return parsedByteRanges;
+    }
+    
+    public boolean isAdaptive() {
+    	return adaptive;
+    }
+    
+    void setAdaptive(boolean adaptive) {
+    	this.adaptive = adaptive;
+    }
+    
+    public boolean isPushNotifications() {
+    	return pushNotifications;
+    }
+    
+    void setPushNotifications(boolean pushNotifications) {
+    	this.pushNotifications = pushNotifications;
+    }
+    
+    public int getFlipFlopWindow() {
+    	return flipFlopWindow;
+    }
+    
+    /**
+     * @param flipFlopWindow a change back to a content the URL had within this many minutes
+     * doesn't start a build, 0 to start a build on every change
+     */
+    void setFlipFlopWindow(int flipFlopWindow) {
+    	this.flipFlopWindow = Math.max(0, flipFlopWindow);
+    }
+    
+    public String getAgentLabel() {
+    	return agentLabel;
+    }
+    
+    /**
+     * @param agentLabel label of the agents fetching the URLs, null or blank to fetch them on the master
+     */
+    void setAgentLabel(String agentLabel) {
+    	this.agentLabel = StringUtils.isBlank(agentLabel)?null:agentLabel.trim();
+    }
+    
+    public int getQuietPeriod() {
+    	return quietPeriod;
+    }
+    
+    /**
+     * @param quietPeriod how long the content must stay unchanged before a build starts,
+     * in seconds, 0 to start a build on every change
+     */
+    void setQuietPeriod(int quietPeriod) {
+    	this.quietPeriod = Math.max(0, quietPeriod);
+    }
+    
+    ContentSelector getContentSelector() {
+    	if (contentSelector==null && selectorType!=null) {
+    		try {
+    			contentSelector = ContentSelector.create(selectorType, selector);
+    		} catch (IllegalArgumentException e) {
+    			LOGGER.log(Level.WARNING, "Ignoring invalid selector {0} of job {1}: {2}", new Object[]{selector, job.getDisplayName(), e.getMessage()});
+    		}
+    	}
+    	return contentSelector;
+    }
 
     @Extension
     public static final class DescriptorImpl extends TriggerDescriptor {
@@ -165,6 +810,50 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
     	String minConfSpec;
     	int defaultTimeout;
     	int maxTimeout;
+    	int pollFreshness = DEFAULT_POLL_FRESHNESS; //in seconds
+    	int pollThreads = DEFAULT_POLL_THREADS;
+    	String digestAlgorithm = DigestAlgorithm.MD5.getId();
+    	String fsyncPolicy = FingerprintCache.FsyncPolicy.BATCH.name();
+    	String fingerprintStore = FingerprintStore.Type.FILES.name();
+    	String httpTransport = HttpTransport.Type.URLCONNECTION.name();
+    	int maxAdaptiveInterval = DEFAULT_MAX_ADAPTIVE_INTERVAL; //in minutes
+    	int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    	int maxBackoff = DEFAULT_MAX_BACKOFF; //in minutes
+    	int splay; //in seconds
+    	int maxConnectionsPerHost; //0 for no limit
+    	int maxRequestsPerSecond; //per host, 0 for no limit
+    	int maxContentSize; //in MB, 0 for no limit
+    	boolean compression = true;
+    	int safetyNetInterval = DEFAULT_SAFETY_NET_INTERVAL; //in minutes
+    	int warmUpPeriod = DEFAULT_WARM_UP_PERIOD; //in minutes
+    	
+    	/**
+    	 * Default freshness window: polls of the same URL fired within the same cron minute share one fetch.
+    	 */
+    	static final int DEFAULT_POLL_FRESHNESS = 30;
+    	
+    	static final int DEFAULT_POLL_THREADS = 10;
+    	
+    	static final int DEFAULT_MAX_ADAPTIVE_INTERVAL = 60;
+    	
+    	static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    	
+    	static final int DEFAULT_MAX_BACKOFF = 60;
+    	
+    	static final int DEFAULT_SAFETY_NET_INTERVAL = 60;
+    	
+    	static final int DEFAULT_WARM_UP_PERIOD = 5;
+    	
+    	private final transient UrlPollRegistry pollRegistry = new UrlPollRegistry();
+    	private transient PollExecutor pollExecutor;
+    	private transient FingerprintCache fingerprintCache;
+    	private transient CircuitBreaker circuitBreaker;
+    	private transient HostLimiter hostLimiter;
+    	private transient PollTimes pollTimes;
+    	private final transient PollMetrics metrics = new PollMetrics();
+    	private final transient ChangeNotifications notifications = new ChangeNotifications();
+    	/** Started triggers by the URLs they watch, see {@link #watch(UrlChangeTrigger)}. */
+    	private final transient ConcurrentMap<String, Set<UrlChangeTrigger>> watchers = new ConcurrentHashMap<String, Set<UrlChangeTrigger>>();
     	
     	public static final Logger LOGGER = Logger.getLogger(DescriptorImpl.class.getName());
     	
@@ -172,6 +861,12 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
             super(UrlChangeTrigger.class);
             //Load Global Configuration
             load();
+            hostLimiter = new HostLimiter(maxConnectionsPerHost, maxRequestsPerSecond);
+            pollExecutor = new PollExecutor(pollThreads>0?pollThreads:DEFAULT_POLL_THREADS, hostLimiter);
+            fingerprintCache = new FingerprintCache(getFsyncPolicy(), createFingerprintStore(getFingerprintStore()));
+            HttpTransport.configure(getHttpTransport());
+            circuitBreaker = new CircuitBreaker(getFailureThreshold(), getMaxBackoff()*60000L);
+            pollTimes = new PollTimes(new File(Hudson.getInstance().getRootDir(), PollTimes.POLL_TIMES_FILE));
         }
         
         @Override
@@ -182,10 +877,251 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
         	minConfSpec = formData.getString("minConfSpec");
         	defaultConfSpec = formData.getString("defaultConfSpec");
         	validateAndResetConfSpecs();
+        	pollFreshness = getPollFreshness(formData);
+        	pollThreads = getPollThreads(formData);
+        	pollExecutor.setConcurrency(pollThreads);
+        	digestAlgorithm = getDigestAlgorithm(formData).getId();
+        	fsyncPolicy = getFsyncPolicy(formData).name();
+        	fingerprintCache.setPolicy(getFsyncPolicy());
+        	fingerprintStore = getFingerprintStore(formData).name();
+        	if (fingerprintCache.getStore().getType()!=getFingerprintStore())
+        		fingerprintCache.setStore(createFingerprintStore(getFingerprintStore()));
+        	httpTransport = getHttpTransport(formData).name();
+        	HttpTransport.configure(getHttpTransport());
+        	maxAdaptiveInterval = getMaxAdaptiveInterval(formData);
+        	failureThreshold = getPositiveInt(formData, "failureThreshold", DEFAULT_FAILURE_THRESHOLD);
+        	maxBackoff = getPositiveInt(formData, "maxBackoff", DEFAULT_MAX_BACKOFF);
+        	circuitBreaker.configure(getFailureThreshold(), getMaxBackoff()*60000L);
+        	splay = getSplay(formData);
+        	maxConnectionsPerHost = getLimit(formData, "maxConnectionsPerHost");
+        	maxRequestsPerSecond = getLimit(formData, "maxRequestsPerSecond");
+        	hostLimiter.configure(maxConnectionsPerHost, maxRequestsPerSecond);
+        	maxContentSize = getLimit(formData, "maxContentSize");
+        	compression = formData.optBoolean("compression");
+        	safetyNetInterval = getPositiveInt(formData, "safetyNetInterval", DEFAULT_SAFETY_NET_INTERVAL);
+        	warmUpPeriod = getPositiveInt(formData, "warmUpPeriod", DEFAULT_WARM_UP_PERIOD);
         	save();
         	return super.configure(req, formData);
         }
 
+        /**
+         * Fetches the URL described by the request, sharing the fetch with 
+         * other triggers watching the same URL within the freshness window.
+         * Only a new fetch waits for its host in the {@link HostLimiter}, the callback
+         * is run by the {@link PollExecutor} once the fetch is over.
+         */
+        void poll(final PollRequest request, UrlFingerprint known, long notBefore, final UrlPollRegistry.Callback callback) {
+        	long freshness = pollFreshness*1000L;
+        	pollRegistry.purge(freshness);
+        	pollRegistry.poll(request, known, freshness, notBefore, new Executor() {
+        		public void execute(Runnable fetch) {
+        			pollExecutor.submit(request.getUrl(), fetch);
+        		}
+        	}, new UrlPollRegistry.Callback() {
+        		//Off the thread of the fetch, which holds the permit of its host
+        		public void completed(final UrlFingerprint fingerprint) {
+        			pollExecutor.submit(new Runnable() {
+        				public void run() {
+        					callback.completed(fingerprint);
+        				}
+        			});
+        		}
+        		
+        		public void failed(final IOException e) {
+        			pollExecutor.submit(new Runnable() {
+        				public void run() {
+        					callback.failed(e);
+        				}
+        			});
+        		}
+        	});
+        }
+        
+        /**
+         * Verifies a URL a server announced a change of, for every job watching it.
+         * Announcements arriving while the URL is being verified are folded into a single
+         * verification that starts once the current one is over.
+         * 
+         * @return the number of jobs watching the URL
+         */
+        int notifyChange(URL url) {
+        	Set<UrlChangeTrigger> triggers = watchers.get(url.toExternalForm());
+        	if (triggers==null)
+        		return 0;
+        	List<UrlChangeTrigger> watching = new ArrayList<UrlChangeTrigger>(triggers);
+        	if (!watching.isEmpty() && notifications.notified(url))
+        		verify(url, watching);
+        	return watching.size();
+        }
+        
+        /**
+         * Indexes the started trigger by its URLs, so an announcement finds the jobs watching
+         * its URL without going through all the jobs.
+         */
+        synchronized void watch(UrlChangeTrigger trigger) {
+        	for (URL u : trigger.getUrls()) {
+        		if (u==null)
+        			continue;
+        		Set<UrlChangeTrigger> triggers = watchers.get(u.toExternalForm());
+        		if (triggers==null) {
+        			triggers = new CopyOnWriteArraySet<UrlChangeTrigger>();
+        			watchers.put(u.toExternalForm(), triggers);
+        		}
+        		triggers.add(trigger);
+        	}
+        }
+        
+        /**
+         * Removes the stopped trigger from the index of {@link #watch(UrlChangeTrigger)}.
+         */
+        synchronized void unwatch(UrlChangeTrigger trigger) {
+        	for (URL u : trigger.getUrls()) {
+        		if (u==null)
+        			continue;
+        		Set<UrlChangeTrigger> triggers = watchers.get(u.toExternalForm());
+        		if (triggers!=null && triggers.remove(trigger) && triggers.isEmpty())
+        			watchers.remove(u.toExternalForm());
+        	}
+        }
+        
+        private void verify(final URL url, final List<UrlChangeTrigger> watching) {
+        	final long notifiedAt = System.currentTimeMillis();
+        	final AtomicInteger remaining = new AtomicInteger(watching.size());
+        	for (final UrlChangeTrigger trigger : watching) {
+        		trigger.verify(url, notifiedAt, new Runnable() {
+        			public void run() {
+        				if (remaining.decrementAndGet()==0 && notifications.verified(url))
+        					verify(url, watching);
+        			}
+        		});
+        	}
+        }
+        
+        /**
+         * Opens the store, falling back to the files in the job directories if the journal can't be opened.
+         */
+        private static FingerprintStore createFingerprintStore(FingerprintStore.Type type) {
+        	try {
+        		return FingerprintStore.create(type, Hudson.getInstance().getRootDir());
+        	} catch (IOException e) {
+        		LOGGER.log(Level.WARNING, "Failed to open the fingerprint journal, keeping fingerprints in the job directories", e);
+        		return new FileFingerprintStore();
+        	}
+        }
+        
+        PollExecutor getPollExecutor() {
+        	return pollExecutor;
+        }
+        
+        FingerprintCache getFingerprintCache() {
+        	return fingerprintCache;
+        }
+        
+        PollTimes getPollTimes() {
+        	return pollTimes;
+        }
+        
+        CircuitBreaker getCircuitBreaker() {
+        	return circuitBreaker;
+        }
+        
+        HostLimiter getHostLimiter() {
+        	return hostLimiter;
+        }
+        
+        /**
+         * @return the metrics of all the polls since Hudson started
+         */
+        public PollMetrics getMetrics() {
+        	return metrics;
+        }
+        
+        /**
+         * @return the metrics of every job with a URL trigger, by job name
+         */
+        public SortedMap<String, PollMetrics> getJobMetrics() {
+        	SortedMap<String, PollMetrics> jobs = new TreeMap<String, PollMetrics>();
+        	for (Map.Entry<String, UrlChangeTrigger> job : getTriggers().entrySet())
+        		jobs.put(job.getKey(), job.getValue().getMetrics());
+        	return jobs;
+        }
+        
+        /**
+         * @return the URL trigger of every job that has one, by job name
+         */
+        static SortedMap<String, UrlChangeTrigger> getTriggers() {
+        	SortedMap<String, UrlChangeTrigger> triggers = new TreeMap<String, UrlChangeTrigger>();
+        	for (AbstractProject<?,?> project : Hudson.getInstance().getAllItems(AbstractProject.class)) {
+        		UrlChangeTrigger trigger = project.getTrigger(UrlChangeTrigger.class);
+        		if (trigger!=null)
+        			triggers.put(project.getFullName(), trigger);
+        	}
+        	return triggers;
+        }
+        
+        /**
+         * Projects the polls of all the jobs over the next hour, with the saved schedules and
+         * with the ones entered in the form, so their effect is known before they are saved.
+         */
+        public FormValidation doPreviewPollLoad(@QueryParameter String minConfSpec, @QueryParameter String defaultConfSpec) {
+        	Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        	List<PollLoadPlanner.Job> jobs = new ArrayList<PollLoadPlanner.Job>();
+        	for (Map.Entry<String, UrlChangeTrigger> job : getTriggers().entrySet()) {
+        		UrlChangeTrigger trigger = job.getValue();
+        		jobs.add(new PollLoadPlanner.Job(job.getKey(), trigger.getConfSpec(), trigger.getUrls(), trigger.getTimeout()));
+        	}
+        	long now = System.currentTimeMillis();
+        	//Observed poll latency, a second until polls have been measured
+        	PollMetrics.Histogram latency = metrics.getHistogram(PollMetrics.Phase.TOTAL);
+        	double pollSeconds = latency.getCount()>0?latency.getMeanMillis()/1000:1;
+        	PollLoadPlanner.Projection current;
+        	PollLoadPlanner.Projection preview;
+        	try {
+        		current = new PollLoadPlanner(this.minConfSpec, this.defaultConfSpec, splay).plan(jobs, now, pollSeconds);
+        	} catch (RecognitionException e) {
+        		return FormValidation.error("Saved schedules: "+e.getMessage());
+        	}
+        	try {
+        		preview = new PollLoadPlanner(fixNull(minConfSpec).trim(), fixNull(defaultConfSpec).trim(), splay).plan(jobs, now, pollSeconds);
+        	} catch (RecognitionException e) {
+        		return FormValidation.error(e.getMessage());
+        	}
+        	StringBuilder html = new StringBuilder();
+        	html.append("<table class='pane' style='width:auto'><tr><td class='pane-header'></td>")
+        		.append("<td class='pane-header'>Saved</td><td class='pane-header'>Preview</td></tr>");
+        	appendRow(html, "Jobs / URLs", current.getJobs()+" / "+current.getUrls(), preview.getJobs()+" / "+preview.getUrls());
+        	appendRow(html, "Jobs on the Default Schedule", current.getDefaultJobs(), preview.getDefaultJobs());
+        	appendRow(html, "Jobs more frequent than the Minimum Schedule", current.getFasterThanMinimum(), preview.getFasterThanMinimum());
+        	appendRow(html, "Polls per minute", String.format("%.1f", current.getPollsPerMinute()), String.format("%.1f", preview.getPollsPerMinute()));
+        	appendRow(html, "Polls in the busiest minute", current.getPeakMinutePolls(), preview.getPeakMinutePolls());
+        	appendRow(html, "Polls started in the busiest second", current.getPeakSecondPolls(), preview.getPeakSecondPolls());
+        	appendRow(html, "Concurrent polls at peak (est.)", current.getPeakConcurrency(), preview.getPeakConcurrency());
+        	html.append("</table>");
+        	if (preview.getPeakConcurrency()>pollThreads)
+        		html.append("Peak concurrency exceeds the ").append(pollThreads).append(" concurrent polls allowed, polls will wait in line.");
+        	return FormValidation.okWithMarkup(html.toString());
+        }
+        
+        private static void appendRow(StringBuilder html, String label, Object current, Object preview) {
+        	html.append("<tr><td class='pane'>").append(label).append("</td><td class='pane' style='text-align:right'>").append(current)
+        		.append("</td><td class='pane' style='text-align:right'>").append(preview).append("</td></tr>");
+        }
+        
+        /**
+         * Serves the metrics of the plugin and of every job as JSON, for monitoring systems.
+         */
+        public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        	Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        	JSONObject jobs = new JSONObject();
+        	for (Map.Entry<String, PollMetrics> job : getJobMetrics().entrySet())
+        		jobs.element(job.getKey(), job.getValue().toJSON());
+        	JSONObject json = new JSONObject();
+        	json.element("global", metrics.toJSON());
+        	json.element("jobs", jobs);
+        	rsp.setContentType("application/json;charset=UTF-8");
+        	rsp.getWriter().print(json.toString(2));
+        }
+        
         @Override
         public boolean isApplicable(Item item) {
             return true;
@@ -207,7 +1143,22 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
             int timeout = getTimeout(formData);
             String confSpec = getConfSpec(formData);
             try {
-            	return new UrlChangeTrigger(url, timeout, confSpec);
+            	UrlChangeTrigger trigger = new UrlChangeTrigger(parseUrls(url), timeout, confSpec);
+            	try {
+            		trigger.setByteRanges(formData.optString("byteRanges"));
+            	} catch (IllegalArgumentException e) {
+            		throw new FormException("Invalid Byte Ranges: " + e.getMessage(), e, "byteRanges");
+            	}
+            	trigger.setSelector(formData.optString("selectorType"), formData.optString("selector"));
+            	trigger.setHeadProbe(formData.optBoolean("headProbe"));
+            	trigger.setAdaptive(formData.optBoolean("adaptive"));
+            	trigger.setPushNotifications(formData.optBoolean("pushNotifications"));
+            	trigger.setQuietPeriod(getQuietPeriod(formData));
+            	trigger.setFlipFlopWindow(getFlipFlopWindow(formData));
+            	trigger.setAgentLabel(formData.optString("agentLabel"));
+            	return trigger;
+            } catch (IllegalArgumentException e) {
+            	throw new FormException("Invalid Selector: " + e.getMessage(), e, "selector");
             } catch (MalformedURLException e) {
                 throw new FormException("Invalid URL: " + url, e, "");
             } catch (RecognitionException e) {
@@ -220,20 +1171,39 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
          */
         public FormValidation doCheck(@QueryParameter("urlChangeTrigger.url") String url) {
         	try {
-                new URL(fixNull(url));
+                parseUrls(url);
                 return FormValidation.ok();
             } catch (MalformedURLException e) {
                 return FormValidation.error(e.getMessage());
             }
         }
         
+        /**
+         * Parses the URLs of the job configuration, separated by new lines or spaces.
+         * Duplicates are dropped.
+         */
+        static List<URL> parseUrls(String value) throws MalformedURLException {
+        	Set<String> seen = new LinkedHashSet<String>();
+        	List<URL> urls = new ArrayList<URL>();
+        	for (String token : fixNull(value).trim().split("\\s+")) {
+        		if (token.length()==0)
+        			continue;
+        		URL url = new URL(token);
+        		if (seen.add(url.toExternalForm()))
+        			urls.add(url);
+        	}
+        	if (urls.isEmpty())
+        		throw new MalformedURLException("At least one URL is required");
+        	return urls;
+        }
+        
         /**
          * Performs syntax check.
          */
         public FormValidation doCheckConfSpec(@QueryParameter String value) {
         	try {
         		if(!StringUtils.isEmpty(value)) {
-	                String msg = CronTabList.create(value).checkSanity();
+	                String msg = ScheduleCache.getCronTabList(value).checkSanity();
 	                if (msg != null) {
 	                    return FormValidation.warning(msg);
 	                }
@@ -258,7 +1228,7 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
         public FormValidation doCheckDefaultConfSpec(@QueryParameter String value) {
         	try {
         		if(!StringUtils.isEmpty(value)) {
-	                String msg = CronTabList.create(value).checkSanity();
+	                String msg = ScheduleCache.getCronTabList(value).checkSanity();
 	                if (msg != null) {
 	                    return FormValidation.warning(msg);
 	                }
@@ -277,7 +1247,7 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
         public FormValidation doCheckMinConfSpec(@QueryParameter String value) {
         	try {
         		if(!StringUtils.isEmpty(value)) {
-	        		String msg = CronTabList.create(fixNull(value)).checkSanity();
+	        		String msg = ScheduleCache.getCronTabList(fixNull(value)).checkSanity();
 		            if (msg != null) {
 		            	return FormValidation.warning(msg);
 		            }
@@ -363,6 +1333,251 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
             return FormValidation.ok();
         }
         
+        /**
+         * Warns if the selected transport is not available on this JVM.
+         */
+        public FormValidation doCheckHttpTransport(@QueryParameter String value) {
+        	HttpTransport.Type type = HttpTransport.Type.fromName(value);
+        	if (type!=null && !type.isAvailable())
+        		return FormValidation.warning(type.getDisplayName()+" is not available on this JVM, URLConnection will be used.");
+        	return FormValidation.ok();
+        }
+        
+        /**
+         * Checks that the selector expression can be parsed.
+         */
+        public FormValidation doCheckSelector(@QueryParameter String value, @QueryParameter String selectorType) {
+        	if (StringUtils.isBlank(value) || ContentSelector.Type.fromName(selectorType)==null)
+        		return FormValidation.ok();
+        	try {
+        		ContentSelector.create(selectorType, value);
+        		return FormValidation.ok();
+        	} catch (IllegalArgumentException e) {
+        		return FormValidation.error(e.getMessage());
+        	}
+        }
+        
+        public ContentSelector.Type[] getSelectorTypes() {
+        	return ContentSelector.Type.values();
+        }
+        
+        /**
+         * Checks if the freshness submitted is an integer greater or equal to 0
+         */
+        public FormValidation doCheckPollFreshness(@QueryParameter String value) {
+        	if (!StringUtils.isEmpty(value)) {
+        		int freshness;
+        		try {
+        			freshness = Integer.parseInt(value);
+        		} catch (NumberFormatException e) {
+        			return FormValidation.error("Poll Freshness should be a number (in seconds).");
+        		}
+        		if(freshness<0)
+        			return FormValidation.error("Poll Freshness cannot be negative.");
+        	} else {
+        		return FormValidation.ok("Poll Freshness will be set to "+DEFAULT_POLL_FRESHNESS+" seconds if no value is added.");
+        	}
+        	return FormValidation.ok();
+        }
+        
+        /**
+         * Checks if the maximum adaptive interval submitted is an integer greater than 0
+         */
+        public FormValidation doCheckMaxAdaptiveInterval(@QueryParameter String value) {
+        	if (!StringUtils.isEmpty(value)) {
+        		int interval;
+        		try {
+        			interval = Integer.parseInt(value);
+        		} catch (NumberFormatException e) {
+        			return FormValidation.error("Maximum Adaptive Interval should be a number (in minutes).");
+        		}
+        		if(interval<=0)
+        			return FormValidation.error("Maximum Adaptive Interval should be greater than 0 (in minutes).");
+        	} else {
+        		return FormValidation.ok("Maximum Adaptive Interval will be set to "+DEFAULT_MAX_ADAPTIVE_INTERVAL+" minutes if no value is added.");
+        	}
+        	return FormValidation.ok();
+        }
+        
+        /**
+         * Checks if the splay submitted is an integer greater or equal to 0
+         */
+        public FormValidation doCheckSplay(@QueryParameter String value) {
+        	if (!StringUtils.isEmpty(value)) {
+        		int seconds;
+        		try {
+        			seconds = Integer.parseInt(value);
+        		} catch (NumberFormatException e) {
+        			return FormValidation.error("Splay should be a number (in seconds).");
+        		}
+        		if(seconds<0)
+        			return FormValidation.error("Splay cannot be negative.");
+        		long period = getInterval(!StringUtils.isEmpty(defaultConfSpec)?defaultConfSpec:"* * * * *");
+        		if(seconds*1000L>period/2)
+        			return FormValidation.warning("Polls on the default schedule are only spread over the first "+period/2000+" seconds of each period.");
+        	} else {
+        		return FormValidation.ok("Polls will start right at the scheduled time if no value is added.");
+        	}
+        	return FormValidation.ok();
+        }
+        
+        /**
+         * Checks if the quiet period submitted is an integer greater or equal to 0
+         */
+        public FormValidation doCheckQuietPeriod(@QueryParameter String value, @QueryParameter String confSpec) {
+        	if (!StringUtils.isEmpty(value)) {
+        		int seconds;
+        		try {
+        			seconds = Integer.parseInt(value);
+        		} catch (NumberFormatException e) {
+        			return FormValidation.error("Quiet Period should be a number (in seconds).");
+        		}
+        		if(seconds<0)
+        			return FormValidation.error("Quiet Period cannot be negative.");
+        		String schedule = StringUtils.isEmpty(confSpec)?defaultConfSpec:confSpec;
+        		if(seconds>0 && seconds*1000L<getInterval(schedule))
+        			return FormValidation.warning("Changes are only seen when the URLs are polled, a Quiet Period shorter than the interval of the Schedule delays builds without merging any changes.");
+        	} else {
+        		return FormValidation.ok("A build will start on every change if no value is added.");
+        	}
+        	return FormValidation.ok();
+        }
+        
+        /**
+         * Checks if the flip-flop window submitted is an integer greater or equal to 0
+         */
+        public FormValidation doCheckFlipFlopWindow(@QueryParameter String value) {
+        	if (!StringUtils.isEmpty(value)) {
+        		int minutes;
+        		try {
+        			minutes = Integer.parseInt(value);
+        		} catch (NumberFormatException e) {
+        			return FormValidation.error("Ignore Flip-Flops should be a number (in minutes).");
+        		}
+        		if(minutes<0)
+        			return FormValidation.error("Ignore Flip-Flops cannot be negative.");
+        	} else {
+        		return FormValidation.ok("A build will start on every change if no value is added.");
+        	}
+        	return FormValidation.ok();
+        }
+        
+        /**
+         * Warns if no agent has the label the URLs are to be fetched from.
+         */
+        public FormValidation doCheckAgentLabel(@QueryParameter String value) {
+        	if (StringUtils.isBlank(value))
+        		return FormValidation.ok("The URLs will be fetched on the master if no value is added.");
+        	Label label = Hudson.getInstance().getLabel(value.trim());
+        	if (label==null || label.getNodes().isEmpty())
+        		return FormValidation.warning("No agent has the label "+value.trim()+", polls will fail until one does.");
+        	if (label.isOffline())
+        		return FormValidation.warning("All the agents with the label "+value.trim()+" are offline, polls will fail until one is online.");
+        	return FormValidation.ok();
+        }
+        
+        public FormValidation doCheckMaxConnectionsPerHost(@QueryParameter String value) {
+        	return checkLimit(value, "Connections Per Host");
+        }
+        
+        public FormValidation doCheckMaxRequestsPerSecond(@QueryParameter String value) {
+        	return checkLimit(value, "Requests Per Second");
+        }
+        
+        public FormValidation doCheckMaxContentSize(@QueryParameter String value) {
+        	return checkLimit(value, "Maximum Content Size");
+        }
+        
+        /**
+         * Checks that the byte ranges can be parsed.
+         */
+        public FormValidation doCheckByteRanges(@QueryParameter String value) {
+        	try {
+        		ByteRanges.parse(value);
+        		return FormValidation.ok();
+        	} catch (IllegalArgumentException e) {
+        		return FormValidation.error(e.getMessage());
+        	}
+        }
+        
+        /**
+         * Checks if the limit submitted is an integer greater or equal to 0
+         */
+        private static FormValidation checkLimit(String value, String name) {
+        	if (!StringUtils.isEmpty(value)) {
+        		int limit;
+        		try {
+        			limit = Integer.parseInt(value);
+        		} catch (NumberFormatException e) {
+        			return FormValidation.error(name+" should be a number.");
+        		}
+        		if(limit<0)
+        			return FormValidation.error(name+" cannot be negative.");
+        		if(limit==0)
+        			return FormValidation.ok("No limit.");
+        	} else {
+        		return FormValidation.ok("No limit if no value is added.");
+        	}
+        	return FormValidation.ok();
+        }
+        
+        /**
+         * Checks if the number of failures submitted is an integer greater than 0
+         */
+        public FormValidation doCheckFailureThreshold(@QueryParameter String value) {
+        	return checkPositiveInt(value, "Failures Before Backoff", "", DEFAULT_FAILURE_THRESHOLD);
+        }
+        
+        /**
+         * Checks if the backoff submitted is an integer greater than 0
+         */
+        public FormValidation doCheckMaxBackoff(@QueryParameter String value) {
+        	return checkPositiveInt(value, "Maximum Backoff", " (in minutes)", DEFAULT_MAX_BACKOFF);
+        }
+        
+        public FormValidation doCheckSafetyNetInterval(@QueryParameter String value) {
+        	return checkPositiveInt(value, "Safety Net Interval", " (in minutes)", DEFAULT_SAFETY_NET_INTERVAL);
+        }
+        
+        public FormValidation doCheckWarmUpPeriod(@QueryParameter String value) {
+        	return checkPositiveInt(value, "Warm-up Period", " (in minutes)", DEFAULT_WARM_UP_PERIOD);
+        }
+        
+        private static FormValidation checkPositiveInt(String value, String name, String unit, int defaultValue) {
+        	if (!StringUtils.isEmpty(value)) {
+        		int number;
+        		try {
+        			number = Integer.parseInt(value);
+        		} catch (NumberFormatException e) {
+        			return FormValidation.error(name+" should be a number"+unit+".");
+        		}
+        		if(number<=0)
+        			return FormValidation.error(name+" should be greater than 0"+unit+".");
+        	} else {
+        		return FormValidation.ok(name+" will be set to "+defaultValue+" if no value is added.");
+        	}
+        	return FormValidation.ok();
+        }
+        
+        /**
+         * Checks if the number of poll threads submitted is an integer greater than 0
+         */
+        public FormValidation doCheckPollThreads(@QueryParameter String value) {
+        	if (!StringUtils.isEmpty(value)) {
+        		int threads;
+        		try {
+        			threads = Integer.parseInt(value);
+        		} catch (NumberFormatException e) {
+        			return FormValidation.error("Concurrent Polls should be a number.");
+        		}
+        		if(threads<=0)
+        			return FormValidation.error("Concurrent Polls should be greater than 0.");
+        	} else {
+        		return FormValidation.ok("Concurrent Polls will be set to "+DEFAULT_POLL_THREADS+" if no value is added.");
+        	}
+        	return FormValidation.ok();
+        }
+        
         private int getTimeout(JSONObject formData) throws FormException {
         	String time = formData.getString("timeout");
         	int timeout=0;
@@ -412,6 +1627,128 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
         	return 0;
         }
         
+        private int getPollFreshness(JSONObject formData) {
+        	String freshness = formData.optString("pollFreshness");
+        	if (!StringUtils.isEmpty(freshness)) {
+        		try {
+        			return Math.max(0, Integer.parseInt(freshness));
+        		} catch (NumberFormatException e) {
+        			//This shouldn't happen since we already validated the freshness
+        		}
+        	} 
+        	return DEFAULT_POLL_FRESHNESS;
+        }
+        
+        private int getPollThreads(JSONObject formData) {
+        	String threads = formData.optString("pollThreads");
+        	if (!StringUtils.isEmpty(threads)) {
+        		try {
+        			int value = Integer.parseInt(threads);
+        			if(value>0)
+        				return value;
+        		} catch (NumberFormatException e) {
+        			//This shouldn't happen since we already validated the number of threads
+        		}
+        	} 
+        	return DEFAULT_POLL_THREADS;
+        }
+        
+        private int getMaxAdaptiveInterval(JSONObject formData) {
+        	String interval = formData.optString("maxAdaptiveInterval");
+        	if (!StringUtils.isEmpty(interval)) {
+        		try {
+        			int value = Integer.parseInt(interval);
+        			if(value>0)
+        				return value;
+        		} catch (NumberFormatException e) {
+        			//This shouldn't happen since we already validated the interval
+        		}
+        	} 
+        	return DEFAULT_MAX_ADAPTIVE_INTERVAL;
+        }
+        
+        private int getSplay(JSONObject formData) {
+        	String seconds = formData.optString("splay");
+        	if (!StringUtils.isEmpty(seconds)) {
+        		try {
+        			return Math.max(0, Integer.parseInt(seconds));
+        		} catch (NumberFormatException e) {
+        			//This shouldn't happen since we already validated the splay
+        		}
+        	} 
+        	return 0;
+        }
+        
+        private int getQuietPeriod(JSONObject formData) throws FormException {
+        	String seconds = formData.optString("quietPeriod");
+        	if (!StringUtils.isEmpty(seconds)) {
+        		try {
+        			return Math.max(0, Integer.parseInt(seconds));
+        		} catch (NumberFormatException e) {
+        			throw new FormException("Quiet Period should be a number (in seconds).", e, "quietPeriod");
+        		}
+        	} 
+        	return 0;
+        }
+        
+        private int getFlipFlopWindow(JSONObject formData) throws FormException {
+        	String minutes = formData.optString("flipFlopWindow");
+        	if (!StringUtils.isEmpty(minutes)) {
+        		try {
+        			return Math.max(0, Integer.parseInt(minutes));
+        		} catch (NumberFormatException e) {
+        			throw new FormException("Ignore Flip-Flops should be a number (in minutes).", e, "flipFlopWindow");
+        		}
+        	} 
+        	return 0;
+        }
+        
+        private static int getLimit(JSONObject formData, String name) {
+        	String value = formData.optString(name);
+        	if (!StringUtils.isEmpty(value)) {
+        		try {
+        			return Math.max(0, Integer.parseInt(value));
+        		} catch (NumberFormatException e) {
+        			//This shouldn't happen since we already validated the limit
+        		}
+        	} 
+        	return 0;
+        }
+        
+        private static int getPositiveInt(JSONObject formData, String name, int defaultValue) {
+        	String value = formData.optString(name);
+        	if (!StringUtils.isEmpty(value)) {
+        		try {
+        			int number = Integer.parseInt(value);
+        			if(number>0)
+        				return number;
+        		} catch (NumberFormatException e) {
+        			//This shouldn't happen since we already validated the value
+        		}
+        	} 
+        	return defaultValue;
+        }
+        
+        private DigestAlgorithm getDigestAlgorithm(JSONObject formData) {
+        	DigestAlgorithm algorithm = DigestAlgorithm.fromId(formData.optString("digestAlgorithm"));
+        	return algorithm!=null?algorithm:DigestAlgorithm.MD5;
+        }
+        
+        private FingerprintCache.FsyncPolicy getFsyncPolicy(JSONObject formData) {
+        	FingerprintCache.FsyncPolicy policy = FingerprintCache.FsyncPolicy.fromName(formData.optString("fsyncPolicy"));
+        	return policy!=null?policy:FingerprintCache.FsyncPolicy.BATCH;
+        }
+        
+        private FingerprintStore.Type getFingerprintStore(JSONObject formData) {
+        	FingerprintStore.Type type = FingerprintStore.Type.fromName(formData.optString("fingerprintStore"));
+        	return type!=null?type:FingerprintStore.Type.FILES;
+        }
+        
+        private HttpTransport.Type getHttpTransport(JSONObject formData) {
+        	HttpTransport.Type type = HttpTransport.Type.fromName(formData.optString("httpTransport"));
+        	return type!=null?type:HttpTransport.Type.URLCONNECTION;
+        }
+        
         private int getMaxTimeout(JSONObject formData) {
         	String timeout = formData.getString("maxTimeout");
         	if (!StringUtils.isEmpty(timeout)) {
@@ -467,11 +1804,7 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
         	long min=0;
         	if(!StringUtils.isEmpty(expression)) {
         		try {
-	        		long currentTime = Calendar.getInstance().getTimeInMillis();
-		        	CronTab minCron = new CronTab(expression);
-			    	Calendar nextFireAt = minCron.ceil(currentTime);
-			    	Calendar preFireAt = minCron.floor(currentTime);
-			    	return nextFireAt.getTimeInMillis() - preFireAt.getTimeInMillis();
+	        		return ScheduleCache.getInterval(expression, System.currentTimeMillis());
         		} catch (RecognitionException e) {
         			throw new FormException("Encountered Error when processing Minimum Schedule ",e, "");
         		}
@@ -487,23 +1820,35 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
         */
         public static boolean isMoreFrequentThanMinConfSpec(String confSpec, String minConfSpec) throws RecognitionException {
         	if(!StringUtils.isEmpty(confSpec) && !StringUtils.isEmpty(minConfSpec)) {
-        		long currentTime = Calendar.getInstance().getTimeInMillis();
-        		CronTab cron = new CronTab(confSpec);
-    	    	Calendar nextFireAt = cron.ceil(currentTime);
-    	    	Calendar preFireAt = cron.floor(currentTime);
-    	    	
-    	    	CronTab minCron = new CronTab(minConfSpec);
-		    	Calendar nextMinFireAt = minCron.ceil(currentTime);
-		    	Calendar preMinFireAt = minCron.floor(currentTime);
-    	    	
-    	    	long diff = nextFireAt.getTimeInMillis() - preFireAt.getTimeInMillis();
-    	    	long minDiff = nextMinFireAt.getTimeInMillis() - preMinFireAt.getTimeInMillis();
+        		long currentTime = System.currentTimeMillis();
+    	    	long diff = ScheduleCache.getInterval(confSpec, currentTime);
+    	    	long minDiff = ScheduleCache.getInterval(minConfSpec, currentTime);
     	    	if(minDiff>diff)
     	    		return true;
         	}
         	return false;
         }
         
+        /**
+         * Returns the shortest interval adaptive triggers poll at: the interval of their schedule,
+         * but never less than the one of the Minimum Schedule.
+         */
+        long getAdaptiveBaseInterval(String confSpec) {
+        	return Math.max(getInterval(confSpec), getInterval(minConfSpec));
+        }
+        
+        /**
+         * @return the interval between two runs of the schedule, in milliseconds
+         */
+        static long getInterval(String confSpec) {
+        	try {
+        		return Math.max(60000L, getMinFrequency(confSpec));
+        	} catch (FormException e) {
+        		//Schedules spanning several lines can't be measured, assume the cron resolution
+        		return 60000L;
+        	}
+        }
+        
         public int getDefaultTimeout() {
         	return defaultTimeout;
         }
@@ -519,5 +1864,155 @@ public class UrlChangeTrigger extends Trigger<BuildableItem> {
         public String getMinConfSpec() {
         	return minConfSpec;
         }
+        
+        public int getPollFreshness() {
+        	return pollFreshness;
+        }
+        
+        public int getPollThreads() {
+        	return pollThreads;
+        }
+        
+        public int getMaxAdaptiveInterval() {
+        	return maxAdaptiveInterval>0?maxAdaptiveInterval:DEFAULT_MAX_ADAPTIVE_INTERVAL;
+        }
+        
+        public int getFailureThreshold() {
+        	return failureThreshold>0?failureThreshold:DEFAULT_FAILURE_THRESHOLD;
+        }
+        
+        public int getMaxBackoff() {
+        	return maxBackoff>0?maxBackoff:DEFAULT_MAX_BACKOFF;
+        }
+        
+        public int getSplay() {
+        	return splay;
+        }
+        
+        public int getMaxConnectionsPerHost() {
+        	return maxConnectionsPerHost;
+        }
+        
+        public int getMaxRequestsPerSecond() {
+        	return maxRequestsPerSecond;
+        }
+        
+        public int getMaxContentSize() {
+        	return maxContentSize;
+        }
+        
+        public boolean isCompression() {
+        	return compression;
+        }
+        
+        public int getSafetyNetInterval() {
+        	return safetyNetInterval>0?safetyNetInterval:DEFAULT_SAFETY_NET_INTERVAL;
+        }
+        
+        public int getWarmUpPeriod() {
+        	return warmUpPeriod>0?warmUpPeriod:DEFAULT_WARM_UP_PERIOD;
+        }
+        
+        public DigestAlgorithm getDigestAlgorithm() {
+        	DigestAlgorithm algorithm = DigestAlgorithm.fromId(digestAlgorithm);
+        	return algorithm!=null?algorithm:DigestAlgorithm.MD5;
+        }
+        
+        public DigestAlgorithm[] getDigestAlgorithms() {
+        	return DigestAlgorithm.values();
+        }
+        
+        public FingerprintCache.FsyncPolicy getFsyncPolicy() {
+        	FingerprintCache.FsyncPolicy policy = FingerprintCache.FsyncPolicy.fromName(fsyncPolicy);
+        	return policy!=null?policy:FingerprintCache.FsyncPolicy.BATCH;
+        }
+        
+        public FingerprintCache.FsyncPolicy[] getFsyncPolicies() {
+        	return FingerprintCache.FsyncPolicy.values();
+        }
+        
+        public FingerprintStore.Type getFingerprintStore() {
+        	FingerprintStore.Type type = FingerprintStore.Type.fromName(fingerprintStore);
+        	return type!=null?type:FingerprintStore.Type.FILES;
+        }
+        
+        public FingerprintStore.Type[] getFingerprintStores() {
+        	return FingerprintStore.Type.values();
+        }
+        
+        public HttpTransport.Type getHttpTransport() {
+        	HttpTransport.Type type = HttpTransport.Type.fromName(httpTransport);
+        	return type!=null?type:HttpTransport.Type.URLCONNECTION;
+        }
+        
+        public HttpTransport.Type[] getHttpTransports() {
+        	return HttpTransport.Type.values();
+        }
+    }
+    
+    /**
+     * Keeps the {@link FingerprintCache} and the {@link PollTimes} in line with the jobs and saves them before Hudson goes down.
+     */
+    @Extension
+    public static final class FingerprintCacheListener extends ItemListener {
+    	
+    	private FingerprintCache getCache() {
+    		DescriptorImpl descriptor = getDescriptor();
+    		return descriptor!=null?descriptor.getFingerprintCache():null;
+    	}
+    	
+    	private PollTimes getPollTimes() {
+    		DescriptorImpl descriptor = getDescriptor();
+    		return descriptor!=null?descriptor.getPollTimes():null;
+    	}
+    	
+    	private DescriptorImpl getDescriptor() {
+    		return Hudson.getInstance().getDescriptorByType(DescriptorImpl.class);
+    	}
+    	
+    	@Override
+    	public void onRenamed(Item item, String oldName, String newName) {
+    		FingerprintCache cache = getCache();
+    		if(cache!=null)
+    			cache.move(new File(item.getRootDir().getParentFile(), oldName), item.getRootDir());
+    		PollTimes times = getPollTimes();
+    		if(times!=null) {
+    			String fullName = item.getFullName();
+    			times.forget(fullName.substring(0, fullName.length()-newName.length()) + oldName);
+    		}
+    	}
+    	
+    	@Override
+    	public void onDeleted(Item item) {
+    		FingerprintCache cache = getCache();
+    		if(cache!=null)
+    			cache.delete(item.getRootDir());
+    		PollTimes times = getPollTimes();
+    		if(times!=null)
+    			times.forget(item.getFullName());
+    	}
+    	
+    	@Override
+    	public void onBeforeShutdown() {
+    		DescriptorImpl descriptor = getDescriptor();
+    		if(descriptor!=null) {
+    			//Let the running polls record their fingerprints before they are flushed
+    			PollExecutor executor = descriptor.getPollExecutor();
+    			executor.shutdown();
+    			descriptor.getHostLimiter().shutdown();
+    			try {
+    				if(!executor.awaitTermination(PollExecutor.SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS))
+    					LOGGER.log(Level.INFO, "Some polls were still running after {0} ms, their results will be lost", PollExecutor.SHUTDOWN_TIMEOUT);
+    			} catch (InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    			}
+    		}
+    		FingerprintCache cache = getCache();
+    		if(cache!=null)
+    			cache.shutdown();
+    		PollTimes times = getPollTimes();
+    		if(times!=null)
+    			times.shutdown();
+    	}
     }
 }
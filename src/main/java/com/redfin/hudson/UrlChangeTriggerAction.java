@@ -0,0 +1,69 @@
+package com.redfin.hudson;
+
+import hudson.model.Action;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Shows the state of the URLs watched by a {@link UrlChangeTrigger} on the job page.
+ */
+public class UrlChangeTriggerAction implements Action {
+
+	private final UrlChangeTrigger trigger;
+
+	public UrlChangeTriggerAction(UrlChangeTrigger trigger) {
+		this.trigger = trigger;
+	}
+
+	public UrlChangeTrigger getTrigger() {
+		return trigger;
+	}
+
+	/**
+	 * @return the state of the circuit of every watched URL, in the configured order
+	 */
+	public List<CircuitBreaker.Status> getCircuitStatuses() {
+		CircuitBreaker breaker = trigger.getDescriptor().getCircuitBreaker();
+		List<CircuitBreaker.Status> statuses = new ArrayList<CircuitBreaker.Status>();
+		for (URL url : trigger.getUrls())
+			statuses.add(breaker.getStatus(url));
+		return statuses;
+	}
+
+	/**
+	 * @return the recent contents of every watched URL, the current one first, by URL in the configured order
+	 */
+	public Map<String, List<FingerprintHistory.Entry>> getHistories() {
+		Map<String, List<FingerprintHistory.Entry>> histories = new LinkedHashMap<String, List<FingerprintHistory.Entry>>();
+		FingerprintCache cache = trigger.getDescriptor().getFingerprintCache();
+		for (URL url : trigger.getUrls()) {
+			try {
+				histories.put(url.toExternalForm(), cache.getHistory(trigger.getFingerprintDir(url)).getEntries());
+			} catch (IOException e) {
+				UrlChangeTrigger.LOGGER.log(Level.WARNING, "Failed to read the history of " + url, e);
+			}
+		}
+		return histories;
+	}
+
+	/**
+	 * Not shown in the side panel, the state is rendered by <tt>jobMain.jelly</tt>.
+	 */
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "URL Change Trigger";
+	}
+
+	public String getUrlName() {
+		return null;
+	}
+}
@@ -0,0 +1,81 @@
+package com.redfin.hudson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+/**
+ * Sends requests with {@link URLConnection}.
+ *
+ * The JDK keeps HTTP connections alive and reuses them, but only once the body has been
+ * read to the end and closed, including the body of error responses. {@link Response#close()}
+ * takes care of that so polls of the same host don't redo the TCP and TLS handshakes.
+ */
+class UrlConnectionTransport extends HttpTransport {
+
+	/**
+	 * Error bodies longer than this are not worth draining to save a connection.
+	 */
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	@Override
+	public Response open(URL url, String method, Map<String, String> headers, int timeout) throws IOException {
+		URLConnection con = url.openConnection();
+		con.setConnectTimeout(timeout);
+		con.setReadTimeout(timeout);
+		if (con instanceof HttpURLConnection) {
+			((HttpURLConnection)con).setRequestMethod(method);
+			for (Map.Entry<String, String> header : headers.entrySet())
+				con.setRequestProperty(header.getKey(), header.getValue());
+			//Connect right away so the handshakes are timed apart from waiting for the response
+			con.connect();
+		}
+		return new ConnectionResponse(con);
+	}
+
+	private static final class ConnectionResponse implements Response {
+		private final URLConnection con;
+		private InputStream body;
+
+		ConnectionResponse(URLConnection con) {
+			this.con = con;
+		}
+
+		public int getStatus() throws IOException {
+			return con instanceof HttpURLConnection ? ((HttpURLConnection)con).getResponseCode() : -1;
+		}
+
+		public String getHeader(String name) {
+			return con.getHeaderField(name);
+		}
+
+		public InputStream getBody() throws IOException {
+			if (body == null)
+				body = con.getInputStream();
+			return body;
+		}
+
+		public void close() {
+			InputStream in = body;
+			try {
+				if (in == null && con instanceof HttpURLConnection) {
+					HttpURLConnection http = (HttpURLConnection)con;
+					in = http.getResponseCode() >= 400 ? http.getErrorStream() : http.getInputStream();
+				}
+				if (in != null) {
+					byte[] buffer = new byte[4096];
+					int drained = 0;
+					int read;
+					while (drained < MAX_DRAIN && (read = in.read(buffer)) >= 0)
+						drained += read;
+					in.close();
+				}
+			} catch (IOException e) {
+				//Connection can't be reused, nothing else to do
+			}
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package com.redfin.hudson;
+
+import hudson.FilePath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Last known state of a watched URL: the digest of its content plus the
+ * HTTP validators (<tt>ETag</tt>, <tt>Last-Modified</tt>, <tt>Content-Length</tt>) the server sent with it.
+ *
+ * The digest keeps living in <tt>url-change-trigger-oldmd5</tt> so existing jobs keep
+ * their fingerprint, the validators are stored next to it.
+ * Digests are qualified with their {@link DigestAlgorithm}, see {@link DigestAlgorithm#normalize(String)}.
+ */
+public class UrlFingerprint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	static final String DIGEST_FILE = "url-change-trigger-oldmd5";
+	static final String VALIDATORS_FILE = "url-change-trigger-validators";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "lastModified";
+	private static final String CONTENT_LENGTH = "contentLength";
+
+	private final String digest;
+	private final String etag;
+	private final String lastModified;
+	private final long contentLength;
+
+	public UrlFingerprint(String digest, String etag, String lastModified) {
+		this(digest, etag, lastModified, -1);
+	}
+
+	/**
+	 * @param contentLength -1 if unknown
+	 */
+	public UrlFingerprint(String digest, String etag, String lastModified, long contentLength) {
+		this.digest = digest;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.contentLength = contentLength;
+	}
+
+	public String getDigest() {
+		return digest;
+	}
+
+	public DigestAlgorithm getAlgorithm() {
+		return DigestAlgorithm.of(digest);
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * Validators are only worth sending when we also know the digest they describe,
+	 * otherwise a 304 would leave us without anything to compare against.
+	 */
+	public boolean hasValidators() {
+		return digest != null && (!StringUtils.isEmpty(etag) || !StringUtils.isEmpty(lastModified));
+	}
+
+	/**
+	 * Loads the fingerprint stored in the given directory.
+	 * Returns an empty fingerprint if nothing was recorded yet.
+	 */
+	public static UrlFingerprint load(File dir) throws IOException {
+		String digest = null;
+		File digestFile = new File(dir, DIGEST_FILE);
+		if (digestFile.exists()) {
+			digest = DigestAlgorithm.normalize(new FilePath(digestFile).readToString().trim());
+		}
+		Properties validators = new Properties();
+		File validatorsFile = new File(dir, VALIDATORS_FILE);
+		if (validatorsFile.exists()) {
+			InputStream in = new FileInputStream(validatorsFile);
+			try {
+				validators.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		long contentLength = -1;
+		try {
+			contentLength = Long.parseLong(validators.getProperty(CONTENT_LENGTH, "-1"));
+		} catch (NumberFormatException e) {
+			//Leave it unknown, the next poll records it again
+		}
+		return new UrlFingerprint(digest, validators.getProperty(ETAG), validators.getProperty(LAST_MODIFIED), contentLength);
+	}
+
+	/**
+	 * Stores this fingerprint in the given directory.
+	 */
+	public void save(File dir) throws IOException {
+		save(dir, false);
+	}
+
+	/**
+	 * Stores this fingerprint in the given directory.
+	 * Files are replaced atomically, so a crash leaves either the old or the new fingerprint behind.
+	 *
+	 * @param sync whether to force the files to disk before returning
+	 */
+	public void save(File dir, boolean sync) throws IOException {
+		for (File tmp : saveTemporary(dir, sync))
+			replace(tmp);
+	}
+
+	/**
+	 * Writes this fingerprint next to its files in the given directory, {@link #replace(File)}
+	 * then moves each temporary file into place. Lets a batch of fingerprints be forced to disk
+	 * together before any of them replaces the previous one.
+	 *
+	 * @param sync whether to force each file to disk before returning
+	 * @return the temporary files
+	 */
+	List<File> saveTemporary(File dir, boolean sync) throws IOException {
+		List<File> written = new ArrayList<File>();
+		if (digest != null) {
+			written.add(writeTemporary(new File(dir, DIGEST_FILE), digest.getBytes("UTF-8"), sync));
+		}
+		Properties validators = new Properties();
+		if (etag != null)
+			validators.setProperty(ETAG, etag);
+		if (lastModified != null)
+			validators.setProperty(LAST_MODIFIED, lastModified);
+		if (contentLength >= 0)
+			validators.setProperty(CONTENT_LENGTH, Long.toString(contentLength));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		validators.store(out, "URL Change Trigger validators");
+		written.add(writeTemporary(new File(dir, VALIDATORS_FILE), out.toByteArray(), sync));
+		return written;
+	}
+
+	static void writeAtomically(File file, byte[] content, boolean sync) throws IOException {
+		replace(writeTemporary(file, content, sync));
+	}
+
+	/**
+	 * @return the temporary file written next to the given file
+	 */
+	private static File writeTemporary(File file, byte[] content, boolean sync) throws IOException {
+		File tmp = new File(file.getParentFile(), file.getName() + TMP_SUFFIX);
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(content);
+			if (sync)
+				out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		return tmp;
+	}
+
+	/**
+	 * Forces a file written earlier to disk.
+	 */
+	static void sync(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Moves a temporary file over the file it replaces.
+	 */
+	static void replace(File tmp) throws IOException {
+		String name = tmp.getName();
+		File file = new File(tmp.getParentFile(), name.substring(0, name.length() - TMP_SUFFIX.length()));
+		if (!tmp.renameTo(file)) {
+			//Windows won't rename over an existing file
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("Failed to replace " + file);
+		}
+	}
+
+	/**
+	 * @return true if both fingerprints carry the same validators
+	 */
+	public boolean sameValidators(UrlFingerprint other) {
+		return StringUtils.equals(etag, other.etag) && StringUtils.equals(lastModified, other.lastModified)
+				&& contentLength == other.contentLength;
+	}
+}
@@ -0,0 +1,194 @@
+package com.redfin.hudson;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Shares fetches of the same URL between triggers.
+ *
+ * A trigger polling a URL that is already being fetched waits for that fetch instead of
+ * opening its own connection, and a result younger than the freshness window is handed out
+ * as is. Every trigger then compares the shared result against its own stored fingerprint.
+ *
+ * Only the trigger starting a fetch decides how it runs, e.g. after waiting for its host in the
+ * {@link HostLimiter}. The triggers sharing it neither wait for the host nor count against its limits.
+ */
+public class UrlPollRegistry {
+
+	/**
+	 * Receives the result of a poll once its fetch completed.
+	 */
+	public interface Callback {
+		void completed(UrlFingerprint fingerprint);
+
+		void failed(IOException e);
+	}
+
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private final ConcurrentMap<PollRequest, Poll> polls = new ConcurrentHashMap<PollRequest, Poll>();
+
+	/**
+	 * Returns the current fingerprint of the requested URL, fetching it only if no other
+	 * trigger is fetching it right now or fetched it less than <tt>freshness</tt> milliseconds ago.
+	 *
+	 * @param known fingerprint stored by the calling trigger, its validators are used when
+	 * the registry has not seen the URL yet
+	 */
+	public UrlFingerprint poll(PollRequest request, UrlFingerprint known, long freshness) throws IOException {
+		return poll(request, known, freshness, 0);
+	}
+
+	/**
+	 * Same as {@link #poll(PollRequest, UrlFingerprint, long)}, but never hands out a fetch
+	 * started before <tt>notBefore</tt>, e.g. when the server announced a change at that time.
+	 */
+	public UrlFingerprint poll(PollRequest request, UrlFingerprint known, long freshness, long notBefore) throws IOException {
+		return getPoll(request, known, freshness, notBefore, DIRECT).await();
+	}
+
+	/**
+	 * Same as {@link #poll(PollRequest, UrlFingerprint, long, long)}, without blocking the calling thread.
+	 * A new fetch is handed to the <tt>fetcher</tt>, a poll sharing a fetch in progress or a fresh
+	 * result never goes through it.
+	 *
+	 * @param callback called by the thread completing the fetch, or right away if a fresh result is at hand
+	 */
+	public void poll(PollRequest request, UrlFingerprint known, long freshness, long notBefore, Executor fetcher, Callback callback) {
+		getPoll(request, known, freshness, notBefore, fetcher).whenDone(callback);
+	}
+
+	/**
+	 * @return the fetch the poll shares, started with the <tt>fetcher</tt> if there was none to share
+	 */
+	private Poll getPoll(PollRequest request, UrlFingerprint known, long freshness, long notBefore, Executor fetcher) {
+		while (true) {
+			Poll poll = polls.get(request);
+			if (poll == null || poll.isStale(freshness) || poll.startedAt < notBefore) {
+				UrlFingerprint validators = poll != null && poll.getResult() != null ? poll.getResult() : known;
+				Poll newPoll = new Poll(request, validators);
+				boolean registered = poll == null
+						? polls.putIfAbsent(request, newPoll) == null
+						: polls.replace(request, poll, newPoll);
+				if (!registered) {
+					//Somebody else started a fetch in between, wait for that one
+					continue;
+				}
+				fetcher.execute(newPoll);
+				poll = newPoll;
+			}
+			return poll;
+		}
+	}
+
+	/**
+	 * Forgets results older than the freshness window so URLs nobody polls anymore do not pile up.
+	 */
+	public void purge(long freshness) {
+		for (Poll poll : polls.values()) {
+			if (poll.isStale(freshness))
+				polls.remove(poll.request, poll);
+		}
+	}
+
+	private static final class Poll extends FutureTask<UrlFingerprint> {
+		private final PollRequest request;
+		private final long startedAt = System.currentTimeMillis();
+		private volatile long completedAt;
+		private volatile UrlFingerprint result;
+		private final List<Callback> callbacks = new ArrayList<Callback>();
+
+		Poll(final PollRequest request, final UrlFingerprint validators) {
+			super(new Callable<UrlFingerprint>() {
+				public UrlFingerprint call() throws IOException {
+					return request.fetch(validators);
+				}
+			});
+			this.request = request;
+		}
+
+		@Override
+		protected void set(UrlFingerprint v) {
+			result = v;
+			super.set(v);
+		}
+
+		@Override
+		protected void done() {
+			completedAt = System.currentTimeMillis();
+			List<Callback> waiting;
+			synchronized (callbacks) {
+				waiting = new ArrayList<Callback>(callbacks);
+				callbacks.clear();
+			}
+			for (Callback callback : waiting)
+				deliver(callback);
+		}
+
+		void whenDone(Callback callback) {
+			synchronized (callbacks) {
+				if (!isDone()) {
+					callbacks.add(callback);
+					return;
+				}
+			}
+			deliver(callback);
+		}
+
+		private void deliver(Callback callback) {
+			UrlFingerprint fingerprint;
+			try {
+				fingerprint = await();
+			} catch (IOException e) {
+				callback.failed(e);
+				return;
+			} catch (RuntimeException e) {
+				//Cancelled, or the fetch itself failed unexpectedly
+				callback.failed(new IOException("Failed to fetch " + request + ": " + e));
+				return;
+			}
+			callback.completed(fingerprint);
+		}
+
+		UrlFingerprint getResult() {
+			return result;
+		}
+
+		/**
+		 * In-flight fetches are never stale, failed ones always are.
+		 */
+		boolean isStale(long freshness) {
+			if (!isDone())
+				return false;
+			return result == null || System.currentTimeMillis() - completedAt >= freshness;
+		}
+
+		UrlFingerprint await() throws IOException {
+			try {
+				return get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + request);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+					throw (IOException)cause;
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException)cause;
+				throw new IOException("Failed to fetch " + request + ": " + cause);
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.redfin.hudson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Selects the nodes matching an XPath location path.
+ *
+ * Supports absolute paths made of element names (namespace prefixes are ignored), <tt>*</tt>,
+ * <tt>//</tt> for descendants, and a last step that can be <tt>@attribute</tt> or <tt>text()</tt>,
+ * e.g. <tt>/metadata/versioning/latest</tt> or <tt>//version/@id</tt>. Predicates are not supported.
+ *
+ * The document is read with StAX, only the names of the enclosing elements are kept in memory.
+ * An element is selected with the text it contains, whitespace-only text is ignored.
+ */
+public class XPathSelector extends ContentSelector {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<Step> steps = new ArrayList<Step>();
+	private String attribute;
+	private boolean textOnly;
+
+	public XPathSelector(String expression) {
+		super(expression);
+		parse(expression);
+	}
+
+	@Override
+	public Type getType() {
+		return Type.XPATH;
+	}
+
+	private static final class Step implements java.io.Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/** Local name, null for a wildcard. */
+		final String name;
+		final boolean descendant;
+
+		Step(String name, boolean descendant) {
+			this.name = name;
+			this.descendant = descendant;
+		}
+
+		boolean matches(String localName) {
+			return name == null || name.equals(localName);
+		}
+	}
+
+	private void parse(String expression) {
+		if (!expression.startsWith("/"))
+			throw new IllegalArgumentException("Only absolute XPath expressions are supported: " + expression);
+		if (expression.indexOf('[') >= 0)
+			throw new IllegalArgumentException("XPath predicates are not supported: " + expression);
+		int i = 0;
+		int n = expression.length();
+		while (i < n) {
+			boolean descendant = false;
+			if (expression.startsWith("//", i)) {
+				descendant = true;
+				i += 2;
+			} else if (expression.charAt(i) == '/') {
+				i++;
+			} else {
+				throw new IllegalArgumentException("Expected / at position " + i + " of " + expression);
+			}
+			int end = expression.indexOf('/', i);
+			if (end < 0)
+				end = n;
+			String step = expression.substring(i, end).trim();
+			i = end;
+			if (step.length() == 0)
+				throw new IllegalArgumentException("Empty step in " + expression);
+			boolean last = i >= n;
+			if (step.startsWith("@")) {
+				if (!last || descendant)
+					throw new IllegalArgumentException("An attribute can only be selected by the last step: " + expression);
+				attribute = localName(step.substring(1));
+			} else if ("text()".equals(step)) {
+				if (!last || descendant)
+					throw new IllegalArgumentException("text() can only be the last step: " + expression);
+				textOnly = true;
+			} else {
+				steps.add(new Step("*".equals(step) ? null : localName(step), descendant));
+			}
+		}
+		if (steps.isEmpty())
+			throw new IllegalArgumentException("No element selected by " + expression);
+	}
+
+	private static String localName(String name) {
+		int colon = name.indexOf(':');
+		return colon >= 0 ? name.substring(colon + 1) : name;
+	}
+
+	private boolean matches(List<String> path, int si, int pi) {
+		if (si == steps.size())
+			return pi == path.size();
+		Step step = steps.get(si);
+		if (step.descendant) {
+			for (int k = pi; k < path.size(); k++) {
+				if (step.matches(path.get(k)) && matches(path, si + 1, k + 1))
+					return true;
+			}
+			return false;
+		}
+		return pi < path.size() && step.matches(path.get(pi)) && matches(path, si + 1, pi + 1);
+	}
+
+	private static XMLInputFactory newFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		//Never resolve anything the polled document points to
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		return factory;
+	}
+
+	@Override
+	void select(InputStream in, String charset, DigestAlgorithm.Hasher hasher) throws IOException {
+		Emitter emitter = new Emitter(hasher);
+		List<String> path = new ArrayList<String>();
+		int captureDepth = -1;
+		try {
+			XMLStreamReader reader = charset != null
+					? newFactory().createXMLStreamReader(in, charset)
+					: newFactory().createXMLStreamReader(in);
+			try {
+				while (reader.hasNext()) {
+					switch (reader.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						path.add(reader.getLocalName());
+						if (captureDepth < 0 && matches(path, 0, 0)) {
+							if (attribute != null) {
+								for (int i = 0; i < reader.getAttributeCount(); i++) {
+									if (attribute.equals("*") || attribute.equals(reader.getAttributeLocalName(i))) {
+										emitter.emit(reader.getAttributeValue(i));
+										emitter.separator();
+									}
+								}
+							} else {
+								captureDepth = path.size();
+							}
+						}
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+						if (captureDepth > 0 && !reader.isWhiteSpace()
+								&& (!textOnly || path.size() == captureDepth)) {
+							emitter.emit(CharBuffer.wrap(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength()));
+						}
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						if (path.size() == captureDepth) {
+							captureDepth = -1;
+							emitter.separator();
+						}
+						path.remove(path.size() - 1);
+						break;
+					default:
+						break;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Invalid XML document: " + e.getMessage());
+		}
+		emitter.flush();
+	}
+}
@@ -0,0 +1,55 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+public class AdaptiveIntervalTest {
+
+	private static final long MINUTE = 60000L;
+	private static final long HOUR = 60 * MINUTE;
+
+	@Test
+	public void testStretchesWhileStable() throws Exception {
+		URL url = new URL("http://localhost/stable");
+		AdaptiveInterval interval = new AdaptiveInterval();
+		assertTrue(interval.isDue(url, 0, MINUTE, HOUR));
+		interval.polled(url, 0, false);
+
+		//Polled at the base interval until the content has been stable long enough
+		assertTrue(interval.isDue(url, MINUTE, MINUTE, HOUR));
+		interval.polled(url, MINUTE, false);
+		assertEquals(MINUTE, interval.getInterval(url, MINUTE, MINUTE, HOUR));
+
+		long now = 40 * MINUTE;
+		interval.polled(url, now, false);
+		assertEquals(5 * MINUTE, interval.getInterval(url, now, MINUTE, HOUR));
+		assertFalse(interval.isDue(url, now + MINUTE, MINUTE, HOUR));
+		assertTrue(interval.isDue(url, now + 6 * MINUTE, MINUTE, HOUR));
+
+		//Never beyond the maximum
+		assertEquals(HOUR, interval.getInterval(url, 100 * HOUR, MINUTE, HOUR));
+	}
+
+	@Test
+	public void testSnapsBackAfterChange() throws Exception {
+		URL url = new URL("http://localhost/changing");
+		AdaptiveInterval interval = new AdaptiveInterval();
+		interval.polled(url, 0, false);
+		interval.polled(url, 10 * HOUR, true);
+		assertEquals(MINUTE, interval.getInterval(url, 10 * HOUR, MINUTE, HOUR));
+		assertTrue(interval.isDue(url, 10 * HOUR + MINUTE, MINUTE, HOUR));
+	}
+
+	@Test
+	public void testNeverBelowBaseInterval() throws Exception {
+		URL url = new URL("http://localhost/min");
+		AdaptiveInterval interval = new AdaptiveInterval();
+		interval.polled(url, 0, true);
+		//Base interval raised to the one of the Minimum Schedule
+		assertFalse(interval.isDue(url, MINUTE, 5 * MINUTE, HOUR));
+		assertTrue(interval.isDue(url, 5 * MINUTE, 5 * MINUTE, HOUR));
+	}
+}
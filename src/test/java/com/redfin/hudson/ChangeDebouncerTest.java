@@ -0,0 +1,81 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChangeDebouncerTest {
+
+	@Test
+	public void testBurstSettlesAfterQuietPeriod() throws Exception {
+		URL url = new URL("http://localhost/release");
+		ChangeDebouncer debouncer = new ChangeDebouncer();
+		debouncer.changed(url, "md5:0", "md5:a", 1000);
+		assertTrue(debouncer.arm());
+		debouncer.changed(url, "md5:a", "md5:b", 5000);
+		//One timer per burst
+		assertFalse(debouncer.arm());
+		//The second change pushed the end of the quiet period back
+		assertNull(debouncer.settle(11000, 10000));
+		assertEquals(4000, debouncer.getRemaining(11000, 10000));
+		debouncer.changed(url, "md5:b", "md5:c", 12000);
+		List<UrlChangeCause.Change> changes = debouncer.settle(22000, 10000);
+		assertEquals(1, changes.size());
+		//The content before the burst, not after its first change
+		assertEquals("md5:0", changes.get(0).getFirstDigest());
+		assertEquals("md5:c", changes.get(0).getFinalDigest());
+		assertEquals(3, changes.get(0).getCount());
+		//Nothing pending anymore
+		assertFalse(debouncer.arm());
+		assertTrue(debouncer.drain().isEmpty());
+	}
+
+	@Test
+	public void testUrlsInOrderOfFirstChange() throws Exception {
+		ChangeDebouncer debouncer = new ChangeDebouncer();
+		debouncer.changed(new URL("http://localhost/b"), "md5:b0", "md5:b1", 1000);
+		debouncer.changed(new URL("http://localhost/a"), null, "md5:a1", 2000);
+		debouncer.changed(new URL("http://localhost/b"), "md5:b1", "md5:b2", 3000);
+		List<UrlChangeCause.Change> changes = debouncer.drain();
+		assertEquals(2, changes.size());
+		assertEquals("http://localhost/b", changes.get(0).getUrl().toExternalForm());
+		assertEquals("md5:b2", changes.get(0).getFinalDigest());
+		assertEquals(1, changes.get(1).getCount());
+	}
+
+	@Test
+	public void testCauseListsSettledUrls() throws Exception {
+		ChangeDebouncer debouncer = new ChangeDebouncer();
+		debouncer.changed(new URL("http://localhost/a"), "md5:a0", "md5:a1", 1000);
+		UrlChangeCause cause = new UrlChangeCause(debouncer.drain(), 60, 300);
+		assertEquals(1, cause.getUrls().size());
+		assertEquals("md5:a1", cause.getChanges().get(0).getFinalDigest());
+		assertTrue(new UrlChangeCause(new URL("http://localhost/a"), 60).getChanges().isEmpty());
+	}
+
+	@Test
+	public void testBurstBackToStartIsDropped() throws Exception {
+		URL a = new URL("http://localhost/a");
+		URL b = new URL("http://localhost/b");
+		ChangeDebouncer debouncer = new ChangeDebouncer();
+		debouncer.changed(a, "md5:a", "md5:b", 1000);
+		assertTrue(debouncer.arm());
+		debouncer.changed(a, "md5:b", "md5:a", 2000);
+		//A -> B -> A is no change at all
+		assertTrue(debouncer.settle(20000, 10000).isEmpty());
+		assertFalse(debouncer.arm());
+
+		//Only the URL that went back is dropped
+		debouncer.changed(a, "md5:a", "md5:b", 30000);
+		debouncer.changed(b, "md5:x", "md5:y", 30000);
+		debouncer.changed(a, "md5:b", "md5:a", 31000);
+		List<UrlChangeCause.Change> changes = debouncer.settle(50000, 10000);
+		assertEquals(1, changes.size());
+		assertEquals("http://localhost/b", changes.get(0).getUrl().toExternalForm());
+		assertEquals("md5:x", changes.get(0).getFirstDigest());
+		assertEquals("md5:y", changes.get(0).getFinalDigest());
+	}
+}
@@ -0,0 +1,32 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+public class ChangeNotificationsTest {
+
+	@Test
+	public void testRepeatedNotificationsFoldIntoOne() throws Exception {
+		URL url = new URL("http://localhost/latest");
+		ChangeNotifications notifications = new ChangeNotifications();
+		assertTrue(notifications.notified(url));
+		assertFalse(notifications.notified(url));
+		assertFalse(notifications.notified(url));
+		//Announced during the verification, verify once more
+		assertTrue(notifications.verified(url));
+		assertFalse(notifications.verified(url));
+		assertTrue(notifications.notified(url));
+	}
+
+	@Test
+	public void testUrlsAreIndependent() throws Exception {
+		ChangeNotifications notifications = new ChangeNotifications();
+		assertTrue(notifications.notified(new URL("http://localhost/a")));
+		assertTrue(notifications.notified(new URL("http://localhost/b")));
+		assertFalse(notifications.verified(new URL("http://localhost/a")));
+		assertFalse(notifications.notified(new URL("http://localhost/b")));
+	}
+}
@@ -0,0 +1,76 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URL;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	private static final long MINUTE = 60000L;
+
+	@Test
+	public void testOpensAfterThreshold() throws Exception {
+		URL url = new URL("http://localhost/down");
+		CircuitBreaker breaker = new CircuitBreaker(3, 10 * MINUTE);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.failure(url, 0));
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.failure(url, 0));
+		assertTrue(breaker.allowRequest(url, 0));
+		assertEquals(CircuitBreaker.State.OPEN, breaker.failure(url, 0));
+		assertFalse(breaker.allowRequest(url, MINUTE - 1));
+		assertEquals(3, breaker.getStatus(url).getFailures());
+
+		//Only one probe once the cool-down is over
+		assertTrue(breaker.allowRequest(url, MINUTE));
+		assertFalse(breaker.allowRequest(url, MINUTE));
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getStatus(url).getState());
+
+		//Failed probe doubles the cool-down
+		assertEquals(CircuitBreaker.State.OPEN, breaker.failure(url, MINUTE));
+		assertFalse(breaker.allowRequest(url, 3 * MINUTE - 1));
+		assertTrue(breaker.allowRequest(url, 3 * MINUTE));
+
+		breaker.success(url);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getStatus(url).getState());
+		assertTrue(breaker.allowRequest(url, 3 * MINUTE));
+	}
+
+	@Test
+	public void testCoolDownIsCapped() throws Exception {
+		URL url = new URL("http://localhost/capped");
+		CircuitBreaker breaker = new CircuitBreaker(1, 2 * MINUTE);
+		long now = 0;
+		breaker.failure(url, now);
+		for (int i = 0; i < 5; i++) {
+			now = breaker.getStatus(url).getRetryAt().getTime();
+			assertTrue(breaker.allowRequest(url, now));
+			breaker.failure(url, now);
+		}
+		assertEquals(now + 2 * MINUTE, breaker.getStatus(url).getRetryAt().getTime());
+	}
+
+	@Test
+	public void testLostProbeIsRetried() throws Exception {
+		URL url = new URL("http://localhost/lost");
+		CircuitBreaker breaker = new CircuitBreaker(1, 10 * MINUTE);
+		breaker.failure(url, 0);
+		assertTrue(breaker.allowRequest(url, MINUTE));
+		//Probe never reported back
+		assertFalse(breaker.allowRequest(url, 2 * MINUTE - 1));
+		assertTrue(breaker.allowRequest(url, 2 * MINUTE));
+	}
+
+	@Test
+	public void testSharedFetchCountsOnce() throws Exception {
+		URL url = new URL("http://localhost/shared");
+		CircuitBreaker breaker = new CircuitBreaker(2, 10 * MINUTE);
+		Exception fetch = new IOException("Connection refused");
+		//Five triggers waiting for the same fetch
+		for (int i = 0; i < 5; i++)
+			assertEquals(CircuitBreaker.State.CLOSED, breaker.failure(url, 0, fetch));
+		assertEquals(1, breaker.getStatus(url).getFailures());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.failure(url, 0, new IOException("Connection refused")));
+	}
+}
@@ -0,0 +1,77 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+public class ContentSelectorTest {
+
+	private static String digest(ContentSelector selector, String content) throws Exception {
+		return DigestAlgorithm.MD5.digest(new ByteArrayInputStream(content.getBytes("UTF-8")), selector, "UTF-8");
+	}
+
+	private static String md5(String content) throws Exception {
+		return DigestAlgorithm.MD5.digest(new ByteArrayInputStream(content.getBytes("UTF-8")));
+	}
+
+	@Test
+	public void testRegex() throws Exception {
+		ContentSelector selector = ContentSelector.create("REGEX", "version=(\\S+)");
+		assertEquals(digest(selector, "time=1\nversion=1.2\n"), digest(selector, "time=2\nversion=1.2\n"));
+		assertFalse(digest(selector, "version=1.2").equals(digest(selector, "version=1.3")));
+		assertEquals(md5("1.2\n"), digest(selector, "time=1\nversion=1.2\n"));
+	}
+
+	@Test
+	public void testJsonPath() throws Exception {
+		ContentSelector selector = ContentSelector.create("JSONPATH", "$.artifact.version");
+		String before = "{\"requestId\":\"a1\",\"artifact\":{\"version\":\"1.2\",\"size\":10}}";
+		String after = "{ \"requestId\" : \"b2\", \"artifact\" : { \"version\" : \"1.2\", \"size\" : 10 } }";
+		assertEquals(digest(selector, before), digest(selector, after));
+		assertEquals(md5("\"1.2\"\n"), digest(selector, before));
+		assertFalse(digest(selector, before).equals(digest(selector, before.replace("1.2", "1.3"))));
+	}
+
+	@Test
+	public void testJsonPathWildcardsAndDeepScan() throws Exception {
+		String doc = "{\"items\":[{\"sha1\":\"a\",\"t\":1},{\"sha1\":\"b\",\"t\":2}],\"nested\":{\"sha1\":\"c\"}}";
+		assertEquals(md5("\"a\"\n\"b\"\n"), digest(ContentSelector.create("JSONPATH", "$.items[*].sha1"), doc));
+		assertEquals(md5("\"b\"\n"), digest(ContentSelector.create("JSONPATH", "$['items'][1].sha1"), doc));
+		assertEquals(md5("\"a\"\n\"b\"\n\"c\"\n"), digest(ContentSelector.create("JSONPATH", "$..sha1"), doc));
+		assertEquals(md5("{\"sha1\":\"c\"}\n"), digest(ContentSelector.create("JSONPATH", "$.nested"), doc));
+	}
+
+	@Test
+	public void testXPath() throws Exception {
+		ContentSelector selector = ContentSelector.create("XPATH", "/metadata/versioning/latest");
+		String before = "<metadata><versioning><latest>1.2</latest><lastUpdated>20110101</lastUpdated></versioning></metadata>";
+		String after = "<metadata>\n  <versioning>\n    <latest>1.2</latest>\n    <lastUpdated>20120101</lastUpdated>\n  </versioning>\n</metadata>";
+		assertEquals(digest(selector, before), digest(selector, after));
+		assertEquals(md5("1.2\n"), digest(selector, before));
+	}
+
+	@Test
+	public void testXPathAttribute() throws Exception {
+		String doc = "<a><b id=\"1\" t=\"x\"/><c><b id=\"2\"/></c></a>";
+		assertEquals(md5("1\n2\n"), digest(ContentSelector.create("XPATH", "//b/@id"), doc));
+		assertEquals(md5("1\n"), digest(ContentSelector.create("XPATH", "/a/b/@id"), doc));
+	}
+
+	@Test
+	public void testNoSelector() throws Exception {
+		assertNull(ContentSelector.create("", "$.a"));
+		assertNull(ContentSelector.create("JSONPATH", " "));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidXPath() throws Exception {
+		ContentSelector.create("XPATH", "/a/b[1]");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidRegex() throws Exception {
+		ContentSelector.create("REGEX", "(");
+	}
+}
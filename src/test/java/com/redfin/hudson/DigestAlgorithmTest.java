@@ -0,0 +1,77 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DigestAlgorithmTest {
+
+	private static String digest(DigestAlgorithm algorithm, String content) throws Exception {
+		return algorithm.digest(new ByteArrayInputStream(content.getBytes("UTF-8")));
+	}
+
+	@Test
+	public void testMd5() throws Exception {
+		assertEquals("md5:d41d8cd98f00b204e9800998ecf8427e", digest(DigestAlgorithm.MD5, ""));
+		assertEquals("md5:900150983cd24fb0d6963f7d28e17f72", digest(DigestAlgorithm.MD5, "abc"));
+	}
+
+	@Test
+	public void testSha256() throws Exception {
+		assertEquals("sha256:ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", digest(DigestAlgorithm.SHA256, "abc"));
+	}
+
+	@Test
+	public void testXXHash64() throws Exception {
+		assertEquals("xxh64:ef46db3751d8e999", digest(DigestAlgorithm.XXHASH64, ""));
+		assertEquals("xxh64:44bc2cf5ad770999", digest(DigestAlgorithm.XXHASH64, "abc"));
+	}
+
+	@Test
+	public void testXXHash64Streaming() throws Exception {
+		byte[] content = new byte[100000];
+		new Random(42).nextBytes(content);
+		DigestAlgorithm.Hasher whole = DigestAlgorithm.XXHASH64.newHasher();
+		whole.update(content, 0, content.length);
+		DigestAlgorithm.Hasher chunked = DigestAlgorithm.XXHASH64.newHasher();
+		int off = 0;
+		int chunk = 1;
+		while (off < content.length) {
+			int len = Math.min(chunk, content.length - off);
+			chunked.update(content, off, len);
+			off += len;
+			chunk = chunk * 3 % 97 + 1;
+		}
+		assertEquals(whole.finish(), chunked.finish());
+	}
+
+	@Test
+	public void testLegacyFingerprint() throws Exception {
+		assertEquals(DigestAlgorithm.MD5, DigestAlgorithm.of("900150983cd24fb0d6963f7d28e17f72"));
+		assertEquals("md5:900150983cd24fb0d6963f7d28e17f72", DigestAlgorithm.normalize("900150983CD24FB0D6963F7D28E17F72"));
+		assertEquals(DigestAlgorithm.XXHASH64, DigestAlgorithm.of("xxh64:44bc2cf5ad770999"));
+	}
+
+	@Test
+	public void testHasherIsReusedAcrossThreads() throws Exception {
+		final DigestAlgorithm.Hasher[] borrowed = new DigestAlgorithm.Hasher[1];
+		DigestAlgorithm.Hasher h = DigestAlgorithm.SHA256.borrowHasher();
+		DigestAlgorithm.SHA256.release(h);
+		//A new thread per poll, like the virtual thread executor
+		Thread poll = new Thread() {
+			@Override
+			public void run() {
+				borrowed[0] = DigestAlgorithm.SHA256.borrowHasher();
+				DigestAlgorithm.SHA256.release(borrowed[0]);
+			}
+		};
+		poll.start();
+		poll.join();
+		assertSame(h, borrowed[0]);
+		//Left in a clean state for the next poll
+		assertEquals("sha256:ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", digest(DigestAlgorithm.SHA256, "abc"));
+	}
+}
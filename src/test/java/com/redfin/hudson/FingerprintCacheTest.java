@@ -0,0 +1,107 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerprintCacheTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("url-change-trigger", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testWriteBehind() throws Exception {
+		FingerprintCache cache = new FingerprintCache(FingerprintCache.FsyncPolicy.BATCH);
+		assertNull(cache.get(dir).getDigest());
+		cache.put(dir, new UrlFingerprint("md5:abc", null, null));
+		assertEquals("md5:abc", cache.get(dir).getDigest());
+		assertNull(UrlFingerprint.load(dir).getDigest());
+		cache.flush();
+		assertEquals("md5:abc", UrlFingerprint.load(dir).getDigest());
+		cache.shutdown();
+	}
+
+	@Test
+	public void testWriteThrough() throws Exception {
+		FingerprintCache cache = new FingerprintCache(FingerprintCache.FsyncPolicy.ALWAYS);
+		cache.put(dir, new UrlFingerprint("md5:abc", "\"v1\"", null));
+		assertEquals("\"v1\"", UrlFingerprint.load(dir).getEtag());
+		cache.shutdown();
+	}
+
+	@Test
+	public void testDeletedDirectoryIsNotRecreated() throws Exception {
+		FingerprintCache cache = new FingerprintCache(FingerprintCache.FsyncPolicy.NEVER);
+		File gone = new File(dir, "gone");
+		cache.put(gone, new UrlFingerprint("md5:abc", null, null));
+		cache.flush();
+		assertFalse(gone.exists());
+		cache.shutdown();
+	}
+
+	@Test
+	public void testBatchIsSyncedTogether() throws Exception {
+		FingerprintCache cache = new FingerprintCache(FingerprintCache.FsyncPolicy.BATCH);
+		File a = new File(dir, "a");
+		File b = new File(dir, "b");
+		a.mkdirs();
+		b.mkdirs();
+		cache.put(a, new UrlFingerprint("md5:abc", "\"v1\"", null));
+		cache.put(b, new UrlFingerprint("md5:def", null, null));
+		cache.flush();
+		assertEquals("\"v1\"", UrlFingerprint.load(a).getEtag());
+		assertEquals("md5:def", UrlFingerprint.load(b).getDigest());
+		//No temporary file left behind
+		assertEquals(2, a.list().length);
+		cache.shutdown();
+	}
+
+	@Test
+	public void testRenameKeepsPendingUpdates() throws Exception {
+		FingerprintCache cache = new FingerprintCache(FingerprintCache.FsyncPolicy.BATCH);
+		File from = new File(dir, "old");
+		File to = new File(dir, "new");
+		File urlDir = new File(new File(from, UrlChangeTrigger.URL_FINGERPRINTS_DIR), "x");
+		urlDir.mkdirs();
+		cache.put(from, new UrlFingerprint("md5:abc", null, null));
+		cache.put(urlDir, new UrlFingerprint("md5:def", null, null));
+		//Hudson renames the directory before telling the listeners
+		assertTrue(from.renameTo(to));
+		cache.move(from, to);
+		assertEquals("md5:abc", UrlFingerprint.load(to).getDigest());
+		assertEquals("md5:def", UrlFingerprint.load(new File(new File(to, UrlChangeTrigger.URL_FINGERPRINTS_DIR), "x")).getDigest());
+		assertEquals("md5:abc", cache.get(to).getDigest());
+		assertFalse(from.exists());
+		cache.shutdown();
+	}
+
+	@Test
+	public void testFileStoreCreatesUrlDirectory() throws Exception {
+		FingerprintCache cache = new FingerprintCache(FingerprintCache.FsyncPolicy.ALWAYS);
+		File urlDir = new File(new File(dir, UrlChangeTrigger.URL_FINGERPRINTS_DIR), "x");
+		cache.put(urlDir, new UrlFingerprint("md5:abc", null, null));
+		FingerprintHistory history = new FingerprintHistory();
+		history.add("md5:d41d8cd98f00b204e9800998ecf8427e", 1000);
+		cache.putHistory(urlDir, history);
+		assertEquals("md5:abc", UrlFingerprint.load(urlDir).getDigest());
+		assertEquals(1, cache.getHistory(urlDir).getEntries().size());
+		cache.shutdown();
+	}
+}
@@ -0,0 +1,119 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerprintHistoryTest {
+
+	private static final String A = "md5:d41d8cd98f00b204e9800998ecf8427e";
+	private static final String B = "md5:9e107d9d372bb6826bd81d3542a419d6";
+	private static final String C = "sha256:e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("url-change-trigger", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testFlipFlopWithinWindow() {
+		FingerprintHistory history = new FingerprintHistory();
+		history.add(A, 1000);
+		history.add(B, 2000);
+		//A was current until B appeared
+		assertTrue(history.seenWithin(A, 3000, 5000));
+		assertFalse(history.seenWithin(A, 10000, 5000));
+		//The current content doesn't count
+		assertFalse(history.seenWithin(B, 3000, 5000));
+		assertFalse(history.seenWithin(C, 3000, 5000));
+	}
+
+	@Test
+	public void testBoundedRing() {
+		FingerprintHistory history = new FingerprintHistory();
+		history.add(A, 1);
+		for (int i = 0; i < FingerprintHistory.SIZE; i++)
+			history.add(i % 2 == 0 ? B : C, i + 2);
+		List<FingerprintHistory.Entry> entries = history.getEntries();
+		assertEquals(FingerprintHistory.SIZE, entries.size());
+		assertNull(entries.get(0).getUntil());
+		assertFalse(history.seenWithin(A, FingerprintHistory.SIZE + 2, Long.MAX_VALUE / 2));
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		FingerprintHistory history = new FingerprintHistory();
+		history.add(A, 0);
+		history.add(C, 2000);
+		history.save(dir, false);
+		//Raw digests, not hex strings
+		assertEquals(4 + 1 + 2 + (8 + 1 + 1 + 16) + (8 + 1 + 1 + 32), new File(dir, FingerprintHistory.HISTORY_FILE).length());
+		List<FingerprintHistory.Entry> entries = FingerprintHistory.load(dir).getEntries();
+		assertEquals(2, entries.size());
+		assertEquals(C, entries.get(0).getDigest());
+		assertEquals(2000, entries.get(0).getSince().getTime());
+		assertEquals(A, entries.get(1).getDigest());
+		assertNull(entries.get(1).getSince());
+		assertEquals(2000, entries.get(1).getUntil().getTime());
+	}
+
+	@Test
+	public void testTruncatedFile() throws Exception {
+		FingerprintHistory history = new FingerprintHistory();
+		history.add(A, 1000);
+		history.add(B, 2000);
+		history.save(dir, false);
+		RandomAccessFile file = new RandomAccessFile(new File(dir, FingerprintHistory.HISTORY_FILE), "rw");
+		file.setLength(file.length() - 3);
+		file.close();
+		List<FingerprintHistory.Entry> entries = FingerprintHistory.load(dir).getEntries();
+		assertEquals(1, entries.size());
+		assertEquals(A, entries.get(0).getDigest());
+		assertTrue(FingerprintHistory.load(new File(dir, "missing")).isEmpty());
+	}
+
+	@Test
+	public void testReadsVersion1() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0x55435448);
+		out.writeByte(1);
+		out.writeByte(1);
+		out.writeLong(1000);
+		out.writeByte(DigestAlgorithm.MD5.ordinal());
+		out.writeByte(16);
+		for (int i = 0; i < 16; i++)
+			out.writeByte(0xab);
+		out.close();
+		List<FingerprintHistory.Entry> entries = FingerprintHistory.fromBytes(bytes.toByteArray(), "test").getEntries();
+		assertEquals(1, entries.size());
+		assertEquals("md5:abababababababababababababababab", entries.get(0).getDigest());
+	}
+
+	@Test
+	public void testFullHistoryRoundTrip() throws Exception {
+		FingerprintHistory history = new FingerprintHistory();
+		for (int i = 0; i < FingerprintHistory.SIZE; i++)
+			history.add(i % 2 == 0 ? A : C, i + 1);
+		assertEquals(FingerprintHistory.SIZE, FingerprintHistory.fromBytes(history.toBytes(), "test").getEntries().size());
+	}
+}
@@ -0,0 +1,195 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HostLimiterTest {
+
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private static final Executor THREADS = new Executor() {
+		public void execute(Runnable command) {
+			new Thread(command).start();
+		}
+	};
+
+	/**
+	 * Runs a task holding a permit of the host until the returned latch is released.
+	 */
+	private static CountDownLatch hold(HostLimiter limiter, URL url) throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		limiter.execute(url, THREADS, new Runnable() {
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		return release;
+	}
+
+	@Test
+	public void testMaxConnections() throws Exception {
+		HostLimiter limiter = new HostLimiter(2, 0);
+		URL url = new URL("http://localhost:8080/a");
+		final AtomicInteger open = new AtomicInteger();
+		final AtomicInteger maxOpen = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(6);
+		for (int i = 0; i < 6; i++) {
+			limiter.execute(url, THREADS, new Runnable() {
+				public void run() {
+					int now = open.incrementAndGet();
+					synchronized (maxOpen) {
+						maxOpen.set(Math.max(maxOpen.get(), now));
+					}
+					try {
+						Thread.sleep(50);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					open.decrementAndGet();
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, maxOpen.get());
+		limiter.shutdown();
+	}
+
+	@Test
+	public void testRequestsPerSecond() throws Exception {
+		HostLimiter limiter = new HostLimiter(0, 20);
+		URL url = new URL("http://localhost/a");
+		final CountDownLatch done = new CountDownLatch(5);
+		long start = System.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			limiter.execute(url, DIRECT, new Runnable() {
+				public void run() {
+					done.countDown();
+				}
+			});
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		//First request starts right away, the other four 50 ms apart
+		assertTrue("Took " + elapsed + " ms", elapsed >= 190);
+
+		//Other hosts are not affected
+		final AtomicInteger ran = new AtomicInteger();
+		limiter.execute(new URL("http://127.0.0.1/a"), DIRECT, new Runnable() {
+			public void run() {
+				ran.incrementAndGet();
+			}
+		});
+		assertEquals(1, ran.get());
+		limiter.shutdown();
+	}
+
+	@Test
+	public void testFileUrlsAreNotLimited() throws Exception {
+		HostLimiter limiter = new HostLimiter(1, 1);
+		URL url = new URL("file:/tmp/a");
+		CountDownLatch first = hold(limiter, url);
+		CountDownLatch second = hold(limiter, url);
+		first.countDown();
+		second.countDown();
+		limiter.shutdown();
+	}
+
+	@Test
+	public void testSlowHostDoesNotTakeExecutorThreads() throws Exception {
+		HostLimiter limiter = new HostLimiter(1, 0);
+		PollExecutor executor = new PollExecutor(2, limiter);
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		final CountDownLatch slowDone = new CountDownLatch(1);
+		final CountDownLatch healthyDone = new CountDownLatch(1);
+		URL slow = new URL("http://slow.example.com/a");
+		executor.submit(slow, new Runnable() {
+			public void run() {
+				slowStarted.countDown();
+				try {
+					slowDone.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+		//Waits for the slow host without a thread
+		executor.submit(slow, new Runnable() {
+			public void run() {
+			}
+		});
+		//Gets the second thread, the queued poll of the slow host didn't take it
+		executor.submit(new URL("http://healthy.example.com/a"), new Runnable() {
+			public void run() {
+				healthyDone.countDown();
+			}
+		});
+		assertTrue(healthyDone.await(5, TimeUnit.SECONDS));
+		slowDone.countDown();
+		executor.shutdown();
+		limiter.shutdown();
+	}
+
+	@Test
+	public void testQueuedTaskRunsOnceHostIsFree() throws Exception {
+		HostLimiter limiter = new HostLimiter(1, 0);
+		URL url = new URL("http://localhost/a");
+		final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch held = hold(limiter, url);
+		final CountDownLatch queued = new CountDownLatch(1);
+		limiter.execute(url, DIRECT, new Runnable() {
+			public void run() {
+				ran.add("queued");
+				queued.countDown();
+			}
+		});
+		assertTrue(ran.isEmpty());
+		held.countDown();
+		assertTrue(queued.await(5, TimeUnit.SECONDS));
+		assertEquals(Collections.singletonList("queued"), ran);
+		//The task gave its permit back
+		hold(limiter, url).countDown();
+	}
+
+	@Test
+	public void testConfigureKeepsPermitsInFlight() throws Exception {
+		HostLimiter limiter = new HostLimiter(1, 0);
+		URL url = new URL("http://localhost/a");
+		final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch held = hold(limiter, url);
+		limiter.configure(1, 0);
+		//Still counted against the limit after the configuration was saved
+		limiter.execute(url, DIRECT, new Runnable() {
+			public void run() {
+				ran.add("waiting");
+			}
+		});
+		assertTrue(ran.isEmpty());
+		//A higher limit lets the waiting request through
+		limiter.configure(2, 0);
+		assertEquals(1, ran.size());
+		held.countDown();
+	}
+}
@@ -0,0 +1,220 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalFingerprintStoreTest {
+
+	private File root;
+	private File journal;
+	private File job;
+
+	private static final String A = "md5:d41d8cd98f00b204e9800998ecf8427e";
+	private static final String B = "md5:0cc175b9c0f1b6a831c399e269772661";
+
+	@Before
+	public void setUp() throws IOException {
+		root = File.createTempFile("url-change-trigger", "");
+		root.delete();
+		job = new File(root, "jobs/a");
+		job.mkdirs();
+		journal = new File(root, JournalFingerprintStore.JOURNAL_FILE);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	private JournalFingerprintStore open() throws IOException {
+		return new JournalFingerprintStore(journal, root);
+	}
+
+	@Test
+	public void testSaveAndReopen() throws Exception {
+		JournalFingerprintStore store = open();
+		assertNull(store.load(job).getDigest());
+		store.save(job, new UrlFingerprint("md5:abc", "\"v1\"", null, 42), true);
+		store.save(job, new UrlFingerprint("md5:def", null, "Tue, 15 Nov 1994 12:45:26 GMT"), true);
+		store.commit(true);
+		assertEquals("md5:def", store.load(job).getDigest());
+		store.close();
+
+		store = open();
+		UrlFingerprint fingerprint = store.load(job);
+		assertEquals("md5:def", fingerprint.getDigest());
+		assertNull(fingerprint.getEtag());
+		assertEquals("Tue, 15 Nov 1994 12:45:26 GMT", fingerprint.getLastModified());
+		assertEquals(-1, fingerprint.getContentLength());
+		assertEquals("jobs/a", store.getKey(job));
+		//Nothing written into the job directory
+		assertEquals(0, job.list().length);
+		store.close();
+	}
+
+	@Test
+	public void testIncompleteRecordDropped() throws Exception {
+		JournalFingerprintStore store = open();
+		store.save(job, new UrlFingerprint("md5:abc", null, null), true);
+		store.commit(true);
+		long complete = store.length();
+		store.save(job, new UrlFingerprint("md5:def", null, null), true);
+		store.close();
+		//Crash in the middle of the second record
+		RandomAccessFile file = new RandomAccessFile(journal, "rw");
+		file.setLength(file.length() - 5);
+		file.close();
+
+		store = open();
+		assertEquals("md5:abc", store.load(job).getDigest());
+		assertEquals(complete, journal.length());
+		store.save(job, new UrlFingerprint("md5:ghi", null, null), true);
+		store.close();
+		store = open();
+		assertEquals("md5:ghi", store.load(job).getDigest());
+		store.close();
+	}
+
+	@Test
+	public void testCorruptRecordDropped() throws Exception {
+		JournalFingerprintStore store = open();
+		store.save(job, new UrlFingerprint("md5:abc", null, null), true);
+		long complete = store.length();
+		store.save(job, new UrlFingerprint("md5:def", null, null), true);
+		store.close();
+		RandomAccessFile file = new RandomAccessFile(journal, "rw");
+		file.seek(file.length() - 3);
+		file.write('x');
+		file.close();
+
+		store = open();
+		assertEquals("md5:abc", store.load(job).getDigest());
+		assertEquals(complete, store.length());
+		store.close();
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		JournalFingerprintStore store = open();
+		File other = new File(root, "jobs/b");
+		other.mkdirs();
+		store.save(other, new UrlFingerprint("md5:other", null, null), true);
+		for (int i = 0; i < 5000; i++)
+			store.save(job, new UrlFingerprint("md5:" + i, "\"" + i + "\"", null), false);
+		store.commit(true);
+		assertTrue(store.length() < 2 * JournalFingerprintStore.MIN_COMPACT_SIZE);
+		assertEquals(2, store.size());
+		assertEquals("md5:4999", store.load(job).getDigest());
+		assertEquals("md5:other", store.load(other).getDigest());
+		store.close();
+		assertFalse(new File(journal.getPath() + ".compact").exists());
+		store = open();
+		assertEquals("\"4999\"", store.load(job).getEtag());
+		store.close();
+	}
+
+	@Test
+	public void testMoveAndDelete() throws Exception {
+		JournalFingerprintStore store = open();
+		File url = new File(job, UrlChangeTrigger.URL_FINGERPRINTS_DIR + "/0123");
+		store.save(job, new UrlFingerprint("md5:first", null, null), true);
+		store.save(url, new UrlFingerprint("md5:second", null, null), true);
+		File renamed = new File(root, "jobs/renamed");
+		store.move(job, renamed);
+		assertNull(store.load(job).getDigest());
+		assertEquals("md5:first", store.load(renamed).getDigest());
+		assertEquals("md5:second", store.load(new File(renamed, UrlChangeTrigger.URL_FINGERPRINTS_DIR + "/0123")).getDigest());
+		store.delete(renamed);
+		assertEquals(0, store.size());
+		store.close();
+	}
+
+	@Test
+	public void testLegacyFilesMigrated() throws Exception {
+		new UrlFingerprint("md5:legacy", "\"v1\"", null).save(job);
+		JournalFingerprintStore store = open();
+		assertEquals("md5:legacy", store.load(job).getDigest());
+		assertFalse(new File(job, UrlFingerprint.DIGEST_FILE).exists());
+		assertFalse(new File(job, UrlFingerprint.VALIDATORS_FILE).exists());
+		store.close();
+		store = open();
+		assertEquals("\"v1\"", store.load(job).getEtag());
+
+		//Back to files, the journal is copied over
+		FingerprintCache cache = new FingerprintCache(FingerprintCache.FsyncPolicy.BATCH, store);
+		cache.setStore(new FileFingerprintStore());
+		assertEquals("md5:legacy", UrlFingerprint.load(job).getDigest());
+		cache.shutdown();
+	}
+
+	@Test
+	public void testHistoryKeptInJournal() throws Exception {
+		JournalFingerprintStore store = open();
+		File url = new File(job, UrlChangeTrigger.URL_FINGERPRINTS_DIR + "/0123");
+		assertTrue(store.loadHistory(url).isEmpty());
+		FingerprintHistory history = new FingerprintHistory();
+		history.add(A, 1000);
+		history.add(B, 2000);
+		store.saveHistory(url, history, true);
+		store.save(url, new UrlFingerprint(B, null, null), true);
+		store.commit(true);
+		store.close();
+
+		store = open();
+		assertEquals(2, store.loadHistory(url).getEntries().size());
+		assertEquals(B, store.load(url).getDigest());
+		//Neither the directory of the URL nor a history file were created
+		assertFalse(url.getParentFile().exists());
+		assertEquals(0, job.list().length);
+
+		File renamed = new File(root, "jobs/renamed");
+		store.move(job, renamed);
+		assertTrue(store.loadHistory(url).isEmpty());
+		File moved = new File(renamed, UrlChangeTrigger.URL_FINGERPRINTS_DIR + "/0123");
+		assertEquals(2, store.loadHistory(moved).getEntries().size());
+		store.delete(renamed);
+		assertTrue(store.loadHistory(moved).isEmpty());
+		assertEquals(0, store.size());
+		store.close();
+	}
+
+	@Test
+	public void testHistorySurvivesCompaction() throws Exception {
+		JournalFingerprintStore store = open();
+		FingerprintHistory history = new FingerprintHistory();
+		history.add(A, 1000);
+		store.saveHistory(job, history, true);
+		for (int i = 0; i < 5000; i++)
+			store.save(job, new UrlFingerprint("md5:" + i, null, null), false);
+		store.commit(true);
+		assertTrue(store.length() < 2 * JournalFingerprintStore.MIN_COMPACT_SIZE);
+		assertEquals(A, store.loadHistory(job).getEntries().get(0).getDigest());
+		store.close();
+	}
+
+	@Test
+	public void testLegacyHistoryMigrated() throws Exception {
+		FingerprintHistory history = new FingerprintHistory();
+		history.add(A, 1000);
+		history.save(job, false);
+		JournalFingerprintStore store = open();
+		assertEquals(A, store.loadHistory(job).getEntries().get(0).getDigest());
+		assertFalse(new File(job, FingerprintHistory.HISTORY_FILE).exists());
+		store.close();
+
+		//Back to files, the history is copied over
+		store = open();
+		FingerprintCache cache = new FingerprintCache(FingerprintCache.FsyncPolicy.BATCH, store);
+		cache.setStore(new FileFingerprintStore());
+		assertEquals(A, FingerprintHistory.load(job).getEntries().get(0).getDigest());
+		cache.shutdown();
+	}
+}
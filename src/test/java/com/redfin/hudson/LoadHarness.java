@@ -0,0 +1,311 @@
+package com.redfin.hudson;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Drives a fleet of simulated triggers through their schedules against a {@link StandInServer}.
+ *
+ * Real triggers need a running Hudson to find their descriptor and job directory, so every
+ * simulated trigger does what {@link UrlChangeTrigger#run()} does with the same shared parts:
+ * skips the tick while its previous poll runs, spreads its URLs over the splay window on the
+ * {@link PollExecutor}, checks the {@link CircuitBreaker}, fetches through the
+ * {@link UrlPollRegistry}, and compares and records fingerprints in a {@link FingerprintCache}.
+ * All the triggers tick at the same instant, like Hudson's cron thread does every minute.
+ */
+class LoadHarness {
+
+	/**
+	 * Size of the fleet and settings of the plugin. Periods are shortened compared to a real
+	 * fleet, the ratios between period, splay, timeout and latency are what matters.
+	 */
+	static final class Config {
+		int triggers = 1000;
+		int urlsPerTrigger = 1;
+		/** Distinct URLs, triggers share URLs when this is below triggers * urlsPerTrigger. 0 for no sharing. */
+		int distinctUrls;
+		/** Schedule period of every trigger, in milliseconds. */
+		long period = 10000;
+		/** How long the fleet runs, in milliseconds. */
+		long duration = 60000;
+		/** Splay window, in milliseconds, capped like {@link UrlChangeTrigger#getSplayWindow()}. */
+		long splay = 5000;
+		int timeout = 5000;
+		int pollThreads = DEFAULT_POLL_THREADS;
+		/** Polls of the same URL within this many milliseconds share one fetch. */
+		long freshness = 2000;
+		int maxConnectionsPerHost;
+		int maxRequestsPerSecond;
+		boolean compression = true;
+		HttpTransport.Type transport = HttpTransport.Type.URLCONNECTION;
+		DigestAlgorithm algorithm = DigestAlgorithm.MD5;
+
+		static final int DEFAULT_POLL_THREADS = UrlChangeTrigger.DescriptorImpl.DEFAULT_POLL_THREADS;
+	}
+
+	/**
+	 * Outcome of a run.
+	 */
+	static final class Report {
+		long elapsed; //in milliseconds
+		long ticks;
+		long skippedTicks;
+		long serverRequests;
+		double meanOccupancy;
+		double maxOccupancy;
+		int peakThreads;
+		long peakHeap;
+		long heapAfterGc;
+		PollMetrics metrics;
+
+		double getPollsPerSecond() {
+			return elapsed > 0 ? metrics.getPolls() * 1000.0 / elapsed : 0;
+		}
+
+		@Override
+		public String toString() {
+			PollMetrics.Histogram total = metrics.getHistogram(PollMetrics.Phase.TOTAL);
+			return String.format("%d polls in %.1f s: %.1f polls/s, %d changes, %d not modified, %d failures %s%n"
+					+ "poll latency p50 %.0f ms, p99 %.0f ms, max %.0f ms%n"
+					+ "%d ticks, %d skipped because the previous poll was still running, %d server requests%n"
+					+ "poll threads busy %.0f%% on average, %.0f%% at peak, %d live threads at peak%n"
+					+ "heap %d MB at peak, %d MB after GC",
+					metrics.getPolls(), elapsed / 1000.0, getPollsPerSecond(), metrics.getChanges(),
+					metrics.getNotModified(), metrics.getFailures(), metrics.getFailuresByType(),
+					total.getP50(), total.getP99(), total.getMaxMillis(),
+					ticks, skippedTicks, serverRequests,
+					meanOccupancy * 100, maxOccupancy * 100, peakThreads,
+					peakHeap >> 20, heapAfterGc >> 20);
+		}
+	}
+
+	private final Config config;
+	private final StandInServer server;
+	private final PollMetrics metrics = new PollMetrics();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong ticks = new AtomicLong();
+	private final AtomicLong skippedTicks = new AtomicLong();
+
+	private PollExecutor executor;
+	private UrlPollRegistry registry;
+	private FingerprintCache fingerprints;
+	private CircuitBreaker breaker;
+	private HostLimiter limiter;
+
+	LoadHarness(Config config, StandInServer server) {
+		this.config = config;
+		this.server = server;
+	}
+
+	Report run() throws IOException, InterruptedException {
+		File root = File.createTempFile("load-harness", "");
+		root.delete();
+		limiter = new HostLimiter(config.maxConnectionsPerHost, config.maxRequestsPerSecond);
+		executor = new PollExecutor(config.pollThreads, limiter);
+		registry = new UrlPollRegistry();
+		fingerprints = new FingerprintCache(FingerprintCache.FsyncPolicy.NEVER);
+		breaker = new CircuitBreaker(UrlChangeTrigger.DescriptorImpl.DEFAULT_FAILURE_THRESHOLD, 60000L);
+		HttpTransport.configure(config.transport);
+
+		final List<SimulatedTrigger> triggers = new ArrayList<SimulatedTrigger>();
+		int distinct = config.distinctUrls > 0 ? config.distinctUrls : config.triggers * config.urlsPerTrigger;
+		for (int i = 0; i < config.triggers; i++) {
+			List<URL> urls = new ArrayList<URL>();
+			for (int j = 0; j < config.urlsPerTrigger; j++)
+				urls.add(server.getUrl((i * config.urlsPerTrigger + j) % distinct));
+			triggers.add(new SimulatedTrigger("job" + i, urls, new File(root, "job" + i)));
+		}
+
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		threads.resetPeakThreadCount();
+		final long[] occupancy = new long[3]; //samples, sum of busy threads, max busy threads
+		final long[] peakHeap = new long[1];
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				ticks.incrementAndGet();
+				registry.purge(config.freshness);
+				for (SimulatedTrigger trigger : triggers)
+					trigger.run();
+			}
+		}, 0, config.period, TimeUnit.MILLISECONDS);
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				int busy = inFlight.get();
+				synchronized (occupancy) {
+					occupancy[0]++;
+					occupancy[1] += busy;
+					occupancy[2] = Math.max(occupancy[2], busy);
+				}
+				peakHeap[0] = Math.max(peakHeap[0], memory.getHeapMemoryUsage().getUsed());
+			}
+		}, 0, 50, TimeUnit.MILLISECONDS);
+
+		long start = System.currentTimeMillis();
+		Thread.sleep(config.duration);
+		scheduler.shutdownNow();
+		scheduler.awaitTermination(config.timeout, TimeUnit.MILLISECONDS);
+		long elapsed = System.currentTimeMillis() - start;
+
+		Report report = new Report();
+		report.elapsed = elapsed;
+		report.ticks = ticks.get();
+		report.skippedTicks = skippedTicks.get();
+		report.serverRequests = server.getRequests();
+		synchronized (occupancy) {
+			int concurrency = executor.getConcurrency();
+			report.meanOccupancy = occupancy[0] > 0 ? (double)occupancy[1] / occupancy[0] / concurrency : 0;
+			report.maxOccupancy = (double)occupancy[2] / concurrency;
+		}
+		report.peakThreads = threads.getPeakThreadCount();
+		report.peakHeap = peakHeap[0];
+		report.metrics = metrics;
+
+		executor.shutdown();
+		limiter.shutdown();
+		fingerprints.shutdown();
+		System.gc();
+		report.heapAfterGc = memory.getHeapMemoryUsage().getUsed();
+		FileUtils.deleteDirectory(root);
+		return report;
+	}
+
+	private final class SimulatedTrigger {
+		private final String name;
+		private final List<URL> urls;
+		private final File dir;
+		private final AtomicBoolean polling = new AtomicBoolean();
+		private final PollMetrics triggerMetrics = new PollMetrics(metrics);
+
+		SimulatedTrigger(String name, List<URL> urls, File dir) {
+			this.name = name;
+			this.urls = urls;
+			this.dir = dir;
+		}
+
+		void run() {
+			if (!polling.compareAndSet(false, true)) {
+				skippedTicks.incrementAndGet();
+				return;
+			}
+			long now = System.currentTimeMillis();
+			final List<URL> due = new ArrayList<URL>();
+			for (URL u : urls) {
+				if (breaker.allowRequest(u, now))
+					due.add(u);
+			}
+			if (due.isEmpty()) {
+				polling.set(false);
+				return;
+			}
+			final AtomicInteger remaining = new AtomicInteger(due.size());
+			long window = UrlChangeTrigger.getSplayWindow(config.splay, config.period, config.timeout);
+			for (final URL u : due) {
+				executor.submit(busy(new Runnable() {
+					public void run() {
+						poll(u, new Runnable() {
+							public void run() {
+								if (remaining.decrementAndGet() == 0)
+									polling.set(false);
+							}
+						});
+					}
+				}), UrlChangeTrigger.getSplay(name, u, window));
+			}
+		}
+
+		/**
+		 * Same steps as the polls of {@link UrlChangeTrigger}: only the fetches wait for their host.
+		 */
+		private void poll(final URL u, final Runnable done) {
+			final long start = System.nanoTime();
+			final File urlDir = new File(dir, Integer.toString(urls.indexOf(u)));
+			final UrlFingerprint old;
+			try {
+				old = fingerprints.get(urlDir);
+			} catch (IOException e) {
+				failed(u, e, start, done);
+				return;
+			}
+			registry.poll(new PollRequest(u, config.timeout, config.algorithm)
+					.compression(config.compression)
+					.metrics(triggerMetrics), old, config.freshness, 0, new Executor() {
+						public void execute(Runnable fetch) {
+							executor.submit(u, busy(fetch));
+						}
+					}, new UrlPollRegistry.Callback() {
+						public void completed(UrlFingerprint current) {
+							try {
+								record(urlDir, old, current);
+								breaker.success(u);
+							} catch (IOException e) {
+								SimulatedTrigger.this.failed(u, e, start, done);
+								return;
+							}
+							polled(start, done);
+						}
+
+						public void failed(IOException e) {
+							SimulatedTrigger.this.failed(u, e, start, done);
+						}
+					});
+		}
+
+		/**
+		 * Counts the task as occupying a poll thread while it runs.
+		 */
+		private Runnable busy(final Runnable task) {
+			return new Runnable() {
+				public void run() {
+					inFlight.incrementAndGet();
+					try {
+						task.run();
+					} finally {
+						inFlight.decrementAndGet();
+					}
+				}
+			};
+		}
+
+		private void record(File urlDir, UrlFingerprint old, UrlFingerprint current) throws IOException {
+			if (current.getDigest() == null)
+				return;
+			if (!urlDir.isDirectory())
+				urlDir.mkdirs();
+			if (!current.getDigest().equalsIgnoreCase(old.getDigest() != null ? old.getDigest() : "null")) {
+				fingerprints.put(urlDir, current);
+				triggerMetrics.changed();
+			} else if (!current.sameValidators(old)) {
+				fingerprints.put(urlDir, current);
+			}
+		}
+
+		private void failed(URL u, IOException e, long start, Runnable done) {
+			triggerMetrics.failed(e);
+			breaker.failure(u, System.currentTimeMillis(), e);
+			polled(start, done);
+		}
+
+		private void polled(long start, Runnable done) {
+			triggerMetrics.polled();
+			triggerMetrics.time(PollMetrics.Phase.TOTAL, System.nanoTime() - start);
+			done.run();
+		}
+	}
+}
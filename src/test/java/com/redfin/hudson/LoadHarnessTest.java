@@ -0,0 +1,74 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs a small fleet through {@link LoadHarness} so the harness keeps working.
+ *
+ * Fleet-scale runs override the defaults with <tt>loadtest.*</tt> system properties, e.g.
+ * <pre>
+ * mvn test -Dtest=LoadHarnessTest -Dloadtest.triggers=5000 -Dloadtest.period=60000 \
+ *     -Dloadtest.duration=600000 -Dloadtest.latency=200 -Dloadtest.failureRate=0.01
+ * </pre>
+ * and read the report on the standard output.
+ */
+public class LoadHarnessTest {
+
+	private StandInServer server;
+	private LoadHarness.Config config;
+
+	@Before
+	public void setUp() throws Exception {
+		StandInServer.Behavior behavior = new StandInServer.Behavior();
+		behavior.latency = Long.getLong("loadtest.latency", 10);
+		behavior.jitter = Long.getLong("loadtest.jitter", 10);
+		behavior.bodySize = Integer.getInteger("loadtest.bodySize", 4096);
+		behavior.changePeriod = Long.getLong("loadtest.changePeriod", 1500);
+		behavior.dripChunks = Integer.getInteger("loadtest.dripChunks", 1);
+		behavior.dripDelay = Long.getLong("loadtest.dripDelay", 0);
+		behavior.failureRate = Double.parseDouble(System.getProperty("loadtest.failureRate", "0.02"));
+		behavior.deadRate = Double.parseDouble(System.getProperty("loadtest.deadRate", "0"));
+		server = new StandInServer(behavior);
+		server.start();
+
+		config = new LoadHarness.Config();
+		config.triggers = Integer.getInteger("loadtest.triggers", 200);
+		config.urlsPerTrigger = Integer.getInteger("loadtest.urlsPerTrigger", 1);
+		config.distinctUrls = Integer.getInteger("loadtest.distinctUrls", 150);
+		config.period = Long.getLong("loadtest.period", 1000);
+		config.duration = Long.getLong("loadtest.duration", 3000);
+		config.splay = Long.getLong("loadtest.splay", 500);
+		config.timeout = Integer.getInteger("loadtest.timeout", 500);
+		config.freshness = Long.getLong("loadtest.freshness", config.period / 2);
+		config.pollThreads = Integer.getInteger("loadtest.pollThreads", LoadHarness.Config.DEFAULT_POLL_THREADS);
+		config.maxConnectionsPerHost = Integer.getInteger("loadtest.maxConnectionsPerHost", 0);
+		config.maxRequestsPerSecond = Integer.getInteger("loadtest.maxRequestsPerSecond", 0);
+		config.compression = Boolean.parseBoolean(System.getProperty("loadtest.compression", "true"));
+		config.transport = HttpTransport.Type.fromName(System.getProperty("loadtest.transport", "URLCONNECTION"));
+		config.algorithm = DigestAlgorithm.fromId(System.getProperty("loadtest.algorithm", "md5"));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+		HttpTransport.configure(HttpTransport.Type.URLCONNECTION);
+	}
+
+	@Test
+	public void testFleet() throws Exception {
+		LoadHarness.Report report = new LoadHarness(config, server).run();
+		System.out.println(report);
+		PollMetrics metrics = report.metrics;
+		assertTrue(report.ticks >= 2);
+		assertTrue(metrics.getPolls() >= config.triggers);
+		assertTrue(metrics.getChanges() > 0);
+		//Triggers sharing a URL share its fetches
+		assertTrue(report.serverRequests < metrics.getPolls());
+		assertTrue(report.getPollsPerSecond() > 0);
+		assertTrue(report.maxOccupancy <= 1.0);
+	}
+}
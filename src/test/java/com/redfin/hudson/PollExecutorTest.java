@@ -0,0 +1,126 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PollExecutorTest {
+
+	/**
+	 * Records how many polls run at the same time, and blocks until released.
+	 */
+	private static class BlockingPoll implements Runnable {
+		final AtomicInteger running;
+		final AtomicInteger maxRunning;
+		final CountDownLatch release;
+		final CountDownLatch done;
+
+		BlockingPoll(AtomicInteger running, AtomicInteger maxRunning, CountDownLatch release, CountDownLatch done) {
+			this.running = running;
+			this.maxRunning = maxRunning;
+			this.release = release;
+			this.done = done;
+		}
+
+		public void run() {
+			int now = running.incrementAndGet();
+			synchronized (maxRunning) {
+				maxRunning.set(Math.max(maxRunning.get(), now));
+			}
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			} finally {
+				running.decrementAndGet();
+				done.countDown();
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrencyLimit() throws Exception {
+		PollExecutor executor = new PollExecutor(2);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(6);
+		for (int i = 0; i < 6; i++)
+			executor.submit(new BlockingPoll(running, maxRunning, release, done));
+		Thread.sleep(200);
+		assertEquals(2, running.get());
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, maxRunning.get());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testSetConcurrency() throws Exception {
+		PollExecutor executor = new PollExecutor(1);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(4);
+		for (int i = 0; i < 4; i++)
+			executor.submit(new BlockingPoll(running, maxRunning, release, done));
+		Thread.sleep(200);
+		assertEquals(1, running.get());
+		//The queued polls start as soon as the limit is raised
+		executor.setConcurrency(3);
+		assertEquals(3, executor.getConcurrency());
+		Thread.sleep(200);
+		assertEquals(3, running.get());
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		executor.setConcurrency(0);
+		assertEquals(1, executor.getConcurrency());
+		executor.shutdown();
+	}
+
+	@Test
+	public void testDelayedSubmit() throws Exception {
+		PollExecutor executor = new PollExecutor(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		final long[] ranAt = new long[1];
+		long submittedAt = System.nanoTime();
+		executor.submit(new Runnable() {
+			public void run() {
+				ranAt[0] = System.nanoTime();
+				done.countDown();
+			}
+		}, 300);
+		assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(ranAt[0] - submittedAt) >= 300);
+		executor.shutdown();
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		PollExecutor executor = new PollExecutor(1);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		final AtomicInteger dropped = new AtomicInteger();
+		Runnable late = new Runnable() {
+			public void run() {
+				dropped.incrementAndGet();
+			}
+		};
+		executor.submit(new BlockingPoll(running, maxRunning, release, done));
+		executor.submit(late, 100);
+		executor.shutdown();
+		//Polls submitted after the shutdown are dropped, the running one still completes
+		executor.submit(late);
+		assertFalse(executor.awaitTermination(100, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		Thread.sleep(200);
+		assertEquals(0, dropped.get());
+	}
+}
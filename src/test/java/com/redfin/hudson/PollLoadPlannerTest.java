@@ -0,0 +1,56 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PollLoadPlannerTest {
+
+	private static final long HOUR = 3600000L;
+
+	private List<PollLoadPlanner.Job> getJobs() throws Exception {
+		List<PollLoadPlanner.Job> jobs = new ArrayList<PollLoadPlanner.Job>();
+		jobs.add(new PollLoadPlanner.Job("every5", "*/5 * * * *",
+				Arrays.asList(new URL("http://localhost/a"), new URL("http://localhost/b")), 10));
+		jobs.add(new PollLoadPlanner.Job("default", "", Collections.singletonList(new URL("http://localhost/c")), 10));
+		return jobs;
+	}
+
+	@Test
+	public void testDefaultSchedule() throws Exception {
+		PollLoadPlanner.Projection projection = new PollLoadPlanner("*/5 * * * *", "*/10 * * * *", 0).plan(getJobs(), 100 * HOUR, 1);
+		assertEquals(2, projection.getJobs());
+		assertEquals(3, projection.getUrls());
+		assertEquals(1, projection.getDefaultJobs());
+		assertEquals(0, projection.getFasterThanMinimum());
+		//12 runs of 2 URLs and 6 runs of 1 URL
+		assertEquals(30 / 60.0, projection.getPollsPerMinute(), 0.001);
+		assertEquals(3, projection.getPeakMinutePolls());
+		assertEquals(3, projection.getPeakSecondPolls());
+		assertEquals(3, projection.getPeakConcurrency());
+
+		PollLoadPlanner.Projection preview = new PollLoadPlanner("*/10 * * * *", "* * * * *", 0).plan(getJobs(), 100 * HOUR, 1);
+		assertEquals(1, preview.getFasterThanMinimum());
+		assertEquals(84 / 60.0, preview.getPollsPerMinute(), 0.001);
+	}
+
+	@Test
+	public void testSplay() throws Exception {
+		List<PollLoadPlanner.Job> jobs = new ArrayList<PollLoadPlanner.Job>();
+		for (int i = 0; i < 100; i++)
+			jobs.add(new PollLoadPlanner.Job("job" + i, "*/5 * * * *", Collections.singletonList(new URL("http://localhost/" + i)), 10));
+		PollLoadPlanner.Projection bursty = new PollLoadPlanner("", "", 0).plan(jobs, 100 * HOUR, 5);
+		assertEquals(100, bursty.getPeakSecondPolls());
+		assertEquals(100, bursty.getPeakConcurrency());
+		PollLoadPlanner.Projection spread = new PollLoadPlanner("", "", 120).plan(jobs, 100 * HOUR, 5);
+		assertEquals(100, spread.getPeakMinutePolls());
+		assertTrue(spread.getPeakSecondPolls() < 10);
+		assertTrue(spread.getPeakConcurrency() < 20);
+	}
+}
@@ -0,0 +1,62 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import org.junit.Test;
+
+public class PollMetricsTest {
+
+	private static final long MILLISECOND = 1000000L;
+
+	@Test
+	public void testPercentiles() {
+		PollMetrics.Histogram histogram = new PollMetrics.Histogram();
+		assertEquals(0, histogram.getP50(), 0);
+		for (int i = 0; i < 98; i++)
+			histogram.record(3 * MILLISECOND);
+		histogram.record(150 * MILLISECOND);
+		histogram.record(90000 * MILLISECOND);
+		assertEquals(100, histogram.getCount());
+		assertEquals(5, histogram.getP50(), 0);
+		assertEquals(200, histogram.getP99(), 0);
+		//Last bucket has no upper bound, the maximum stands in for it
+		assertEquals(90000, histogram.getPercentileMillis(100), 0);
+		assertEquals(90000, histogram.getMaxMillis(), 0);
+		assertEquals((98 * 3 + 150 + 90000) / 100.0, histogram.getMeanMillis(), 0.001);
+	}
+
+	@Test
+	public void testPercentileCappedByMax() {
+		PollMetrics.Histogram histogram = new PollMetrics.Histogram();
+		histogram.record(600 * MILLISECOND);
+		assertEquals(600, histogram.getP50(), 0);
+	}
+
+	@Test
+	public void testParent() {
+		PollMetrics global = new PollMetrics();
+		PollMetrics job1 = new PollMetrics(global);
+		PollMetrics job2 = new PollMetrics(global);
+		job1.polled();
+		job1.changed();
+		job2.polled();
+		job2.read(100);
+		job1.failed(new SocketTimeoutException());
+		job2.failed(new SocketTimeoutException());
+		job2.failed(new IOException());
+		job1.time(PollMetrics.Phase.TOTAL, 10 * MILLISECOND);
+		assertEquals(1, job1.getPolls());
+		assertEquals(2, global.getPolls());
+		assertEquals(1, global.getChanges());
+		assertEquals(100, global.getBytesRead());
+		assertEquals(0, job1.getBytesRead());
+		assertEquals(3, global.getFailures());
+		assertEquals(Long.valueOf(2), global.getFailuresByType().get("SocketTimeoutException"));
+		assertEquals(Long.valueOf(1), job2.getFailuresByType().get("IOException"));
+		assertEquals(1, global.getHistogram(PollMetrics.Phase.TOTAL).getCount());
+		assertEquals(0, job2.getHistogram(PollMetrics.Phase.TOTAL).getCount());
+	}
+}
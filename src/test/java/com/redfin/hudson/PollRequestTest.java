@@ -0,0 +1,229 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class PollRequestTest {
+
+	private HttpServer server;
+	private URL url;
+	private final AtomicInteger gets = new AtomicInteger();
+	private final AtomicInteger heads = new AtomicInteger();
+	private volatile String body = "version=1";
+	private volatile String etag = "\"v1\"";
+	private volatile boolean conditional = true;
+	private volatile boolean rangeSupport;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] content = body.getBytes("UTF-8");
+				exchange.getResponseHeaders().add("ETag", etag);
+				exchange.getResponseHeaders().add("Last-Modified", "Tue, 15 Nov 1994 12:45:26 GMT");
+				if ("HEAD".equals(exchange.getRequestMethod())) {
+					heads.incrementAndGet();
+					exchange.getResponseHeaders().add("Content-Length", Integer.toString(content.length));
+					exchange.sendResponseHeaders(200, -1);
+					exchange.close();
+					return;
+				}
+				gets.incrementAndGet();
+				if (conditional && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				String range = exchange.getRequestHeaders().getFirst("Range");
+				if (rangeSupport && range != null) {
+					//Single bytes=first-last range only
+					String[] bounds = range.substring(6).split("-");
+					int first = Integer.parseInt(bounds[0]);
+					int last = Math.min(content.length - 1, Integer.parseInt(bounds[1]));
+					exchange.getResponseHeaders().add("Content-Range", "bytes " + first + "-" + last + "/" + content.length);
+					exchange.sendResponseHeaders(206, last - first + 1);
+					OutputStream out = exchange.getResponseBody();
+					out.write(content, first, last - first + 1);
+					out.close();
+					return;
+				}
+				String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				if (encoding != null && encoding.contains("gzip")) {
+					exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+					exchange.sendResponseHeaders(200, 0);
+					OutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+					out.write(content);
+					out.close();
+					return;
+				}
+				exchange.sendResponseHeaders(200, content.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(content);
+				out.close();
+			}
+		});
+		server.start();
+		url = new URL("http://localhost:" + server.getAddress().getPort() + "/latest");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testNotModified() throws Exception {
+		PollRequest request = new PollRequest(url, 5000);
+		UrlFingerprint first = request.fetch(new UrlFingerprint(null, null, null));
+		assertEquals("\"v1\"", first.getEtag());
+		assertSame(first, request.fetch(first));
+		assertEquals(2, gets.get());
+
+		body = "version=2";
+		etag = "\"v2\"";
+		UrlFingerprint second = request.fetch(first);
+		assertFalse(first.getDigest().equals(second.getDigest()));
+	}
+
+	@Test
+	public void testHeadProbe() throws Exception {
+		conditional = false;
+		PollRequest request = new PollRequest(url, 5000).headProbe(true);
+		UrlFingerprint first = request.fetch(new UrlFingerprint(null, null, null));
+		assertEquals(1, gets.get());
+		assertEquals(9, first.getContentLength());
+		assertSame(first, request.fetch(first));
+		assertEquals(1, gets.get());
+		assertEquals(1, heads.get());
+
+		etag = "\"v2\"";
+		request.fetch(first);
+		assertEquals(2, gets.get());
+	}
+
+	@Test
+	public void testHttp2Transport() throws Exception {
+		if (!HttpTransport.Type.HTTP2.isAvailable())
+			return;
+		HttpTransport.configure(HttpTransport.Type.HTTP2);
+		try {
+			testNotModified();
+			gets.set(0);
+			etag = "\"v1\"";
+			testHeadProbe();
+		} finally {
+			HttpTransport.configure(HttpTransport.Type.URLCONNECTION);
+		}
+	}
+
+	@Test
+	public void testRanges() throws Exception {
+		String expected = DigestAlgorithm.MD5.digest(new ByteArrayInputStream("versn=1".getBytes("UTF-8")));
+		PollRequest request = new PollRequest(url, 5000).ranges(ByteRanges.parse("0-3, 6-8"));
+		//Server ignoring the Range header
+		assertEquals(expected, request.fetch(null).getDigest());
+		rangeSupport = true;
+		UrlFingerprint fingerprint = request.fetch(null);
+		assertEquals(expected, fingerprint.getDigest());
+		assertEquals(9, fingerprint.getContentLength());
+	}
+
+	@Test
+	public void testMaxBytes() throws Exception {
+		try {
+			new PollRequest(url, 5000).maxBytes(4).fetch(null);
+			fail("Content is larger than the maximum");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("maximum"));
+		}
+		assertNotNull(new PollRequest(url, 5000).maxBytes(9).fetch(null).getDigest());
+		//Only the ranges count
+		assertNotNull(new PollRequest(url, 5000).maxBytes(4).ranges(ByteRanges.parse("0-3")).fetch(null).getDigest());
+	}
+
+	@Test
+	public void testParseByteRanges() {
+		assertNull(ByteRanges.parse(" "));
+		assertEquals("0-1023, -512, 4096-", ByteRanges.parse("bytes=0-1023,-512 , 4096-").toString());
+		for (String invalid : new String[] { "12", "5-2", "a-b", "-0" }) {
+			try {
+				ByteRanges.parse(invalid);
+				fail(invalid);
+			} catch (IllegalArgumentException e) {
+				//expected
+			}
+		}
+	}
+
+	@Test
+	public void testCompression() throws Exception {
+		UrlFingerprint plain = new PollRequest(url, 5000).fetch(null);
+		UrlFingerprint compressed = new PollRequest(url, 5000).compression(true).fetch(null);
+		assertEquals(plain.getDigest(), compressed.getDigest());
+		//Decoded content counts against the cap
+		try {
+			new PollRequest(url, 5000).compression(true).maxBytes(4).fetch(null);
+			fail("Content is larger than the maximum");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("maximum"));
+		}
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		PollMetrics global = new PollMetrics();
+		PollMetrics metrics = new PollMetrics(global);
+		PollRequest request = new PollRequest(url, 5000).metrics(metrics);
+		UrlFingerprint first = request.fetch(null);
+		assertEquals(9, metrics.getBytesRead());
+		request.fetch(first);
+		assertEquals(1, metrics.getNotModified());
+		assertEquals(9, metrics.getBytesRead());
+		assertEquals(2, metrics.getHistogram(PollMetrics.Phase.CONNECT).getCount());
+		assertEquals(2, metrics.getHistogram(PollMetrics.Phase.FIRST_BYTE).getCount());
+		assertEquals(1, metrics.getHistogram(PollMetrics.Phase.READ).getCount());
+		assertEquals(1, metrics.getHistogram(PollMetrics.Phase.DIGEST).getCount());
+		assertEquals(9, global.getBytesRead());
+		assertEquals(1, global.getNotModified());
+	}
+
+	@Test
+	public void testSerializedForAgent() throws Exception {
+		PollRequest request = new PollRequest(url, 5000, DigestAlgorithm.SHA256)
+				.selector(ContentSelector.create("REGEX", "version=(\\d+)"))
+				.ranges(ByteRanges.parse("0-99"))
+				.metrics(new PollMetrics())
+				.agent("near-server");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(request);
+		out.close();
+		PollRequest copy = (PollRequest)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		//The agent fetches locally
+		assertNull(copy.getAgent());
+		assertEquals(new PollRequest(url, 5000, DigestAlgorithm.SHA256)
+				.selector(ContentSelector.create("REGEX", "version=(\\d+)"))
+				.ranges(ByteRanges.parse("0-99")), copy);
+		assertFalse(copy.equals(request));
+		assertEquals(DigestAlgorithm.SHA256, copy.fetch(null).getAlgorithm());
+	}
+}
@@ -0,0 +1,78 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PollTimesTest {
+
+	private File file;
+	private URL a;
+	private URL b;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("url-change-trigger-poll-times", "");
+		file.delete();
+		a = new URL("http://example.com/a");
+		b = new URL("http://example.com/b");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testSurvivesRestart() {
+		PollTimes times = new PollTimes(file);
+		assertNull(times.get("job", a));
+		times.polled("job", a, 1000);
+		times.polled("job", b, 2000);
+		times.polled("other", a, 3000);
+		times.shutdown();
+
+		PollTimes restarted = new PollTimes(file);
+		assertEquals(Long.valueOf(1000), restarted.get("job", a));
+		assertEquals(Long.valueOf(2000), restarted.get("job", b));
+		assertEquals(Long.valueOf(3000), restarted.get("other", a));
+		restarted.shutdown();
+	}
+
+	@Test
+	public void testForgetJob() {
+		PollTimes times = new PollTimes(file);
+		times.polled("job", a, 1000);
+		times.polled("job2", a, 2000);
+		times.forget("job");
+		times.shutdown();
+
+		PollTimes restarted = new PollTimes(file);
+		assertNull(restarted.get("job", a));
+		assertEquals(Long.valueOf(2000), restarted.get("job2", a));
+		restarted.shutdown();
+	}
+
+	@Test
+	public void testTruncatedFile() throws IOException {
+		PollTimes times = new PollTimes(file);
+		times.polled("job", a, 1000);
+		times.polled("job", b, 2000);
+		times.shutdown();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 4);
+		raf.close();
+
+		//The complete entry is kept, the URL of the truncated one is just polled during the warm-up
+		PollTimes restarted = new PollTimes(file);
+		assertTrue(restarted.get("job", a) != null ^ restarted.get("job", b) != null);
+		restarted.shutdown();
+	}
+}
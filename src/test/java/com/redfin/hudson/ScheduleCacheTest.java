@@ -0,0 +1,32 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import org.antlr.runtime.RecognitionException;
+import org.junit.Test;
+
+public class ScheduleCacheTest {
+
+	private static final long MINUTE = 60000L;
+
+	@Test
+	public void testCompiledOnce() throws Exception {
+		assertSame(ScheduleCache.getCronTab("*/5 * * * *"), ScheduleCache.getCronTab("*/5 * * * *"));
+		assertSame(ScheduleCache.getCronTabList("*/5 * * * *"), ScheduleCache.getCronTabList("*/5 * * * *"));
+	}
+
+	@Test
+	public void testInterval() throws Exception {
+		long start = 1000 * 60 * MINUTE + MINUTE / 2;
+		assertEquals(5 * MINUTE, ScheduleCache.getInterval("*/5 * * * *", start));
+		//Still in the same interval, and in the next one
+		assertEquals(5 * MINUTE, ScheduleCache.getInterval("*/5 * * * *", start + MINUTE));
+		assertEquals(5 * MINUTE, ScheduleCache.getInterval("*/5 * * * *", start + 7 * MINUTE));
+		assertEquals(UrlChangeTrigger.DescriptorImpl.getInterval("*/5 * * * *"), 5 * MINUTE);
+	}
+
+	@Test(expected=RecognitionException.class)
+	public void testInvalid() throws Exception {
+		ScheduleCache.getCronTab("not a schedule");
+	}
+}
@@ -0,0 +1,182 @@
+package com.redfin.hudson;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP server standing in for the thousands of URLs a Hudson fleet polls.
+ *
+ * URL <tt>/u/&lt;id&gt;</tt> serves a body that changes every {@link Behavior#changePeriod}
+ * milliseconds, each URL at its own phase. Answers are delayed, dripped, failed or dropped
+ * as configured, and <tt>If-None-Match</tt> is honored so conditional polls get a 304.
+ */
+class StandInServer {
+
+	/**
+	 * How the stand-in URLs behave. Every field applies to all the URLs.
+	 */
+	static final class Behavior {
+		/** Delay before the response headers, in milliseconds. */
+		long latency = 20;
+		/** Random extra delay before the headers, up to this many milliseconds. */
+		long jitter = 10;
+		/** Bytes in every body. */
+		int bodySize = 4096;
+		/** Each URL changes once per period, in milliseconds. 0 for never. */
+		long changePeriod = 60000;
+		/** Number of pieces the body is sent in, with {@link #dripDelay} between two pieces. */
+		int dripChunks = 1;
+		/** Pause between two pieces of the body, in milliseconds. */
+		long dripDelay;
+		/** Share of the requests answered with a 503. */
+		double failureRate;
+		/** Share of the URLs whose requests are dropped without an answer. */
+		double deadRate;
+		/** Sends an <tt>ETag</tt> and answers 304 when it matches. */
+		boolean etags = true;
+	}
+
+	private final Behavior behavior;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	StandInServer(Behavior behavior) throws IOException {
+		this.behavior = behavior;
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 4096);
+		//One thread per request in flight, like a real server farm the latencies overlap
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "StandInServer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext("/u/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	void start() {
+		server.start();
+	}
+
+	void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	URL getUrl(int id) throws MalformedURLException {
+		return new URL("http://localhost:" + server.getAddress().getPort() + "/u/" + id);
+	}
+
+	long getRequests() {
+		return requests.get();
+	}
+
+	long getNotModified() {
+		return notModified.get();
+	}
+
+	long getFailed() {
+		return failed.get();
+	}
+
+	long getBytes() {
+		return bytes.get();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		int id;
+		try {
+			id = Integer.parseInt(exchange.getRequestURI().getPath().substring(3));
+		} catch (NumberFormatException e) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		//Per URL values are derived from the id so they stay the same from one request to the next
+		Random perUrl = new Random(id);
+		if (perUrl.nextDouble() < behavior.deadRate) {
+			failed.incrementAndGet();
+			return;
+		}
+		long phase = behavior.changePeriod > 0 ? (long)(perUrl.nextDouble() * behavior.changePeriod) : 0;
+		long version = behavior.changePeriod > 0 ? (System.currentTimeMillis() + phase) / behavior.changePeriod : 0;
+
+		Random perRequest = new Random();
+		sleep(behavior.latency + (behavior.jitter > 0 ? (long)(perRequest.nextDouble() * behavior.jitter) : 0));
+		if (perRequest.nextDouble() < behavior.failureRate) {
+			failed.incrementAndGet();
+			exchange.sendResponseHeaders(503, -1);
+			return;
+		}
+		String etag = "\"" + id + "-" + version + "\"";
+		if (behavior.etags) {
+			exchange.getResponseHeaders().add("ETag", etag);
+			if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+				return;
+			}
+		}
+		byte[] body = getBody(id, version);
+		if ("HEAD".equals(exchange.getRequestMethod())) {
+			exchange.getResponseHeaders().add("Content-Length", Integer.toString(body.length));
+			exchange.sendResponseHeaders(200, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		int chunks = Math.max(1, behavior.dripChunks);
+		int chunk = (body.length + chunks - 1) / chunks;
+		for (int offset = 0; offset < body.length; offset += chunk) {
+			if (offset > 0)
+				sleep(behavior.dripDelay);
+			out.write(body, offset, Math.min(chunk, body.length - offset));
+			out.flush();
+		}
+		out.close();
+		bytes.addAndGet(body.length);
+	}
+
+	private byte[] getBody(int id, long version) {
+		byte[] body = new byte[behavior.bodySize];
+		byte[] stamp = ("url=" + id + " version=" + version + "\n").getBytes();
+		for (int i = 0; i < body.length; i++)
+			body[i] = stamp[i % stamp.length];
+		return body;
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0)
+			return;
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -16,11 +16,15 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.net.URL;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import com.redfin.hudson.UrlChangeTrigger;
@@ -53,6 +57,49 @@ public class UrlChangeTriggerPluginTest {
         urlChangeTrigger.getInputStream(timeout);
 	}
 	
+	@Test
+	public void testMultipleUrls() throws Exception {
+		List<URL> urls = UrlChangeTrigger.DescriptorImpl.parseUrls(url+"a\n "+url+"b "+url+"a\n");
+		assertEquals(2, urls.size());
+		UrlChangeTrigger urlChangeTrigger = new UrlChangeTrigger(urls, timeout, confSpec);
+		assertEquals(new URL(url+"a"), urlChangeTrigger.getUrl());
+		assertEquals(urls, urlChangeTrigger.getUrls());
+		assertEquals(url+"a\n"+url+"b", urlChangeTrigger.getUrlList());
+		
+		UrlChangeCause cause = new UrlChangeCause(urls.subList(1, 2), timeout);
+		assertEquals(urls.subList(1, 2), cause.getUrls());
+	}
+	
+	@Test
+	public void testSplay() throws Exception {
+		URL u = new URL(url);
+		long window = 60000L;
+		long splay = UrlChangeTrigger.getSplay("job", u, window);
+		assertTrue(splay>=0 && splay<window);
+		assertEquals(splay, UrlChangeTrigger.getSplay("job", u, window));
+		assertEquals(0, UrlChangeTrigger.getSplay("job", u, 0));
+		
+		//Different jobs are spread over the window
+		Set<Long> delays = new HashSet<Long>();
+		for (int i = 0; i < 20; i++)
+			delays.add(UrlChangeTrigger.getSplay("job"+i, u, window));
+		assertTrue(delays.size()>15);
+	}
+	
+	@Test
+	public void testSplayWindow() {
+		assertEquals(0, UrlChangeTrigger.getSplayWindow(0, 60000L, 60000L));
+		//Default schedule and timeout still spread the polls
+		assertEquals(30000L, UrlChangeTrigger.getSplayWindow(45000L, 60000L, 60000L));
+		assertEquals(45000L, UrlChangeTrigger.getSplayWindow(45000L, 300000L, 60000L));
+		assertEquals(240000L, UrlChangeTrigger.getSplayWindow(600000L, 300000L, 60000L));
+	}
+	
+	@Test(expected=MalformedURLException.class)
+	public void testNoUrl() throws Exception {
+		UrlChangeTrigger.DescriptorImpl.parseUrls(" \n ");
+	}
+	
 	
 	//@Test(expected=SocketTimeoutException.class)
 	public void testReadTimeout() throws Exception {
@@ -0,0 +1,59 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UrlFingerprintTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("url-change-trigger", "");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testEmptyDirectory() throws Exception {
+		UrlFingerprint fingerprint = UrlFingerprint.load(dir);
+		assertNull(fingerprint.getDigest());
+		assertFalse(fingerprint.hasValidators());
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		new UrlFingerprint("md5:d41d8cd98f00b204e9800998ecf8427e", "\"abc\"", "Tue, 15 Nov 1994 12:45:26 GMT").save(dir);
+		UrlFingerprint fingerprint = UrlFingerprint.load(dir);
+		assertEquals("md5:d41d8cd98f00b204e9800998ecf8427e", fingerprint.getDigest());
+		assertEquals("\"abc\"", fingerprint.getEtag());
+		assertEquals("Tue, 15 Nov 1994 12:45:26 GMT", fingerprint.getLastModified());
+		assertTrue(fingerprint.hasValidators());
+	}
+
+	@Test
+	public void testLegacyDigestFile() throws Exception {
+		FileUtils.writeStringToFile(new File(dir, UrlFingerprint.DIGEST_FILE), "D41D8CD98F00B204E9800998ECF8427E\n");
+		UrlFingerprint fingerprint = UrlFingerprint.load(dir);
+		assertEquals("md5:d41d8cd98f00b204e9800998ecf8427e", fingerprint.getDigest());
+		assertEquals(DigestAlgorithm.MD5, fingerprint.getAlgorithm());
+	}
+
+	@Test
+	public void testValidatorsWithoutDigestAreNotSent() throws Exception {
+		assertFalse(new UrlFingerprint(null, "\"abc\"", null).hasValidators());
+	}
+}
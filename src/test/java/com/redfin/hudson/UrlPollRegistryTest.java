@@ -0,0 +1,163 @@
+package com.redfin.hudson;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class UrlPollRegistryTest {
+
+	private static class CountingRequest extends PollRequest {
+		final AtomicInteger fetches;
+		final long delay;
+
+		CountingRequest(String url, AtomicInteger fetches, long delay) throws Exception {
+			super(new URL(url), 1000);
+			this.fetches = fetches;
+			this.delay = delay;
+		}
+
+		@Override
+		public UrlFingerprint fetch(UrlFingerprint known) throws IOException {
+			fetches.incrementAndGet();
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+			}
+			return new UrlFingerprint("digest", null, null);
+		}
+	}
+
+	@Test
+	public void testConcurrentPollsShareOneFetch() throws Exception {
+		final UrlPollRegistry registry = new UrlPollRegistry();
+		final AtomicInteger fetches = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			final PollRequest request = new CountingRequest("http://localhost:9090/latest", fetches, 500);
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						registry.poll(request, new UrlFingerprint(null, null, null), 0);
+					} catch (IOException e) {
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(1, fetches.get());
+	}
+
+	@Test
+	public void testFreshResultIsReused() throws Exception {
+		UrlPollRegistry registry = new UrlPollRegistry();
+		AtomicInteger fetches = new AtomicInteger();
+		PollRequest request = new CountingRequest("http://localhost:9090/latest", fetches, 0);
+		registry.poll(request, null, 60000);
+		registry.poll(request, null, 60000);
+		assertEquals(1, fetches.get());
+		registry.poll(request, null, 0);
+		assertEquals(2, fetches.get());
+	}
+
+	@Test
+	public void testDifferentUrlsAreFetchedSeparately() throws Exception {
+		UrlPollRegistry registry = new UrlPollRegistry();
+		AtomicInteger fetches = new AtomicInteger();
+		registry.poll(new CountingRequest("http://localhost:9090/a", fetches, 0), null, 60000);
+		registry.poll(new CountingRequest("http://localhost:9090/b", fetches, 0), null, 60000);
+		assertEquals(2, fetches.get());
+	}
+
+	@Test
+	public void testNotBefore() throws Exception {
+		UrlPollRegistry registry = new UrlPollRegistry();
+		AtomicInteger fetches = new AtomicInteger();
+		PollRequest request = new CountingRequest("http://localhost:9090/latest", fetches, 0);
+		registry.poll(request, null, 60000);
+		Thread.sleep(5);
+		long notifiedAt = System.currentTimeMillis();
+		//Fresh but older than the announcement
+		registry.poll(request, null, 60000, notifiedAt);
+		assertEquals(2, fetches.get());
+		registry.poll(request, null, 60000, notifiedAt);
+		assertEquals(2, fetches.get());
+	}
+
+	@Test
+	public void testOnlyTheNewFetchWaitsForItsHost() throws Exception {
+		UrlPollRegistry registry = new UrlPollRegistry();
+		AtomicInteger fetches = new AtomicInteger();
+		//One request per second: 50 pollers of the same URL must not wait 50 seconds
+		final HostLimiter limiter = new HostLimiter(1, 1);
+		final ExecutorService threads = Executors.newFixedThreadPool(2);
+		final AtomicInteger handedOver = new AtomicInteger();
+		final CountDownLatch completed = new CountDownLatch(50);
+		for (int i = 0; i < 50; i++) {
+			final PollRequest request = new CountingRequest("http://localhost:9090/latest", fetches, 100);
+			registry.poll(request, null, 60000, 0, new Executor() {
+				public void execute(Runnable fetch) {
+					handedOver.incrementAndGet();
+					limiter.execute(request.getUrl(), threads, fetch);
+				}
+			}, new UrlPollRegistry.Callback() {
+				public void completed(UrlFingerprint fingerprint) {
+					completed.countDown();
+				}
+
+				public void failed(IOException e) {
+				}
+			});
+		}
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertEquals(1, handedOver.get());
+		assertEquals(1, fetches.get());
+		threads.shutdown();
+		limiter.shutdown();
+	}
+
+	@Test
+	public void testFailureReachesEveryCallback() throws Exception {
+		UrlPollRegistry registry = new UrlPollRegistry();
+		final PollRequest request = new PollRequest(new URL("http://localhost:9090/broken"), 1000) {
+			@Override
+			public UrlFingerprint fetch(UrlFingerprint known) throws IOException {
+				throw new IOException("broken");
+			}
+		};
+		final AtomicInteger failures = new AtomicInteger();
+		UrlPollRegistry.Callback callback = new UrlPollRegistry.Callback() {
+			public void completed(UrlFingerprint fingerprint) {
+			}
+
+			public void failed(IOException e) {
+				failures.incrementAndGet();
+			}
+		};
+		final List<Runnable> fetches = new ArrayList<Runnable>();
+		Executor later = new Executor() {
+			public void execute(Runnable fetch) {
+				fetches.add(fetch);
+			}
+		};
+		registry.poll(request, null, 60000, 0, later, callback);
+		registry.poll(request, null, 60000, 0, later, callback);
+		assertEquals(1, fetches.size());
+		assertEquals(0, failures.get());
+		fetches.get(0).run();
+		assertEquals(2, failures.get());
+	}
+}